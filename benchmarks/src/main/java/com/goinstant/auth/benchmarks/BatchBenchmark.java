@@ -0,0 +1,70 @@
+package com.goinstant.auth.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.goinstant.auth.SignedToken;
+import com.goinstant.auth.Signer;
+import com.goinstant.auth.User;
+
+/**
+ * A whole tenant's worth of users: a plain loop over sign() against
+ * signAll() on the default ForkJoinPool.
+ *
+ * signAll() does its own parallelism, so the interesting numbers are at one
+ * JMH thread: <code>java -jar target/benchmarks.jar -t 1 BatchBenchmark</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(1)
+@Fork(1)
+public class BatchBenchmark {
+
+    @Param({"10000"})
+    public int users;
+
+    @Param({"0", "10"})
+    public int groups;
+
+    private Signer signer;
+    private List<User> batch;
+
+    @Setup
+    public void setUp() {
+        signer = new Signer(Users.SECRET_KEY);
+        batch = new ArrayList<User>(users);
+        for (int i = 0; i < users; i++) {
+            batch.add(Users.makeUser(i, groups, 1));
+        }
+    }
+
+    @Benchmark
+    public void loop(Blackhole bh) {
+        for (User user : batch) {
+            bh.consume(signer.sign(user));
+        }
+    }
+
+    @Benchmark
+    public List<SignedToken> signAll() {
+        return signer.signAll(batch);
+    }
+}
@@ -0,0 +1,60 @@
+package com.goinstant.auth.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.goinstant.auth.PlainUser;
+import com.goinstant.auth.Signer;
+
+/**
+ * Signs users whose claims are in a {@link com.goinstant.auth.CompactClaims}
+ * (see Users.makeUser()) against the same claims in a HashMap, to check
+ * that the smaller map doesn't cost anything when the Signer iterates it.
+ * See {@link Footprint} for the memory side.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClaimsBenchmark {
+
+    /**
+     * Number of custom claims on the user.
+     */
+    @Param({"1", "4", "16", "100"})
+    public int claims;
+
+    private Signer signer;
+    private PlainUser compactUser;
+    private PlainUser hashMapUser;
+
+    @Setup
+    public void setup() {
+        this.signer = new Signer(Users.SECRET_KEY);
+        this.compactUser = Users.makeUser(42, 10, this.claims);
+        this.hashMapUser = Users.makeHashMapUser(42, 10, this.claims);
+    }
+
+    @Benchmark
+    public String signCompactClaims() {
+        return this.signer.sign(this.compactUser);
+    }
+
+    @Benchmark
+    public String signHashMapClaims() {
+        return this.signer.sign(this.hashMapUser);
+    }
+}
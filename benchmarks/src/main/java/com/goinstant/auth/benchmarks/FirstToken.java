@@ -0,0 +1,54 @@
+package com.goinstant.auth.benchmarks;
+
+import com.goinstant.auth.PlainUser;
+import com.goinstant.auth.Signer;
+
+/**
+ * Signs two tokens in a fresh process and reports how long each step took,
+ * for {@link Startup} to run over and over (as a JVM or as a native image).
+ *
+ * Prints <code>first-token</code> as soon as the first token is signed,
+ * then one line of timings in microseconds since main() started:
+ * <pre>
+ *   construct=... first=... second=...
+ * </pre>
+ * With <code>--warm-up</code>, {@link Signer#warmUp()} is called right after
+ * construction (and counted in it).
+ */
+public class FirstToken {
+
+    public static void main(String[] args) {
+        boolean warmUp = args.length > 0 && args[0].equals("--warm-up");
+
+        long start = System.nanoTime();
+        Signer signer = new Signer(Users.SECRET_KEY);
+        if (warmUp && !signer.warmUp()) {
+            throw new IllegalStateException("can't sign");
+        }
+        long constructed = System.nanoTime();
+
+        String first = signer.sign(user(1));
+        long signed = System.nanoTime();
+        System.out.println("first-token");
+        System.out.flush();
+
+        long beforeSecond = System.nanoTime();
+        String second = signer.sign(user(2));
+        long signedAgain = System.nanoTime();
+
+        if (first == null || second == null) {
+            throw new IllegalStateException("can't sign");
+        }
+        System.out.println("construct=" + micros(constructed - start)
+            + " first=" + micros(signed - constructed)
+            + " second=" + micros(signedAgain - beforeSecond));
+    }
+
+    private static PlainUser user(int i) {
+        return Users.makeUser(i, 3, 3);
+    }
+
+    private static long micros(long nanos) {
+        return nanos / 1000;
+    }
+}
@@ -0,0 +1,57 @@
+package com.goinstant.auth.benchmarks;
+
+import org.openjdk.jol.info.GraphLayout;
+
+import com.goinstant.auth.PlainUser;
+
+/**
+ * Measures how much heap a million resident users take with their claims
+ * in CompactClaims (see Users.makeUser()) versus a HashMap, using JOL to walk
+ * the object graphs.  Groups are shared between users, as they would be
+ * with a {@link com.goinstant.auth.GroupRegistry}, so only per-user memory
+ * is counted.
+ *
+ * Usage: java -cp target/benchmarks.jar
+ *   com.goinstant.auth.benchmarks.Footprint [users] [claims...]
+ * <br>
+ * Defaults to 1000000 users with 1, 3, 5 and 10 claims.  Give the JVM a
+ * big enough heap (-Xmx4g or so).
+ */
+public class Footprint {
+
+    public static void main(String[] args) {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int[] claimCounts = { 1, 3, 5, 10 };
+        if (args.length > 1) {
+            claimCounts = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                claimCounts[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+
+        System.out.printf("%d users%n%8s %14s %14s %10s %12s%n", users,
+            "claims", "HashMap MB", "Compact MB", "saved/user", "saved total");
+        for (int claims : claimCounts) {
+            long hashMap = claimsFootprint(users, claims, false);
+            long compact = claimsFootprint(users, claims, true);
+            System.out.printf("%8d %14.1f %14.1f %10d %10.1fMB%n", claims,
+                hashMap / 1e6, compact / 1e6, (hashMap - compact) / users,
+                (hashMap - compact) / 1e6);
+        }
+    }
+
+    /**
+     * Bytes reachable from a million users' claim maps.  The claim values
+     * are the same in both cases, so the difference is all map overhead.
+     */
+    private static long claimsFootprint(int count, int claims, boolean compact) {
+        Object[] maps = new Object[count];
+        for (int i = 0; i < count; i++) {
+            PlainUser user = compact
+                ? Users.makeUser(i, 0, claims)
+                : Users.makeHashMapUser(i, 0, claims);
+            maps[i] = user.getCustomClaims();
+        }
+        return GraphLayout.parseInstance(maps).totalSize();
+    }
+}
@@ -0,0 +1,88 @@
+package com.goinstant.auth.benchmarks;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.MACSigner;
+import com.nimbusds.jose.util.Base64URL;
+
+import com.goinstant.auth.Signer;
+
+/**
+ * HMAC-SHA256 over a typical signing input: the old per-token path (Nimbus
+ * MACSigner, which does Mac.getInstance + init on every call) against a
+ * pre-initialized Mac per thread, which is what Signer does now.
+ * <br>
+ * Run it at several thread counts to see provider-lookup contention, e.g.
+ * <code>java -jar target/benchmarks.jar HmacBenchmark</code>.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HmacBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Shared {
+        byte[] key;
+        byte[] input;
+        JWSHeader header;
+        MACSigner macSigner;
+
+        @Setup
+        public void setUp() {
+            key = Signer.parseKey(Users.SECRET_KEY);
+            input = new Signer(Users.SECRET_KEY)
+                .sign(Users.makeUser(12345, 10, 0))
+                .substring(0, 400)
+                .getBytes();
+            header = new JWSHeader(JWSAlgorithm.HS256);
+            macSigner = new MACSigner(key);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class PerThread {
+        Mac mac;
+
+        @Setup
+        public void setUp(Shared shared) throws GeneralSecurityException {
+            mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(shared.key, "HmacSHA256"));
+        }
+    }
+
+    /**
+     * The path Signer used to take.
+     */
+    @Benchmark
+    public Base64URL macSignerPerToken(Shared shared) throws JOSEException {
+        return shared.macSigner.sign(shared.header, shared.input);
+    }
+
+    /**
+     * The path Signer takes now.
+     */
+    @Benchmark
+    public byte[] reusedMacPerThread(Shared shared, PerThread state) {
+        return state.mac.doFinal(shared.input);
+    }
+}
@@ -0,0 +1,87 @@
+package com.goinstant.auth.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.goinstant.auth.FrozenUser;
+import com.goinstant.auth.Group;
+import com.goinstant.auth.PlainGroup;
+import com.goinstant.auth.PlainUser;
+import com.goinstant.auth.Signer;
+import com.goinstant.auth.TokenTooLargeException;
+
+/**
+ * Users in thousands of groups: signing them in full (time should grow
+ * linearly with the group count), and rejecting them with a maximum token
+ * size, which should cost far less than signing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LargeUserBenchmark {
+
+    @Param({"1000", "10000"})
+    public int groups;
+
+    /**
+     * Custom claims on each group.
+     */
+    @Param({"0", "3"})
+    public int groupClaims;
+
+    private Signer signer;
+    private Signer limited;
+    private PlainUser user;
+    private FrozenUser frozen;
+
+    @Setup
+    public void setUp() {
+        this.signer = new Signer(Users.SECRET_KEY);
+        this.limited = new Signer(Users.SECRET_KEY);
+        this.limited.setMaxTokenSize(8 * 1024);
+
+        this.user = Users.makeUser(42, this.groups, 5);
+        if (this.groupClaims > 0) {
+            int i = 0;
+            for (Group group : this.user.getGroups()) {
+                ((PlainGroup)group).setCustomClaims(
+                    Users.makeClaims(i++, this.groupClaims));
+            }
+        }
+        this.frozen = new FrozenUser(this.user);
+    }
+
+    @Benchmark
+    public String sign() {
+        return this.signer.sign(this.user);
+    }
+
+    @Benchmark
+    public String signFrozenUser() {
+        return this.signer.sign(this.frozen);
+    }
+
+    @Benchmark
+    public int rejectTooLarge() {
+        try {
+            this.limited.sign(this.user);
+            return 0;
+        } catch (TokenTooLargeException e) {
+            return e.getMaxTokenSize();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.goinstant.auth.benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.goinstant.auth.LazyToken;
+import com.goinstant.auth.PlainUser;
+import com.goinstant.auth.Signer;
+
+/**
+ * A page that only embeds its token some of the time: signing up front
+ * versus {@link Signer#signLazily}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LazyBenchmark {
+
+    /**
+     * Percentage of pages that render the token.
+     */
+    @Param({"0", "60", "100"})
+    public int usedPercent;
+
+    @Param({"10", "100"})
+    public int groups;
+
+    private Signer signer;
+    private PlainUser user;
+
+    @Setup
+    public void setUp() {
+        this.signer = new Signer(Users.SECRET_KEY);
+        this.user = Users.makeUser(42, this.groups, 5);
+    }
+
+    private boolean used() {
+        return ThreadLocalRandom.current().nextInt(100) < this.usedPercent;
+    }
+
+    @Benchmark
+    public String eager() {
+        String token = this.signer.sign(this.user);
+        return used() ? token : null;
+    }
+
+    @Benchmark
+    public String lazy() {
+        LazyToken token = this.signer.signLazily(this.user);
+        return used() ? token.toString() : null;
+    }
+}
@@ -0,0 +1,47 @@
+package com.goinstant.auth.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks at 1, 4 and N (one per available processor) threads
+ * with the GC profiler attached, so every run reports throughput, average
+ * latency and allocation rate.
+ *
+ * Usage: java -jar target/benchmarks.jar [jmh options]
+ * <br>
+ * Any JMH command-line options (e.g. a benchmark regex, or <code>-p
+ * groups=0,10</code>) are passed through.  Passing <code>-t</code> runs only
+ * that thread count.
+ */
+public class Main {
+
+    public static void main(String[] args)
+        throws RunnerException, CommandLineOptionException
+    {
+        CommandLineOptions cmdline = new CommandLineOptions(args);
+
+        int[] threadCounts;
+        if (cmdline.getThreads().hasValue()) {
+            threadCounts = new int[] { cmdline.getThreads().get() };
+        } else {
+            threadCounts = new int[] {
+                1, 4, Runtime.getRuntime().availableProcessors()
+            };
+        }
+
+        for (int threads : threadCounts) {
+            Options opts = new OptionsBuilder()
+                .parent(cmdline)
+                .threads(threads)
+                .addProfiler(GCProfiler.class)
+                .build();
+            new Runner(opts).run();
+        }
+    }
+}
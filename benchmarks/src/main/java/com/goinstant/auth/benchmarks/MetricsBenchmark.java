@@ -0,0 +1,57 @@
+package com.goinstant.auth.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.goinstant.auth.PlainUser;
+import com.goinstant.auth.Signer;
+import com.goinstant.auth.SignerMetrics;
+
+/**
+ * What {@link SignerMetrics} costs per token.  Run it at several thread
+ * counts (the default) to check that recording doesn't contend.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+
+    @Param({"0", "10"})
+    public int groups;
+
+    private Signer plain;
+    private Signer measured;
+    private PlainUser user;
+
+    @Setup
+    public void setup() {
+        this.plain = new Signer(Users.SECRET_KEY);
+        this.measured = new Signer(Users.SECRET_KEY);
+        this.measured.setMetrics(new SignerMetrics());
+        this.user = Users.makeUser(42, this.groups, 1);
+    }
+
+    @Benchmark
+    public String withoutMetrics() {
+        return this.plain.sign(this.user);
+    }
+
+    @Benchmark
+    public String withMetrics() {
+        return this.measured.sign(this.user);
+    }
+}
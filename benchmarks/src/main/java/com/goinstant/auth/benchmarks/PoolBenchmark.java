@@ -0,0 +1,69 @@
+package com.goinstant.auth.benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.goinstant.auth.PlainUser;
+import com.goinstant.auth.Signer;
+import com.goinstant.auth.SignerPool;
+
+/**
+ * Many apps, each with its own key: a new Signer per request versus a
+ * {@link SignerPool}.  With more apps than the pool holds, some lookups
+ * miss and evict.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PoolBenchmark {
+
+    @Param({"100", "10000"})
+    public int apps;
+
+    @Param({"1000"})
+    public int poolSize;
+
+    private String[] appIDs;
+    private String[] keys;
+    private SignerPool pool;
+    private PlainUser user;
+
+    @Setup
+    public void setup() {
+        this.appIDs = new String[this.apps];
+        this.keys = new String[this.apps];
+        for (int i = 0; i < this.apps; i++) {
+            this.appIDs[i] = "app-" + i;
+            this.keys[i] = String.format("%08d", i) + Users.SECRET_KEY.substring(8);
+        }
+        this.pool = new SignerPool(this.poolSize);
+        this.user = Users.makeUser(42, 2, 1);
+    }
+
+    @Benchmark
+    public String newSignerPerRequest() {
+        int app = ThreadLocalRandom.current().nextInt(this.apps);
+        return new Signer(this.keys[app]).sign(this.user);
+    }
+
+    @Benchmark
+    public String pooled() {
+        int app = ThreadLocalRandom.current().nextInt(this.apps);
+        return this.pool.sign(this.appIDs[app], this.keys[app], this.user);
+    }
+}
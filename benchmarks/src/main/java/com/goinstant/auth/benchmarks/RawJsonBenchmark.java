@@ -0,0 +1,81 @@
+package com.goinstant.auth.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import net.minidev.json.JSONValue;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.goinstant.auth.PlainUser;
+import com.goinstant.auth.RawJson;
+import com.goinstant.auth.Signer;
+
+/**
+ * A user whose big "profile" claim arrives as a JSON string: parsing it
+ * into Maps and Lists for every token, versus wrapping it in a RawJson
+ * (checked each time, or once and re-used).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RawJsonBenchmark {
+
+    /**
+     * Number of entries in the profile's permission list.
+     */
+    @Param({"10", "100", "1000"})
+    public int entries;
+
+    private Signer signer;
+    private String profileJson;
+    private RawJson profile;
+
+    @Setup
+    public void setup() {
+        this.signer = new Signer(Users.SECRET_KEY);
+        StringBuilder json = new StringBuilder("{\"bio\":\"A user with a big profile\",\"perms\":[");
+        for (int i = 0; i < this.entries; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"resource\":\"doc-").append(i).append("\",\"write\":")
+                .append(i % 2 == 0).append('}');
+        }
+        this.profileJson = json.append("]}").toString();
+        this.profile = new RawJson(this.profileJson);
+    }
+
+    private String sign(Object profile) {
+        PlainUser user = new PlainUser("42", Users.DOMAIN, "User Number 42");
+        user.setCustomClaim("profile", profile);
+        return this.signer.sign(user);
+    }
+
+    @Benchmark
+    public String parseThenSign() {
+        return sign(JSONValue.parse(this.profileJson));
+    }
+
+    @Benchmark
+    public String rawJson() {
+        return sign(new RawJson(this.profileJson));
+    }
+
+    @Benchmark
+    public String rawJsonReused() {
+        return sign(this.profile);
+    }
+}
@@ -0,0 +1,142 @@
+package com.goinstant.auth.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.goinstant.auth.CompiledHeaders;
+import com.goinstant.auth.FrozenUser;
+import com.goinstant.auth.GroupRegistry;
+import com.goinstant.auth.PlainUser;
+import com.goinstant.auth.Signer;
+
+/**
+ * Measures {@link Signer#sign(com.goinstant.auth.User)} and {@link
+ * Signer#sign(com.goinstant.auth.User, Map)} across user shapes.
+ *
+ * A single Signer is shared by every benchmark thread, which is how the
+ * library is meant to be used.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SignerBenchmark {
+
+    /**
+     * Number of PlainGroups the user belongs to.
+     */
+    @Param({"0", "10", "100", "1000"})
+    public int groups;
+
+    /**
+     * Number of custom claims on the user; 100 is our "large" case.
+     */
+    @Param({"0", "100"})
+    public int claims;
+
+    /**
+     * Whether the groups are FrozenGroups from a GroupRegistry.
+     */
+    @Param({"false", "true"})
+    public boolean frozenGroups;
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private Signer signer;
+    private PlainUser user;
+    private FrozenUser frozenUser;
+    private Map<String,Object> headers;
+    private CompiledHeaders compiledHeaders;
+
+    @Setup
+    public void setUp() {
+        signer = new Signer(Users.SECRET_KEY);
+        user = Users.makeUser(12345, groups, claims);
+        if (frozenGroups) {
+            user = new PlainUser(user.getID(), user.getDomain(), user.getDisplayName(),
+                new GroupRegistry().intern(user.getGroups()));
+            if (claims > 0) {
+                user.setCustomClaims(Users.makeClaims(12345, claims));
+            }
+        }
+        frozenUser = user.freeze();
+        headers = Users.makeHeaders(2);
+        compiledHeaders = signer.compileHeaders(headers);
+    }
+
+    /**
+     * Default header path.
+     */
+    @Benchmark
+    public String sign() {
+        return signer.sign(user);
+    }
+
+    /**
+     * The same user frozen: no validation or serialization per call.
+     */
+    @Benchmark
+    public String signFrozenUser() {
+        return signer.sign(frozenUser);
+    }
+
+    /**
+     * extraHeaders path; the header comes from the Signer's cache.
+     */
+    @Benchmark
+    public String signWithExtraHeaders() {
+        return signer.sign(user, headers);
+    }
+
+    /**
+     * Headers compiled up front.
+     */
+    @Benchmark
+    public String signWithCompiledHeaders() {
+        return signer.signWith(user, compiledHeaders);
+    }
+
+    /**
+     * Each thread's response buffer.
+     */
+    @State(Scope.Thread)
+    public static class Output {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024);
+    }
+
+    /**
+     * Straight into a direct buffer, with no String in between.
+     */
+    @Benchmark
+    public int signToByteBuffer(Output out) {
+        out.buffer.clear();
+        return signer.signTo(user, out.buffer);
+    }
+
+    /**
+     * What callers did before signTo(): sign, then encode into the buffer.
+     */
+    @Benchmark
+    public int signThenEncode(Output out) {
+        out.buffer.clear();
+        byte[] bytes = signer.sign(user).getBytes(US_ASCII);
+        out.buffer.put(bytes);
+        return bytes.length;
+    }
+}
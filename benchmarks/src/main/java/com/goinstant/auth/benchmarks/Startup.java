@@ -0,0 +1,105 @@
+package com.goinstant.auth.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures time to first token: starts {@link FirstToken} in a fresh
+ * process many times, cold and with {@link com.goinstant.auth.Signer#warmUp()},
+ * and reports the median and 90th percentile of
+ * <ul>
+ * <li>process start to the first token being printed (JVM or image boot,
+ *   class loading and all),</li>
+ * <li>constructing the Signer (plus warmUp(), if any),</li>
+ * <li>the first sign, and the second.</li>
+ * </ul>
+ *
+ * Usage: java -cp target/benchmarks.jar
+ *   com.goinstant.auth.benchmarks.Startup [runs] [command...]
+ * <br>
+ * Defaults to 20 runs of this JVM running FirstToken from this classpath.
+ * To measure a native image, build one and pass it as the command:
+ * <pre>
+ *   native-image -cp target/benchmarks.jar com.goinstant.auth.benchmarks.FirstToken first-token
+ *   java -cp target/benchmarks.jar com.goinstant.auth.benchmarks.Startup 20 ./first-token
+ * </pre>
+ */
+public class Startup {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        List<String> command;
+        if (args.length > 1) {
+            command = Arrays.asList(args).subList(1, args.length);
+        } else {
+            command = Arrays.asList(
+                System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+                "-cp", System.getProperty("java.class.path"),
+                FirstToken.class.getName());
+        }
+
+        System.out.printf("%d runs of %s%n%8s %18s %18s %18s %18s%n", runs, command,
+            "", "to first token ms", "construct us", "first sign us", "second sign us");
+        for (boolean warmUp : new boolean[] { false, true }) {
+            List<String> run = new ArrayList<String>(command);
+            if (warmUp) {
+                run.add("--warm-up");
+            }
+            long[][] samples = new long[4][runs];
+            for (int i = 0; i < runs; i++) {
+                long[] sample = runOnce(run);
+                for (int j = 0; j < sample.length; j++) {
+                    samples[j][i] = sample[j];
+                }
+            }
+            System.out.printf("%8s %18s %18s %18s %18s%n", warmUp ? "warm-up" : "cold",
+                summary(samples[0]), summary(samples[1]), summary(samples[2]),
+                summary(samples[3]));
+        }
+    }
+
+    /**
+     * Run the command once: milliseconds until it printed its first token,
+     * then its own construct, first and second timings in microseconds.
+     */
+    private static long[] runOnce(List<String> command) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        BufferedReader out = new BufferedReader(
+            new InputStreamReader(process.getInputStream(), "UTF-8"));
+        try {
+            String line = out.readLine();
+            long firstToken = (System.nanoTime() - start) / 1000000;
+            if (!"first-token".equals(line)) {
+                throw new IllegalStateException("unexpected output: " + line);
+            }
+            long[] sample = { firstToken, 0, 0, 0 };
+            String timings = out.readLine();
+            String[] fields = timings != null ? timings.split(" ") : new String[0];
+            if (fields.length != 3) {
+                throw new IllegalStateException("unexpected output: " + timings);
+            }
+            for (int i = 0; i < 3; i++) {
+                sample[i + 1] = Long.parseLong(fields[i].substring(fields[i].indexOf('=') + 1));
+            }
+            return sample;
+        } finally {
+            out.close();
+            process.waitFor();
+        }
+    }
+
+    /**
+     * "median / p90".
+     */
+    private static String summary(long[] samples) {
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2] + " / " + sorted[(sorted.length * 9 + 9) / 10 - 1];
+    }
+}
@@ -0,0 +1,63 @@
+package com.goinstant.auth.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.goinstant.auth.PlainUser;
+import com.goinstant.auth.Signer;
+import com.goinstant.auth.TokenTemplate;
+
+/**
+ * A tenant's users (same domain and groups, one varying claim): building
+ * and signing a PlainUser each time against filling in a TokenTemplate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemplateBenchmark {
+
+    @Param({"0", "10", "100"})
+    public int groups;
+
+    private Signer signer;
+    private PlainUser prototype;
+    private TokenTemplate template;
+
+    @Setup
+    public void setUp() {
+        signer = new Signer(Users.SECRET_KEY);
+        prototype = new PlainUser("prototype", Users.DOMAIN, null, Users.makeGroups(groups));
+        template = new TokenTemplate(signer, prototype, "email");
+    }
+
+    @Benchmark
+    public String signUser() {
+        PlainUser user = new PlainUser("12345", Users.DOMAIN, "User Number 12345",
+            prototype.getGroups());
+        Map<String,Object> claims = new HashMap<String,Object>();
+        claims.put("email", "user12345@example.com");
+        user.setCustomClaims(claims);
+        return signer.sign(user);
+    }
+
+    @Benchmark
+    public String signTemplate() {
+        return template.sign("12345", "User Number 12345", "user12345@example.com");
+    }
+}
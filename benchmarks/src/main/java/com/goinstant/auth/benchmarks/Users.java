@@ -0,0 +1,106 @@
+package com.goinstant.auth.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.goinstant.auth.CompactClaims;
+import com.goinstant.auth.Group;
+import com.goinstant.auth.PlainGroup;
+import com.goinstant.auth.PlainUser;
+
+/**
+ * Fixtures shared by the benchmarks.
+ *
+ * Users are shaped like the ones we see in production: a numeric id, a
+ * display name, an email claim and some number of groups.
+ */
+final class Users {
+
+    /**
+     * Key from the goinstant-auth unit tests.
+     */
+    static final String SECRET_KEY = "HKYdFdnezle2yrI2_Ph3cHz144bISk-cvuAbeAAA999";
+
+    static final String DOMAIN = "example.com";
+
+    private Users() {
+    }
+
+    /**
+     * Build a user with the given number of groups and custom claims.
+     *
+     * @param id numeric-ish id of the user
+     * @param groupCount number of PlainGroups the user belongs to
+     * @param claimCount number of custom claims (0 for none), in a CompactClaims
+     */
+    static PlainUser makeUser(int id, int groupCount, int claimCount) {
+        PlainUser user = new PlainUser(
+            Integer.toString(id), DOMAIN, "User Number " + id, makeGroups(groupCount));
+
+        if (claimCount > 0) {
+            user.setCustomClaims(new CompactClaims(makeClaims(id, claimCount)));
+        }
+        return user;
+    }
+
+    /**
+     * Groups with ids "g0".."gN", in deterministic order.
+     */
+    static Set<Group> makeGroups(int count) {
+        TreeSet<Group> groups = new TreeSet<Group>();
+        for (int i = 0; i < count; i++) {
+            groups.add(new PlainGroup("g" + i, "Group Number " + i));
+        }
+        return groups;
+    }
+
+    /**
+     * A mix of string, numeric and boolean claims.
+     */
+    static Map<String,Object> makeClaims(int id, int count) {
+        HashMap<String,Object> claims = new HashMap<String,Object>();
+        claims.put("email", "user" + id + "@example.com");
+        for (int i = 1; i < count; i++) {
+            switch (i % 3) {
+                case 0:
+                    claims.put("c" + i, "value-" + i);
+                    break;
+                case 1:
+                    claims.put("c" + i, Integer.valueOf(i));
+                    break;
+                default:
+                    claims.put("c" + i, Boolean.valueOf(i % 2 == 0));
+                    break;
+            }
+        }
+        return claims;
+    }
+
+    /**
+     * The header maps we pass in practice: just a key id, or a key id plus a
+     * content type.
+     */
+    static Map<String,Object> makeHeaders(int count) {
+        HashMap<String,Object> headers = new HashMap<String,Object>();
+        headers.put("kid", "key-2014-01");
+        if (count > 1) {
+            headers.put("cty", "JWT");
+        }
+        return headers;
+    }
+
+    /**
+     * makeUser(), with the claims left in a HashMap.
+     */
+    static PlainUser makeHashMapUser(int id, int groupCount, int claimCount) {
+        PlainUser user = new PlainUser(
+            Integer.toString(id), DOMAIN, "User Number " + id, makeGroups(groupCount));
+
+        if (claimCount > 0) {
+            user.setCustomClaims(makeClaims(id, claimCount));
+        }
+        return user;
+    }
+}
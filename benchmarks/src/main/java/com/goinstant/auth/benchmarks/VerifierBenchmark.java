@@ -0,0 +1,81 @@
+package com.goinstant.auth.benchmarks;
+
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.crypto.MACVerifier;
+import com.nimbusds.jwt.SignedJWT;
+
+import com.goinstant.auth.Signer;
+import com.goinstant.auth.Verifier;
+
+/**
+ * Checking a token and reading its subject: Nimbus SignedJWT.parse plus
+ * MACVerifier against Verifier, with and without its recently-verified cache.
+ * <br>
+ * The cached case re-presents the same token each time, as a session does.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VerifierBenchmark {
+
+    @Param({"0", "10", "100"})
+    public int groups;
+
+    String token;
+    MACVerifier macVerifier;
+    Verifier cached;
+    Verifier uncached;
+
+    @Setup
+    public void setUp() {
+        token = new Signer(Users.SECRET_KEY).sign(Users.makeUser(12345, groups, 0));
+        macVerifier = new MACVerifier(Signer.parseKey(Users.SECRET_KEY));
+        cached = new Verifier(Users.SECRET_KEY);
+        uncached = new Verifier(Users.SECRET_KEY, 0);
+    }
+
+    @Benchmark
+    public String nimbus() throws ParseException, JOSEException {
+        SignedJWT jwt = SignedJWT.parse(token);
+        if (!jwt.verify(macVerifier)) {
+            throw new IllegalStateException("bad signature");
+        }
+        return jwt.getJWTClaimsSet().getSubject();
+    }
+
+    @Benchmark
+    public boolean verifierUncached() {
+        return uncached.isValid(token);
+    }
+
+    @Benchmark
+    public boolean verifierCached() {
+        return cached.isValid(token);
+    }
+
+    /**
+     * Verify, then decode the claims for the subject.
+     */
+    @Benchmark
+    public String verifierWithSubject() {
+        return uncached.verify(token).getSubject();
+    }
+}
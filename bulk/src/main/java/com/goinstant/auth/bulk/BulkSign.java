@@ -0,0 +1,428 @@
+package com.goinstant.auth.bulk;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.goinstant.auth.Signer;
+import com.goinstant.auth.User;
+
+/**
+ * Sign tokens for every user in an NDJSON or CSV export, writing
+ * <code>id,token</code> lines in the same order.
+ *
+ * Usage: java -jar goinstant-auth-bulk.jar [options] input output
+ *
+ *   --format F       ndjson or csv (default: csv for *.csv, else ndjson)
+ *   --domain D       domain for users that don't name one
+ *   --key-id K       kid to put in every token
+ *   --threads N      signing threads (default: one per CPU)
+ *   --chunk-kb N     input chunk size per task (default 1024)
+ *
+ * The secret key comes from $SECRET_KEY.  See {@link Format} for the record
+ * formats.
+ * <br>
+ * The input is memory-mapped a window at a time and cut into chunks of
+ * whole lines, which worker threads parse and sign; their output is written,
+ * in order, through a buffered FileChannel.  Only a few chunks per thread
+ * are in flight at once, so memory use doesn't grow with the file.  Records
+ * that can't be signed are reported (with their line numbers) on stderr and
+ * left out of the output.
+ */
+public final class BulkSign {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * How often progress is reported, in seconds.
+     */
+    private static final int PROGRESS_SECONDS = 5;
+
+    private final Signer signer;
+    private final String formatName;
+    private final String domain;
+    private final int threads;
+    private final int chunkBytes;
+    private final PrintStream log;
+
+    private volatile long records;
+    private volatile long failures;
+    private volatile long bytesRead;
+
+    /**
+     * @param formatName "ndjson", "csv", or null to go by the file name.
+     */
+    BulkSign(Signer signer, String formatName, String domain, int threads, int chunkBytes,
+        PrintStream log)
+    {
+        this.signer = signer;
+        this.formatName = formatName;
+        this.domain = domain;
+        this.threads = threads;
+        this.chunkBytes = chunkBytes;
+        this.log = log;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String format = null, domain = null, keyID = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int chunkKB = 1024;
+        List<String> files = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (i + 1 < args.length && arg.equals("--format")) {
+                format = args[++i];
+            } else if (i + 1 < args.length && arg.equals("--domain")) {
+                domain = args[++i];
+            } else if (i + 1 < args.length && arg.equals("--key-id")) {
+                keyID = args[++i];
+            } else if (i + 1 < args.length && arg.equals("--threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (i + 1 < args.length && arg.equals("--chunk-kb")) {
+                chunkKB = Integer.parseInt(args[++i]);
+            } else if (arg.startsWith("--")) {
+                usage("unknown option " + arg);
+            } else {
+                files.add(arg);
+            }
+        }
+        if (files.size() != 2) {
+            usage("expected an input and an output file");
+        }
+        String secretKey = System.getenv("SECRET_KEY");
+        if (secretKey == null) {
+            usage("set SECRET_KEY to the app's secret key");
+        }
+        if (format != null && !format.equals("ndjson") && !format.equals("csv")) {
+            usage("--format must be ndjson or csv");
+        }
+
+        BulkSign bulk = new BulkSign(new Signer(secretKey, keyID), format, domain,
+            threads, chunkKB * 1024, System.err);
+        bulk.run(Paths.get(files.get(0)), Paths.get(files.get(1)));
+        System.exit(bulk.failures > 0 ? 2 : 0);
+    }
+
+    private static void usage(String problem) {
+        System.err.println(problem);
+        System.err.println("usage: java -jar goinstant-auth-bulk.jar [--format ndjson|csv]"
+            + " [--domain D] [--key-id K] [--threads N] [--chunk-kb N] input output");
+        System.exit(1);
+    }
+
+    long getRecordCount() {
+        return this.records;
+    }
+
+    long getFailureCount() {
+        return this.failures;
+    }
+
+    /**
+     * Sign every record in input, writing id,token lines to output.
+     *
+     * @throws IOException if reading or writing fails, or a line is longer
+     *   than {@link ChunkReader#WINDOW}.
+     */
+    void run(Path input, Path output) throws IOException, InterruptedException {
+        long started = System.nanoTime();
+        FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+        FileChannel out = FileChannel.open(output, StandardOpenOption.WRITE,
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        ExecutorService workers = Executors.newFixedThreadPool(this.threads);
+        Thread progress = startProgress(in.size(), started);
+        try {
+            boolean csv = this.formatName != null
+                ? this.formatName.equals("csv")
+                : isCsv(input);
+            sign(in, out, workers, csv);
+        } finally {
+            progress.interrupt();
+            workers.shutdownNow();
+            out.close();
+            in.close();
+        }
+
+        double seconds = (System.nanoTime() - started) / 1e9;
+        this.log.printf("Signed %d of %d records in %.1fs: %.0f tokens/s, %.1f MB/s%n",
+            this.records - this.failures, this.records, seconds,
+            (this.records - this.failures) / seconds, this.bytesRead / 1e6 / seconds);
+    }
+
+    private void sign(FileChannel in, FileChannel out, ExecutorService workers, boolean csv)
+        throws IOException, InterruptedException
+    {
+        long start = 0;
+        long line = 1;
+        Format format;
+        if (csv) {
+            String header = readHeader(in);
+            start = header.getBytes(UTF_8).length + 1;
+            format = new Format.Csv(stripCR(header), this.domain);
+            line = 2;
+        } else {
+            format = new Format.Ndjson(this.domain);
+        }
+
+        ChunkReader reader = new ChunkReader(in, start);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024);
+        ArrayDeque<Future<Result>> pending = new ArrayDeque<Future<Result>>();
+        int maxPending = this.threads * 2;
+
+        ChunkReader.Chunk chunk;
+        while ((chunk = reader.next(this.chunkBytes)) != null) {
+            if (pending.size() >= maxPending) {
+                line = write(pending.poll(), line, buffer, out);
+            }
+            pending.add(workers.submit(new Task(chunk, format, this.signer)));
+        }
+        while (!pending.isEmpty()) {
+            line = write(pending.poll(), line, buffer, out);
+        }
+        flush(buffer, out);
+    }
+
+    /**
+     * Whether a file name says CSV.
+     */
+    static boolean isCsv(Path path) {
+        return path.getFileName().toString().toLowerCase().endsWith(".csv");
+    }
+
+    /**
+     * The first line of the file, without its newline.
+     */
+    private static String readHeader(FileChannel in) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        ByteBuffer buf = ByteBuffer.allocate(4096);
+        long position = 0;
+        while (true) {
+            buf.clear();
+            int n = in.read(buf, position);
+            if (n < 0) {
+                return header.toString("UTF-8");
+            }
+            for (int i = 0; i < n; i++) {
+                byte b = buf.get(i);
+                if (b == '\n') {
+                    return header.toString("UTF-8");
+                }
+                header.write(b);
+            }
+            position += n;
+        }
+    }
+
+    private static String stripCR(String line) {
+        return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+    }
+
+    /**
+     * Copy one chunk's output to the file, and report its failures.
+     *
+     * @return the line number after the chunk.
+     */
+    private long write(Future<Result> future, long line, ByteBuffer buffer, FileChannel out)
+        throws IOException, InterruptedException
+    {
+        Result result;
+        try {
+            result = future.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("signing failed", e.getCause());
+        }
+
+        byte[] bytes = result.output.bytes();
+        int length = result.output.size();
+        for (int off = 0; off < length; ) {
+            if (!buffer.hasRemaining()) {
+                flush(buffer, out);
+            }
+            int n = Math.min(buffer.remaining(), length - off);
+            buffer.put(bytes, off, n);
+            off += n;
+        }
+        for (int i = 0; i < result.errorLines.size(); i++) {
+            this.log.println("line " + (line + result.errorLines.get(i)) + ": "
+                + result.errors.get(i));
+        }
+
+        this.records += result.records;
+        this.failures += result.errors.size();
+        this.bytesRead = result.end;
+        return line + result.lines;
+    }
+
+    private static void flush(ByteBuffer buffer, FileChannel out) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private Thread startProgress(final long size, final long started) {
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    while (true) {
+                        TimeUnit.SECONDS.sleep(PROGRESS_SECONDS);
+                        double seconds = (System.nanoTime() - started) / 1e9;
+                        long done = BulkSign.this.records;
+                        BulkSign.this.log.printf("%5.1f%%  %d records  %.0f records/s%n",
+                            size > 0 ? 100.0 * BulkSign.this.bytesRead / size : 100.0,
+                            done, done / seconds);
+                    }
+                } catch (InterruptedException e) {
+                    // finished
+                }
+            }
+        }, "bulk-sign-progress");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * A ByteArrayOutputStream that can take back what was written.
+     */
+    static final class Output extends ByteArrayOutputStream {
+        Output(int size) {
+            super(size);
+        }
+
+        byte[] bytes() {
+            return this.buf;
+        }
+
+        void truncate(int size) {
+            this.count = size;
+        }
+    }
+
+    /**
+     * What a Task made of its chunk.
+     */
+    static final class Result {
+        final Output output;
+        final int records;
+        final int lines;
+        final List<Integer> errorLines;
+        final List<String> errors;
+        final long end;
+
+        Result(Output output, int records, int lines, List<Integer> errorLines,
+            List<String> errors, long end)
+        {
+            this.output = output;
+            this.records = records;
+            this.lines = lines;
+            this.errorLines = errorLines;
+            this.errors = errors;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Parse and sign every record in a chunk.
+     */
+    static final class Task implements Callable<Result> {
+        private final ChunkReader.Chunk chunk;
+        private final Format format;
+        private final Signer signer;
+
+        Task(ChunkReader.Chunk chunk, Format format, Signer signer) {
+            this.chunk = chunk;
+            this.format = format;
+            this.signer = signer;
+        }
+
+        public Result call() throws IOException {
+            ByteBuffer bytes = this.chunk.bytes;
+            byte[] text = new byte[bytes.remaining()];
+            bytes.get(text);
+
+            // tokens are usually a few times the size of their records
+            Output out = new Output(text.length * 2 + 256);
+            List<Integer> errorLines = new ArrayList<Integer>();
+            List<String> errors = new ArrayList<String>();
+            int records = 0, lines = 0;
+
+            int start = 0;
+            while (start < text.length) {
+                int end = start;
+                while (end < text.length && text[end] != '\n') {
+                    end++;
+                }
+                int stop = end > start && text[end - 1] == '\r' ? end - 1 : end;
+                if (stop > start) {
+                    records++;
+                    String message = sign(new String(text, start, stop - start, UTF_8), out);
+                    if (message != null) {
+                        errorLines.add(lines);
+                        errors.add(message);
+                    }
+                }
+                lines++;
+                start = end + 1;
+            }
+            return new Result(out, records, lines, errorLines, errors, this.chunk.end);
+        }
+
+        /**
+         * Write one record's id,token line.
+         *
+         * @return why it couldn't be signed, or null.
+         */
+        private String sign(String record, Output out) throws IOException {
+            int mark = out.size();
+            try {
+                User user = this.format.parse(record);
+                writeCsv(user.getID(), out);
+                out.write(',');
+                if (this.signer.signTo(user, out) < 0) {
+                    out.truncate(mark);
+                    return "signing failed";
+                }
+                out.write('\n');
+                return null;
+
+            } catch (IllegalArgumentException e) {
+                out.truncate(mark);
+                return String.valueOf(e.getMessage());
+            }
+        }
+
+        /**
+         * Write a CSV value, quoted if it needs to be.
+         */
+        private static void writeCsv(String value, Output out) throws IOException {
+            if (value == null) {
+                return; // sign() will reject it
+            }
+            boolean quote = false;
+            for (int i = 0; i < value.length() && !quote; i++) {
+                char c = value.charAt(i);
+                quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+            }
+            if (quote) {
+                value = "\"" + value.replace("\"", "\"\"") + "\"";
+            }
+            out.write(value.getBytes(UTF_8));
+        }
+    }
+}
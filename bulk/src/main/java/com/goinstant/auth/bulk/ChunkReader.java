@@ -0,0 +1,122 @@
+package com.goinstant.auth.bulk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Cuts a file into chunks of whole lines, through a memory-mapped window
+ * that slides along it; however big the file, only one window (plus any
+ * chunks still being worked on) is mapped at a time.
+ */
+final class ChunkReader {
+    /**
+     * Default window size; no line may be longer.
+     */
+    static final int WINDOW = 64 * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long size;
+    private final int windowSize;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long position;
+
+    ChunkReader(FileChannel channel, long start) throws IOException {
+        this(channel, start, WINDOW);
+    }
+
+    ChunkReader(FileChannel channel, long start, int windowSize) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+        this.windowSize = windowSize;
+        this.position = start;
+    }
+
+    long size() {
+        return this.size;
+    }
+
+    /**
+     * The next chunk: about chunkBytes of whole lines (a line longer than
+     * that makes a chunk of its own).
+     *
+     * @return the chunk, or null at the end of the file.
+     *
+     * @throws IOException if a line is longer than the window.
+     */
+    Chunk next(int chunkBytes) throws IOException {
+        if (this.position >= this.size) {
+            return null;
+        }
+        long end = Math.min(this.position + chunkBytes, this.size);
+        if (this.window == null || end > this.windowStart + this.window.limit()) {
+            map(this.position);
+            end = Math.min(end, this.windowStart + this.window.limit());
+        }
+        long windowEnd = this.windowStart + this.window.limit();
+
+        if (end < this.size) {
+            long cut = lastNewline(this.position, end);
+            if (cut < 0) { // one long line; look past chunkBytes for its end
+                cut = firstNewline(end, windowEnd);
+                if (cut < 0) {
+                    if (windowEnd < this.size) {
+                        throw new IOException("line at byte " + this.position
+                            + " is longer than " + this.windowSize + " bytes");
+                    }
+                    cut = this.size - 1; // last line, with no newline
+                }
+            }
+            end = cut + 1;
+        }
+
+        ByteBuffer slice = this.window.duplicate();
+        slice.position((int)(this.position - this.windowStart));
+        slice.limit((int)(end - this.windowStart));
+        Chunk chunk = new Chunk(slice.slice(), this.position, end);
+        this.position = end;
+        return chunk;
+    }
+
+    private void map(long start) throws IOException {
+        long length = Math.min(this.windowSize, this.size - start);
+        this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        this.windowStart = start;
+    }
+
+    private long lastNewline(long from, long to) {
+        for (long i = to - 1; i >= from; i--) {
+            if (this.window.get((int)(i - this.windowStart)) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private long firstNewline(long from, long to) {
+        for (long i = from; i < to; i++) {
+            if (this.window.get((int)(i - this.windowStart)) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Whole lines from the file, and where they were.
+     */
+    static final class Chunk {
+        final ByteBuffer bytes;
+        final long start;
+        final long end;
+
+        Chunk(ByteBuffer bytes, long start, long end) {
+            this.bytes = bytes;
+            this.start = start;
+            this.end = end;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.goinstant.auth.bulk;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.minidev.json.JSONValue;
+import net.minidev.json.parser.ParseException;
+
+import com.goinstant.auth.Group;
+import com.goinstant.auth.PlainGroup;
+import com.goinstant.auth.PlainUser;
+import com.goinstant.auth.User;
+
+/**
+ * How user records are written in an input file, one per line.
+ *
+ * Formats are shared by every worker thread, so parse() must be
+ * thread-safe.
+ */
+abstract class Format {
+    /**
+     * Domain for users that don't name their own.
+     */
+    final String domain;
+
+    Format(String domain) {
+        this.domain = domain;
+    }
+
+    /**
+     * Turn one line into a User.
+     *
+     * @throws IllegalArgumentException if the line isn't a valid record.
+     */
+    abstract User parse(String line);
+
+    /**
+     * One JSON object per line:
+     * <pre>
+     *   {"id":"123","displayName":"Bob","domain":"example.com",
+     *    "groups":[{"id":"g1","displayName":"G1","claims":{...}}],
+     *    "claims":{"email":"bob@example.com"}}
+     * </pre>
+     * Only id is required.
+     */
+    static final class Ndjson extends Format {
+        Ndjson(String domain) {
+            super(domain);
+        }
+
+        User parse(String line) {
+            Object json;
+            try {
+                json = JSONValue.parseStrict(line);
+            } catch (ParseException e) {
+                throw new IllegalArgumentException("invalid JSON: " + e.getMessage());
+            }
+            if (!(json instanceof Map)) {
+                throw new IllegalArgumentException("expected a JSON object");
+            }
+            Map<?,?> record = (Map<?,?>)json;
+
+            Set<Group> groups = new LinkedHashSet<Group>();
+            Object groupList = record.get("groups");
+            if (groupList instanceof List) {
+                for (Object item : (List<?>)groupList) {
+                    if (!(item instanceof Map)) {
+                        throw new IllegalArgumentException("groups must be objects");
+                    }
+                    Map<?,?> group = (Map<?,?>)item;
+                    PlainGroup plain = new PlainGroup(string(group, "id"), string(group, "displayName"));
+                    plain.setCustomClaims(claims(group));
+                    groups.add(plain);
+                }
+            } else if (groupList != null) {
+                throw new IllegalArgumentException("groups must be an array");
+            }
+
+            String domain = string(record, "domain");
+            PlainUser user = new PlainUser(string(record, "id"),
+                domain != null ? domain : this.domain, string(record, "displayName"), groups);
+            user.setCustomClaims(claims(record));
+            return user;
+        }
+
+        private static String string(Map<?,?> json, String key) {
+            Object value = json.get(key);
+            if (value != null && !(value instanceof String)) {
+                throw new IllegalArgumentException(key + " must be a string");
+            }
+            return (String)value;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static Map<String,Object> claims(Map<?,?> json) {
+            Object claims = json.get("claims");
+            if (claims != null && !(claims instanceof Map)) {
+                throw new IllegalArgumentException("claims must be an object");
+            }
+            return (Map<String,Object>)claims;
+        }
+    }
+
+    /**
+     * Comma-separated values, with a header line naming the columns:
+     * <ul>
+     * <li><code>id</code> (required)</li>
+     * <li><code>displayName</code> and <code>domain</code></li>
+     * <li><code>groups</code>: group ids separated by <code>;</code></li>
+     * <li>anything else: a custom claim, as a string (empty values are left
+     *   out)</li>
+     * </ul>
+     * Values may be quoted (<code>"a, b"</code>, with <code>""</code> for a
+     * quote), but can't contain line breaks.
+     */
+    static final class Csv extends Format {
+        private final String[] columns;
+        private final int id;
+        private final int displayName;
+        private final int userDomain;
+        private final int groups;
+
+        /**
+         * @throws IllegalArgumentException if the header has no id column.
+         */
+        Csv(String header, String domain) {
+            super(domain);
+            this.columns = split(header).toArray(new String[0]);
+            this.id = indexOf("id");
+            this.displayName = indexOf("displayName");
+            this.userDomain = indexOf("domain");
+            this.groups = indexOf("groups");
+            if (this.id < 0) {
+                throw new IllegalArgumentException("the CSV header has no id column");
+            }
+        }
+
+        private int indexOf(String column) {
+            for (int i = 0; i < this.columns.length; i++) {
+                if (this.columns[i].equals(column)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        User parse(String line) {
+            List<String> values = split(line);
+            if (values.size() != this.columns.length) {
+                throw new IllegalArgumentException("expected " + this.columns.length
+                    + " values, got " + values.size());
+            }
+
+            Set<Group> groups = new LinkedHashSet<Group>();
+            if (this.groups >= 0 && values.get(this.groups).length() > 0) {
+                for (String group : values.get(this.groups).split(";")) {
+                    groups.add(new PlainGroup(group));
+                }
+            }
+            String domain = this.userDomain >= 0 ? emptyToNull(values.get(this.userDomain)) : null;
+            PlainUser user = new PlainUser(values.get(this.id),
+                domain != null ? domain : this.domain,
+                this.displayName >= 0 ? emptyToNull(values.get(this.displayName)) : null,
+                groups);
+
+            Map<String,Object> claims = null;
+            for (int i = 0; i < this.columns.length; i++) {
+                if (i == this.id || i == this.displayName || i == this.userDomain
+                    || i == this.groups || values.get(i).length() == 0)
+                {
+                    continue;
+                }
+                if (claims == null) {
+                    claims = new HashMap<String,Object>();
+                }
+                claims.put(this.columns[i], values.get(i));
+            }
+            user.setCustomClaims(claims);
+            return user;
+        }
+
+        private static String emptyToNull(String value) {
+            return value.length() > 0 ? value : null;
+        }
+
+        /**
+         * Split one CSV line into its values.
+         */
+        static List<String> split(String line) {
+            List<String> values = new ArrayList<String>();
+            StringBuilder value = new StringBuilder();
+            int i = 0, n = line.length();
+            while (true) {
+                value.setLength(0);
+                if (i < n && line.charAt(i) == '"') {
+                    i++;
+                    while (true) {
+                        if (i >= n) {
+                            throw new IllegalArgumentException("unterminated quoted value");
+                        }
+                        char c = line.charAt(i++);
+                        if (c == '"') {
+                            if (i < n && line.charAt(i) == '"') {
+                                value.append('"');
+                                i++;
+                            } else {
+                                break;
+                            }
+                        } else {
+                            value.append(c);
+                        }
+                    }
+                    if (i < n && line.charAt(i) != ',') {
+                        throw new IllegalArgumentException("unexpected text after a quoted value");
+                    }
+                } else {
+                    while (i < n && line.charAt(i) != ',') {
+                        value.append(line.charAt(i++));
+                    }
+                }
+                values.add(value.toString());
+                if (i >= n) {
+                    return values;
+                }
+                i++; // ','
+            }
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.goinstant.auth.bulk;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.goinstant.auth.Group;
+import com.goinstant.auth.PlainGroup;
+import com.goinstant.auth.PlainUser;
+import com.goinstant.auth.Signer;
+
+/**
+ * Unit tests for BulkSign, ChunkReader and the record formats.
+ */
+public class BulkSignTest {
+
+    static final String sharedKey = "HKYdFdnezle2yrI2_Ph3cHz144bISk-cvuAbeAAA999";
+
+    private Path dir;
+    private ByteArrayOutputStream log;
+
+    @Before
+    public void setUp() throws IOException {
+        this.dir = Files.createTempDirectory("bulk");
+        this.log = new ByteArrayOutputStream();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (File file : this.dir.toFile().listFiles()) {
+            file.delete();
+        }
+        Files.delete(this.dir);
+    }
+
+    private BulkSign bulk(String format, int threads, int chunkBytes) {
+        return new BulkSign(new Signer(sharedKey), format, "example.com", threads, chunkBytes,
+            new PrintStream(this.log, true));
+    }
+
+    private Path write(String name, String content) throws IOException {
+        Path path = this.dir.resolve(name);
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+
+    private List<String> read(Path path) throws IOException {
+        return Files.readAllLines(path, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testNdjsonInOrder() throws Exception {
+        Signer signer = new Signer(sharedKey);
+        StringBuilder input = new StringBuilder();
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 2000; i++) {
+            input.append("{\"id\":\"user").append(i).append("\",\"displayName\":\"User ").append(i)
+                .append("\",\"groups\":[{\"id\":\"g").append(i % 7).append("\"}]")
+                .append(",\"claims\":{\"email\":\"u").append(i).append("@example.com\"}}")
+                .append(i % 3 == 0 ? "\r\n" : "\n");
+
+            Set<Group> groups = new LinkedHashSet<Group>();
+            groups.add(new PlainGroup("g" + (i % 7)));
+            PlainUser user = new PlainUser("user" + i, "example.com", "User " + i, groups);
+            user.setCustomClaim("email", "u" + i + "@example.com");
+            expected.add("user" + i + "," + signer.sign(user));
+        }
+        Path in = write("users.ndjson", input.toString());
+        Path out = this.dir.resolve("tokens.csv");
+
+        // small chunks, so there are lots of them, in parallel
+        BulkSign bulk = bulk(null, 4, 1000);
+        bulk.run(in, out);
+        assertEquals(expected, read(out));
+        assertEquals(2000, bulk.getRecordCount());
+        assertEquals(0, bulk.getFailureCount());
+        assertTrue(this.log.toString().contains("Signed 2000 of 2000 records"));
+    }
+
+    @Test
+    public void testCsv() throws Exception {
+        Path in = write("users.csv",
+            "id,displayName,groups,email,team\n"
+            + "1,Bob,a;b,bob@example.com,\"Blue, Inc.\"\n"
+            + "\n"
+            + "\"x,\"\"y\",,,,\n");
+        Path out = this.dir.resolve("tokens.csv");
+        bulk(null, 2, 16).run(in, out);
+
+        Signer signer = new Signer(sharedKey);
+        Set<Group> groups = new LinkedHashSet<Group>();
+        groups.add(new PlainGroup("a"));
+        groups.add(new PlainGroup("b"));
+        PlainUser bob = new PlainUser("1", "example.com", "Bob", groups);
+        Map<String,Object> claims = new HashMap<String,Object>();
+        claims.put("email", "bob@example.com");
+        claims.put("team", "Blue, Inc.");
+        bob.setCustomClaims(claims);
+        PlainUser odd = new PlainUser("x,\"y", "example.com");
+
+        assertEquals(Arrays.asList("1," + signer.sign(bob), "\"x,\"\"y\"," + signer.sign(odd)),
+            read(out));
+    }
+
+    @Test
+    public void testFailuresReportedByLine() throws Exception {
+        Path in = write("users.ndjson",
+            "{\"id\":\"1\"}\n"
+            + "{\"id\":\"\"}\n"
+            + "\n"
+            + "not json\n"
+            + "{\"id\":\"5\",\"claims\":{\"sub\":\"x\"}}\n"
+            + "{\"id\":\"6\"}");
+        Path out = this.dir.resolve("tokens.csv");
+        BulkSign bulk = bulk("ndjson", 3, 8);
+        bulk.run(in, out);
+
+        List<String> tokens = read(out);
+        assertEquals(2, tokens.size());
+        assertTrue(tokens.get(0).startsWith("1,"));
+        assertTrue(tokens.get(1).startsWith("6,"));
+        assertEquals(5, bulk.getRecordCount());
+        assertEquals(3, bulk.getFailureCount());
+
+        String log = this.log.toString();
+        assertTrue(log, log.contains("line 2: id must be a non-empty String"));
+        assertTrue(log, log.contains("line 4: invalid JSON"));
+        assertTrue(log, log.contains("line 5: The 'sub' claim cannot be custom"));
+    }
+
+    @Test
+    public void testChunksAreWholeLines() throws Exception {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            input.append("line ").append(i).append(i % 50 == 0 ? "xxxxxxxxxxxxxxxxxxxx" : "")
+                .append('\n');
+        }
+        Path in = write("lines.txt", input.toString());
+
+        FileChannel channel = FileChannel.open(in, StandardOpenOption.READ);
+        try {
+            // a window much smaller than the file, so it slides
+            ChunkReader reader = new ChunkReader(channel, 0, 256);
+            StringBuilder joined = new StringBuilder();
+            ChunkReader.Chunk chunk;
+            long expectedStart = 0;
+            while ((chunk = reader.next(10)) != null) {
+                assertEquals(expectedStart, chunk.start);
+                byte[] bytes = new byte[chunk.bytes.remaining()];
+                chunk.bytes.get(bytes);
+                assertEquals('\n', bytes[bytes.length - 1]);
+                joined.append(new String(bytes, StandardCharsets.UTF_8));
+                expectedStart = chunk.end;
+            }
+            assertEquals(input.toString(), joined.toString());
+        } finally {
+            channel.close();
+        }
+    }
+
+    @Test(expected=IOException.class)
+    public void testLineLongerThanWindow() throws Exception {
+        char[] longLine = new char[300];
+        Arrays.fill(longLine, 'x');
+        Path in = write("long.txt", "short\n" + new String(longLine) + "\nshort\n");
+        FileChannel channel = FileChannel.open(in, StandardOpenOption.READ);
+        try {
+            ChunkReader reader = new ChunkReader(channel, 0, 256);
+            while (reader.next(64) != null) {
+                // until it throws
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    @Test
+    public void testCsvSplit() {
+        assertEquals(Arrays.asList("a", "", "b c", "d,\"e\"", ""),
+            Format.Csv.split("a,,b c,\"d,\"\"e\"\"\","));
+        assertEquals(Arrays.asList(""), Format.Csv.split(""));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testCsvNeedsId() {
+        new Format.Csv("name,email", "example.com");
+    }
+}
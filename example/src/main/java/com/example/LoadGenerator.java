@@ -0,0 +1,252 @@
+package com.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.goinstant.auth.Signer;
+
+/**
+ * A closed-loop load generator for {@link TokenServer}: a fixed number of
+ * clients each send a request, wait for the response and send the next, for
+ * a while.  Reports latency percentiles and tokens per second.
+ *
+ * Usage: java -cp (jar) com.example.LoadGenerator [options]
+ *
+ *   --url URL        server to load (default http://localhost:8080)
+ *   --clients N      concurrent clients (default 16)
+ *   --seconds N      how long to measure (default 30)
+ *   --warmup N       seconds to run first, unmeasured (default 5)
+ *   --batch N        users per request; more than 1 uses /tokens (default 1)
+ *   --groups N       groups per user (default 3)
+ *   --embedded       start a TokenServer in this JVM on a free port, and
+ *                    load that instead of --url
+ *
+ * Each client keeps its connection alive.  Latency is measured from just
+ * before a request is sent until its response has been read; in a closed
+ * loop a slow response delays the next request, so these numbers describe
+ * the server at the throughput it reached, not at any offered load.
+ */
+class LoadGenerator {
+  private String url = "http://localhost:8080";
+  private int clients = 16;
+  private int seconds = 30;
+  private int warmup = 5;
+  private int batch = 1;
+  private int groups = 3;
+  private boolean embedded;
+
+  public static void main(String[] args) throws Exception {
+    LoadGenerator load = new LoadGenerator();
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      if (arg.equals("--embedded")) {
+        load.embedded = true;
+      } else if (i + 1 < args.length && arg.equals("--url")) {
+        load.url = args[++i];
+      } else if (i + 1 < args.length && arg.equals("--clients")) {
+        load.clients = Integer.parseInt(args[++i]);
+      } else if (i + 1 < args.length && arg.equals("--seconds")) {
+        load.seconds = Integer.parseInt(args[++i]);
+      } else if (i + 1 < args.length && arg.equals("--warmup")) {
+        load.warmup = Integer.parseInt(args[++i]);
+      } else if (i + 1 < args.length && arg.equals("--batch")) {
+        load.batch = Integer.parseInt(args[++i]);
+      } else if (i + 1 < args.length && arg.equals("--groups")) {
+        load.groups = Integer.parseInt(args[++i]);
+      } else {
+        System.err.println("Unknown option " + arg + "; see the LoadGenerator class comment");
+        System.exit(1);
+      }
+    }
+
+    // keep every client's connection alive, not just the JDK's default five
+    System.setProperty("http.maxConnections", String.valueOf(Math.max(5, load.clients)));
+
+    TokenServer server = null;
+    if (load.embedded) {
+      server = new TokenServer(new Signer(Main.secretKey()), 0);
+      server.start();
+      load.url = "http://localhost:" + server.getPort();
+    }
+    try {
+      load.run();
+    } finally {
+      if (server != null) {
+        server.stop();
+      }
+    }
+  }
+
+  void run() throws Exception {
+    URL target = new URL(this.url + (this.batch > 1 ? "/tokens" : "/token"));
+    System.out.println("Loading " + target + " with " + this.clients + " clients, "
+      + this.batch + " user(s) per request, " + this.groups + " groups each");
+
+    if (this.warmup > 0) {
+      System.out.println("Warming up for " + this.warmup + "s...");
+      runFor(target, this.warmup);
+    }
+    System.out.println("Measuring for " + this.seconds + "s...");
+    long start = System.nanoTime();
+    Client[] results = runFor(target, this.seconds);
+    double elapsed = (System.nanoTime() - start) / 1e9;
+
+    int requests = 0;
+    long errors = 0;
+    for (Client client : results) {
+      requests += client.count;
+      errors += client.errors;
+    }
+    long[] latencies = new long[requests];
+    int n = 0;
+    for (Client client : results) {
+      System.arraycopy(client.latencies, 0, latencies, n, client.count);
+      n += client.count;
+    }
+    Arrays.sort(latencies);
+
+    System.out.println();
+    System.out.printf("requests     %d (%d failed)%n", requests, errors);
+    System.out.printf("requests/s   %.0f%n", requests / elapsed);
+    System.out.printf("tokens/s     %.0f%n", (requests - errors) * (double)this.batch / elapsed);
+    System.out.printf("latency p50  %.3f ms%n", percentile(latencies, 50) / 1e6);
+    System.out.printf("latency p99  %.3f ms%n", percentile(latencies, 99) / 1e6);
+    System.out.printf("latency p999 %.3f ms%n", percentile(latencies, 99.9) / 1e6);
+    System.out.printf("latency max  %.3f ms%n", requests > 0 ? latencies[requests - 1] / 1e6 : 0.0);
+  }
+
+  private Client[] runFor(URL target, int seconds) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+    CountDownLatch done = new CountDownLatch(this.clients);
+    Client[] clients = new Client[this.clients];
+    for (int i = 0; i < clients.length; i++) {
+      clients[i] = new Client(target, body(i), deadline, done);
+      Thread thread = new Thread(clients[i], "load-" + i);
+      thread.setDaemon(true);
+      thread.start();
+    }
+    done.await();
+    return clients;
+  }
+
+  /**
+   * The JSON a client sends: one user, or an array of them.
+   */
+  private byte[] body(int client) {
+    StringBuilder json = new StringBuilder();
+    if (this.batch > 1) {
+      json.append('[');
+    }
+    for (int u = 0; u < this.batch; u++) {
+      if (u > 0) {
+        json.append(',');
+      }
+      String id = client + "-" + u;
+      json.append("{\"id\":\"").append(id).append("\",\"displayName\":\"User ").append(id)
+        .append("\",\"claims\":{\"email\":\"").append(id).append("@example.com\"}")
+        .append(",\"groups\":[");
+      for (int g = 0; g < this.groups; g++) {
+        if (g > 0) {
+          json.append(',');
+        }
+        json.append("{\"id\":\"g").append(g).append("\",\"displayName\":\"Group ").append(g)
+          .append("\"}");
+      }
+      json.append("]}");
+    }
+    if (this.batch > 1) {
+      json.append(']');
+    }
+    try {
+      return json.toString().getBytes("UTF-8");
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static long percentile(long[] sorted, double percentile) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    int index = (int)Math.ceil(percentile / 100 * sorted.length) - 1;
+    return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+  }
+
+  /**
+   * One client: request, wait, repeat.
+   */
+  private static class Client implements Runnable {
+    private final URL target;
+    private final byte[] body;
+    private final long deadline;
+    private final CountDownLatch done;
+    private final byte[] buffer = new byte[8192];
+
+    long[] latencies = new long[1024];
+    int count;
+    long errors;
+
+    Client(URL target, byte[] body, long deadline, CountDownLatch done) {
+      this.target = target;
+      this.body = body;
+      this.deadline = deadline;
+      this.done = done;
+    }
+
+    public void run() {
+      try {
+        long now;
+        while ((now = System.nanoTime()) < this.deadline) {
+          boolean ok = send();
+          long latency = System.nanoTime() - now;
+          if (this.count == this.latencies.length) {
+            this.latencies = Arrays.copyOf(this.latencies, this.count * 2);
+          }
+          this.latencies[this.count++] = latency;
+          if (!ok) {
+            this.errors++;
+          }
+        }
+      } finally {
+        this.done.countDown();
+      }
+    }
+
+    private boolean send() {
+      HttpURLConnection conn = null;
+      try {
+        conn = (HttpURLConnection)this.target.openConnection();
+        conn.setRequestMethod("POST");
+        conn.setDoOutput(true);
+        conn.setFixedLengthStreamingMode(this.body.length);
+        conn.setRequestProperty("Content-Type", "application/json");
+        OutputStream out = conn.getOutputStream();
+        out.write(this.body);
+        out.close();
+
+        int status = conn.getResponseCode();
+        // read it all, so the connection goes back to the keep-alive cache
+        InputStream in = status < 400 ? conn.getInputStream() : conn.getErrorStream();
+        if (in != null) {
+          while (in.read(this.buffer) > 0) {
+            // discard
+          }
+          in.close();
+        }
+        return status == 200;
+
+      } catch (IOException e) {
+        if (conn != null) {
+          conn.disconnect();
+        }
+        return false;
+      }
+    }
+  }
+}
@@ -22,15 +22,21 @@ import com.goinstant.auth.PlainGroup;
 class Main {
   static final String MY_DOMAIN = "example.com"; // TODO: set this to your domain name
 
-  public static void main(String[] args) {
+  /**
+   * The app's secret key, from $SECRET_KEY.
+   */
+  static String secretKey() {
     String secretKey = System.getenv("SECRET_KEY");
     if (secretKey == null) {
       // default to key from the goinstant-auth unit tests
       secretKey = "HKYdFdnezle2yrI2_Ph3cHz144bISk-cvuAbeAAA999";
     }
+    return secretKey;
+  }
 
+  public static void main(String[] args) {
     // construct this signer just once:
-    Signer signer = new Signer(secretKey);
+    Signer signer = new Signer(secretKey());
 
     if (args.length < 2) {
       System.err.println("Usage: (jar) userId displayName");
@@ -0,0 +1,321 @@
+package com.example;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import net.minidev.json.JSONValue;
+import net.minidev.json.parser.ParseException;
+
+import com.goinstant.auth.Group;
+import com.goinstant.auth.PlainGroup;
+import com.goinstant.auth.PlainUser;
+import com.goinstant.auth.Signer;
+import com.goinstant.auth.SignerMetrics;
+import com.goinstant.auth.SigningExecutor;
+
+/**
+ * A small token-issuing HTTP service, built on the JDK's own HTTP server.
+ *
+ * <b>This service does no authentication of its own.</b>  It signs a token
+ * for whatever user id it's sent, and anyone holding such a token can act
+ * as that user.  Only run it behind your app's own authentication, with the
+ * user taken from the authenticated session rather than from the client.
+ * It listens on the loopback interface unless told otherwise, and signs
+ * every user into the domain it was configured with.
+ *
+ * Usage: java -cp (jar) com.example.TokenServer [--bind ADDRESS] [port]
+ *
+ *   --bind ADDRESS   listen on this address instead of loopback only (e.g.
+ *                    0.0.0.0 for every interface); only do this behind a
+ *                    proxy that authenticates every request
+ *
+ * Endpoints:
+ *
+ *   POST /token    one user:  {"id":"123","displayName":"Bob",
+ *                              "groups":[{"id":"g1","displayName":"G1"}],
+ *                              "claims":{"email":"bob@example.com"}}
+ *                  responds   {"token":"..."}
+ *
+ *   POST /tokens   an array of users; responds {"tokens":[...]} with a
+ *                  {"token":...} or {"error":...} for each, in order
+ *
+ *   GET /metrics   sign counts and latency percentiles so far
+ *
+ * One Signer is shared by every request.  Requests run one per virtual
+ * thread on JDK 21 and later (a thread pool otherwise), and connections are
+ * kept alive between requests.
+ */
+class TokenServer {
+  static final String MY_DOMAIN = Main.MY_DOMAIN;
+
+  /**
+   * Largest request body accepted, in bytes.
+   */
+  static final int MAX_BODY = 1024 * 1024;
+
+  /**
+   * Requests waiting or running before new ones are turned away.
+   */
+  static final int MAX_PENDING = 10000;
+
+  static {
+    // Responses go out as headers then body; without this, Nagle's
+    // algorithm and delayed ACKs add ~40ms to every kept-alive request.
+    if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+      System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+  }
+
+  private final Signer signer;
+  private final String domain;
+  private final SignerMetrics metrics = new SignerMetrics();
+  private final HttpServer server;
+
+  /**
+   * A server for MY_DOMAIN, on the loopback interface.
+   */
+  TokenServer(Signer signer, int port) throws IOException {
+    this(signer, MY_DOMAIN, new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+  }
+
+  /**
+   * @param domain the domain every user is signed into.
+   * @param address where to listen.
+   */
+  TokenServer(Signer signer, String domain, InetSocketAddress address) throws IOException {
+    this.signer = signer;
+    this.signer.setMetrics(this.metrics);
+    this.domain = domain;
+
+    this.server = HttpServer.create(address, 1024);
+    this.server.createContext("/token", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        signOne(exchange);
+      }
+    });
+    this.server.createContext("/tokens", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        signBatch(exchange);
+      }
+    });
+    this.server.createContext("/metrics", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        showMetrics(exchange);
+      }
+    });
+    this.server.setExecutor(SigningExecutor.isVirtualThreadsSupported()
+      ? SigningExecutor.virtualThreads(MAX_PENDING)
+      : SigningExecutor.threadPool(Runtime.getRuntime().availableProcessors() * 4, MAX_PENDING));
+  }
+
+  void start() {
+    this.server.start();
+  }
+
+  void stop() {
+    this.server.stop(0);
+  }
+
+  int getPort() {
+    return this.server.getAddress().getPort();
+  }
+
+  public static void main(String[] args) throws IOException {
+    InetAddress bind = InetAddress.getLoopbackAddress();
+    int port = 8080;
+    for (int i = 0; i < args.length; i++) {
+      if (i + 1 < args.length && args[i].equals("--bind")) {
+        bind = InetAddress.getByName(args[++i]);
+      } else {
+        port = Integer.parseInt(args[i]);
+      }
+    }
+
+    // construct this signer just once:
+    TokenServer server = new TokenServer(new Signer(Main.secretKey()), MY_DOMAIN,
+      new InetSocketAddress(bind, port));
+    server.start();
+    System.err.println("Issuing tokens on " + bind.getHostAddress() + " port "
+      + server.getPort() + ", POST /token ("
+      + (SigningExecutor.isVirtualThreadsSupported() ? "virtual threads" : "thread pool") + ")");
+    if (!bind.isLoopbackAddress()) {
+      System.err.println("WARNING: listening beyond loopback; this server doesn't authenticate"
+        + " anyone, so every request must come through your app's own authentication");
+    }
+  }
+
+  private void signOne(HttpExchange exchange) throws IOException {
+    try {
+      if (!"POST".equals(exchange.getRequestMethod())) {
+        respond(exchange, 405, error("POST a user"));
+        return;
+      }
+      Object body = readJson(exchange);
+      if (!(body instanceof Map)) {
+        respond(exchange, 400, error("expected a JSON object"));
+        return;
+      }
+      String token = this.signer.sign(toUser((Map<?,?>)body, this.domain));
+      if (token == null) {
+        respond(exchange, 500, error("signing failed"));
+        return;
+      }
+      respond(exchange, 200, "{\"token\":\"" + token + "\"}");
+
+    } catch (IllegalArgumentException e) {
+      respond(exchange, 400, error(e.getMessage()));
+    }
+  }
+
+  private void signBatch(HttpExchange exchange) throws IOException {
+    try {
+      if (!"POST".equals(exchange.getRequestMethod())) {
+        respond(exchange, 405, error("POST an array of users"));
+        return;
+      }
+      Object body = readJson(exchange);
+      if (!(body instanceof List)) {
+        respond(exchange, 400, error("expected a JSON array"));
+        return;
+      }
+
+      // signed right here, on this request's thread
+      StringBuilder out = new StringBuilder("{\"tokens\":[");
+      boolean first = true;
+      for (Object item : (List<?>)body) {
+        if (!first) {
+          out.append(',');
+        }
+        first = false;
+        try {
+          if (!(item instanceof Map)) {
+            throw new IllegalArgumentException("expected a JSON object");
+          }
+          String token = this.signer.sign(toUser((Map<?,?>)item, this.domain));
+          out.append(token != null ? "{\"token\":\"" + token + "\"}" : error("signing failed"));
+        } catch (IllegalArgumentException e) {
+          out.append(error(e.getMessage()));
+        }
+      }
+      out.append("]}");
+      respond(exchange, 200, out.toString());
+
+    } catch (IllegalArgumentException e) {
+      respond(exchange, 400, error(e.getMessage()));
+    }
+  }
+
+  private void showMetrics(HttpExchange exchange) throws IOException {
+    SignerMetrics.Snapshot s = this.metrics.snapshot();
+    SignerMetrics.Histogram latency = s.getLatency();
+    Map<String,Object> out = new LinkedHashMap<String,Object>();
+    out.put("signed", s.getSignCount());
+    out.put("rejected", s.getRejectedCount());
+    out.put("cryptoFailures", s.getCryptoFailureCount());
+    out.put("errors", s.getErrorCount());
+    out.put("latencyP50Nanos", latency.getValueAtPercentile(50));
+    out.put("latencyP99Nanos", latency.getValueAtPercentile(99));
+    out.put("latencyP999Nanos", latency.getValueAtPercentile(99.9));
+    out.put("latencyMaxNanos", latency.getMax());
+    respond(exchange, 200, JSONValue.toJSONString(out));
+  }
+
+  /**
+   * Build a user in the given domain from its JSON.
+   *
+   * @throws IllegalArgumentException if it isn't shaped like a user, or
+   *   tries to pick its own domain.
+   */
+  static PlainUser toUser(Map<?,?> json, String domain) {
+    if (json.containsKey("domain")) {
+      throw new IllegalArgumentException("domain is set by the server");
+    }
+
+    Set<Group> groups = new LinkedHashSet<Group>();
+    Object groupList = json.get("groups");
+    if (groupList instanceof List) {
+      for (Object item : (List<?>)groupList) {
+        if (!(item instanceof Map)) {
+          throw new IllegalArgumentException("groups must be objects");
+        }
+        Map<?,?> group = (Map<?,?>)item;
+        PlainGroup plain = new PlainGroup(string(group, "id"), string(group, "displayName"));
+        plain.setCustomClaims(claims(group));
+        groups.add(plain);
+      }
+    } else if (groupList != null) {
+      throw new IllegalArgumentException("groups must be an array");
+    }
+
+    PlainUser user = new PlainUser(string(json, "id"), domain, string(json, "displayName"),
+      groups);
+    user.setCustomClaims(claims(json));
+    return user;
+  }
+
+  private static String string(Map<?,?> json, String key) {
+    Object value = json.get(key);
+    if (value != null && !(value instanceof String)) {
+      throw new IllegalArgumentException(key + " must be a string");
+    }
+    return (String)value;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String,Object> claims(Map<?,?> json) {
+    Object claims = json.get("claims");
+    if (claims != null && !(claims instanceof Map)) {
+      throw new IllegalArgumentException("claims must be an object");
+    }
+    return (Map<String,Object>)claims;
+  }
+
+  private static Object readJson(HttpExchange exchange) throws IOException {
+    InputStream in = exchange.getRequestBody();
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    byte[] chunk = new byte[8192];
+    int n;
+    while ((n = in.read(chunk)) > 0) {
+      body.write(chunk, 0, n);
+      if (body.size() > MAX_BODY) {
+        throw new IllegalArgumentException("request body is too large");
+      }
+    }
+    try {
+      return JSONValue.parseStrict(body.toByteArray());
+    } catch (ParseException e) {
+      throw new IllegalArgumentException("invalid JSON: " + e.getMessage());
+    }
+  }
+
+  private static String error(String message) {
+    return "{\"error\":\"" + JSONValue.escape(String.valueOf(message)) + "\"}";
+  }
+
+  private static void respond(HttpExchange exchange, int status, String json)
+    throws IOException
+  {
+    byte[] bytes = json.getBytes("UTF-8");
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, bytes.length); // fixed length keeps the connection alive
+    OutputStream out = exchange.getResponseBody();
+    try {
+      out.write(bytes);
+    } finally {
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,368 @@
+package com.goinstant.auth.flow;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+import com.goinstant.auth.SignedToken;
+import com.goinstant.auth.Signer;
+import com.goinstant.auth.User;
+
+/**
+ * A {@link Flow.Processor} stage that signs the Users it receives:
+ * <pre>
+ *   SigningProcessor signing = new SigningProcessor(signer, 256, failed -&gt;
+ *       log.warn("can't sign {}: {}", failed.getUser().getID(), failed.getError()));
+ *   userChanges.subscribe(signing);
+ *   signing.subscribe(tokenSink);
+ * </pre>
+ * Users are signed in parallel on an Executor, and their tokens are
+ * published in the order the users arrived.  Users that can't be signed
+ * (ones that would make {@link Signer#sign(User)} throw, or a crypto
+ * problem) go to the failure handler instead, and the stream carries on.
+ * <br>
+ * The processor holds at most bufferSize users, counting the ones being
+ * signed and the tokens waiting for downstream demand; it only requests
+ * more users from upstream as tokens are delivered (or fail), so a slow
+ * subscriber slows the whole pipeline down rather than making anything
+ * queue up.  Upstream isn't asked for anything until there's a subscriber.
+ * <br>
+ * One subscriber at a time; later ones get an IllegalStateException.
+ * Upstream completion and errors are passed on once every user received
+ * before them has been dealt with.
+ */
+public class SigningProcessor implements Flow.Processor<User, SignedToken> {
+    private final Signer signer;
+    private final Executor executor;
+    private final Consumer<? super SignedToken> failures;
+    private final int bufferSize;
+
+    /**
+     * Request more from upstream once this many slots are free.
+     */
+    private final int replenish;
+
+    /**
+     * Users in arrival order, with their results once signed; indexed by
+     * sequence number modulo bufferSize.
+     */
+    private final AtomicReferenceArray<Slot> slots;
+
+    /**
+     * Sequence number of the next user to arrive; only onNext() writes it.
+     */
+    private volatile long tail;
+
+    /**
+     * Sequence number of the oldest user not yet dealt with, and how many
+     * users have been requested from upstream in all; only drain() writes
+     * them.
+     */
+    private volatile long head;
+    private long requested;
+
+    private final AtomicReference<Flow.Subscription> upstream = new AtomicReference<>();
+    private final AtomicReference<Flow.Subscriber<? super SignedToken>> downstream =
+        new AtomicReference<>();
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicInteger wip = new AtomicInteger();
+
+    private volatile boolean done;
+    private volatile Throwable error;
+    private volatile boolean cancelled;
+    private boolean terminated;
+
+    /**
+     * Ends the stream at once, dropping what's buffered: a bad request(),
+     * or a failure handler that threw.
+     */
+    private volatile Throwable fatal;
+
+    /**
+     * Sign on the common ForkJoinPool.
+     *
+     * @param signer signs the users.
+     * @param bufferSize most users held at once.
+     * @param failures told about every user that couldn't be signed, on the
+     *   thread that would have delivered its token.
+     *
+     * @throws IllegalArgumentException if bufferSize isn't positive.
+     */
+    public SigningProcessor(Signer signer, int bufferSize,
+        Consumer<? super SignedToken> failures)
+    {
+        this(signer, ForkJoinPool.commonPool(), bufferSize, failures);
+    }
+
+    /**
+     * Sign on an Executor of your choosing.
+     *
+     * @param signer signs the users.
+     * @param executor where users are signed; bufferSize bounds how many
+     *   are signed at once.  If it rejects a user, the user is signed on the
+     *   thread that delivered it.
+     * @param bufferSize most users held at once.
+     * @param failures told about every user that couldn't be signed.
+     *
+     * @throws IllegalArgumentException if bufferSize isn't positive.
+     */
+    public SigningProcessor(Signer signer, Executor executor, int bufferSize,
+        Consumer<? super SignedToken> failures)
+    {
+        if (signer == null || executor == null || failures == null) {
+            throw new IllegalArgumentException("signer, executor and failures are required");
+        }
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize must be positive");
+        }
+        this.signer = signer;
+        this.executor = executor;
+        this.failures = failures;
+        this.bufferSize = bufferSize;
+        this.replenish = Math.max(1, bufferSize / 4);
+        this.slots = new AtomicReferenceArray<>(bufferSize);
+    }
+
+    /**
+     * Most users held at once.
+     */
+    public int getBufferSize() {
+        return this.bufferSize;
+    }
+
+    public void subscribe(Flow.Subscriber<? super SignedToken> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        if (!this.downstream.compareAndSet(null, subscriber)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                public void request(long n) {
+                }
+
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException(
+                "a SigningProcessor can only have one subscriber"));
+            return;
+        }
+        subscriber.onSubscribe(new Downstream());
+        drain();
+    }
+
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (!this.upstream.compareAndSet(null, subscription)) {
+            subscription.cancel();
+            return;
+        }
+        if (this.cancelled) {
+            subscription.cancel();
+            return;
+        }
+        drain();
+    }
+
+    public void onNext(User user) {
+        if (this.done || this.cancelled) {
+            return;
+        }
+        long seq = this.tail;
+        if (seq - this.head >= this.bufferSize) {
+            // upstream sent more than it was asked for
+            Flow.Subscription subscription = this.upstream.get();
+            if (subscription != null) {
+                subscription.cancel();
+            }
+            onError(new IllegalStateException("upstream sent more users than were requested"));
+            return;
+        }
+        Slot slot = new Slot(user);
+        this.slots.set(index(seq), slot);
+        this.tail = seq + 1;
+        try {
+            this.executor.execute(slot);
+        } catch (RejectedExecutionException e) {
+            slot.run();
+        }
+    }
+
+    public void onError(Throwable throwable) {
+        if (this.done) {
+            return;
+        }
+        this.error = throwable;
+        this.done = true;
+        drain();
+    }
+
+    public void onComplete() {
+        this.done = true;
+        drain();
+    }
+
+    private int index(long seq) {
+        return (int)(seq % this.bufferSize);
+    }
+
+    /**
+     * Deliver what can be delivered, in order, and ask upstream for more.
+     * Runs on one thread at a time; callers that find it busy leave the work
+     * to whoever's running it.
+     */
+    private void drain() {
+        if (this.wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            Flow.Subscriber<? super SignedToken> down = this.downstream.get();
+            Throwable fatal = this.fatal;
+            if (this.cancelled) {
+                clear();
+            } else if (down != null && !this.terminated) {
+                if (fatal != null) {
+                    clear();
+                    this.terminated = true;
+                    down.onError(fatal);
+                } else {
+                    deliver(down);
+                }
+            }
+            missed = this.wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /**
+     * drain()'s work: tokens and failures out, requests to upstream.
+     */
+    private void deliver(Flow.Subscriber<? super SignedToken> down) {
+        long h = this.head;
+        long wanted = this.demand.get();
+        long emitted = 0;
+        while (!this.cancelled) {
+            boolean finished = this.done;
+            if (h == this.tail) {
+                if (finished && this.fatal == null) {
+                    terminate(down);
+                }
+                break;
+            }
+            Slot slot = this.slots.get(index(h));
+            SignedToken result = slot.result;
+            if (result == null) {
+                break; // still signing
+            }
+            if (result.isSuccess()) {
+                if (emitted == wanted) {
+                    break; // no demand
+                }
+                emitted++;
+                down.onNext(result);
+            } else {
+                try {
+                    this.failures.accept(result);
+                } catch (RuntimeException e) {
+                    fail(e); // drain() picks it up next time round
+                    break;
+                }
+            }
+            this.slots.set(index(h), null);
+            this.head = ++h;
+        }
+        if (emitted > 0 && wanted != Long.MAX_VALUE) {
+            this.demand.addAndGet(-emitted);
+        }
+
+        Flow.Subscription up = this.upstream.get();
+        long free = this.bufferSize - (this.requested - h);
+        if (up != null && !this.done && !this.cancelled && free >= this.replenish) {
+            this.requested += free;
+            up.request(free);
+        }
+    }
+
+    private void terminate(Flow.Subscriber<? super SignedToken> down) {
+        this.terminated = true;
+        Throwable error = this.error;
+        if (error != null) {
+            down.onError(error);
+        } else {
+            down.onComplete();
+        }
+    }
+
+    private void clear() {
+        for (long h = this.head; h < this.tail; h++) {
+            this.slots.set(index(h), null);
+        }
+        this.head = this.tail;
+    }
+
+    /**
+     * Stop upstream and end the stream with an error.
+     */
+    private void fail(Throwable throwable) {
+        this.fatal = throwable;
+        this.done = true;
+        Flow.Subscription up = this.upstream.get();
+        if (up != null) {
+            up.cancel();
+        }
+        drain();
+    }
+
+    private void cancelUpstream() {
+        this.cancelled = true;
+        Flow.Subscription up = this.upstream.get();
+        if (up != null) {
+            up.cancel();
+        }
+        drain();
+    }
+
+    /**
+     * A user and, once it's signed, its result.
+     */
+    private final class Slot implements Runnable {
+        private final User user;
+        volatile SignedToken result;
+
+        Slot(User user) {
+            this.user = user;
+        }
+
+        public void run() {
+            this.result = SigningProcessor.this.signer.trySign(this.user);
+            drain();
+        }
+    }
+
+    /**
+     * The subscriber's side.
+     */
+    private final class Downstream implements Flow.Subscription {
+        public void request(long n) {
+            if (n <= 0) { // Reactive Streams rule 3.9
+                fail(new IllegalArgumentException("request(" + n + "): demand must be positive"));
+                return;
+            }
+            AtomicLong demand = SigningProcessor.this.demand;
+            long current, next;
+            do {
+                current = demand.get();
+                next = current + n < 0 ? Long.MAX_VALUE : current + n;
+            } while (!demand.compareAndSet(current, next));
+            drain();
+        }
+
+        public void cancel() {
+            cancelUpstream();
+        }
+    }
+}
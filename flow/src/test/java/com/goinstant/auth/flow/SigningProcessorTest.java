@@ -0,0 +1,241 @@
+package com.goinstant.auth.flow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Test;
+
+import com.goinstant.auth.PlainUser;
+import com.goinstant.auth.SignedToken;
+import com.goinstant.auth.Signer;
+import com.goinstant.auth.User;
+
+/**
+ * Unit tests for SigningProcessor.
+ */
+public class SigningProcessorTest {
+
+    static final String sharedKey = "HKYdFdnezle2yrI2_Ph3cHz144bISk-cvuAbeAAA999";
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(4);
+
+    @After
+    public void tearDown() {
+        this.pool.shutdownNow();
+    }
+
+    private static User makeUser(int i) {
+        PlainUser user = new PlainUser("user" + i, "example.com", "User " + i);
+        if (i % 10 == 7) {
+            user.setCustomClaim("sub", "not allowed"); // can't be signed
+        }
+        return user;
+    }
+
+    /**
+     * Collects what it's sent, requesting a batch at a time.
+     */
+    static class Collector implements Flow.Subscriber<SignedToken> {
+        final List<SignedToken> tokens = Collections.synchronizedList(new ArrayList<SignedToken>());
+        final CountDownLatch done = new CountDownLatch(1);
+        final int batch;
+        volatile Flow.Subscription subscription;
+        volatile Throwable error;
+        int received;
+
+        Collector(int batch) {
+            this.batch = batch;
+        }
+
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (this.batch > 0) {
+                subscription.request(this.batch);
+            }
+        }
+
+        public void onNext(SignedToken token) {
+            this.tokens.add(token);
+            if (this.batch > 0 && ++this.received % this.batch == 0) {
+                this.subscription.request(this.batch);
+            }
+        }
+
+        public void onError(Throwable throwable) {
+            this.error = throwable;
+            this.done.countDown();
+        }
+
+        public void onComplete() {
+            this.done.countDown();
+        }
+    }
+
+    /**
+     * Publishes users 0..count-1 on demand, remembering the most it was ever
+     * asked for but hadn't sent.
+     */
+    static class CountingPublisher implements Flow.Publisher<User> {
+        final int count;
+        final AtomicLong outstanding = new AtomicLong();
+        final AtomicLong maxOutstanding = new AtomicLong();
+        volatile boolean cancelled;
+        int sent;
+
+        CountingPublisher(int count) {
+            this.count = count;
+        }
+
+        public void subscribe(final Flow.Subscriber<? super User> subscriber) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                public synchronized void request(long n) {
+                    long now = CountingPublisher.this.outstanding.addAndGet(n);
+                    CountingPublisher.this.maxOutstanding.accumulateAndGet(now, Math::max);
+                    while (CountingPublisher.this.outstanding.get() > 0
+                        && CountingPublisher.this.sent < CountingPublisher.this.count
+                        && !CountingPublisher.this.cancelled)
+                    {
+                        CountingPublisher.this.outstanding.decrementAndGet();
+                        subscriber.onNext(makeUser(CountingPublisher.this.sent++));
+                    }
+                    if (CountingPublisher.this.sent == CountingPublisher.this.count
+                        && !CountingPublisher.this.cancelled)
+                    {
+                        CountingPublisher.this.cancelled = true;
+                        subscriber.onComplete();
+                    }
+                }
+
+                public void cancel() {
+                    CountingPublisher.this.cancelled = true;
+                }
+            });
+        }
+    }
+
+    @Test
+    public void testSignsInOrder() throws Exception {
+        Signer signer = new Signer(sharedKey);
+        List<SignedToken> failed = Collections.synchronizedList(new ArrayList<SignedToken>());
+        SigningProcessor processor = new SigningProcessor(signer, this.pool, 32, failed::add);
+        Collector collector = new Collector(10);
+        processor.subscribe(collector);
+
+        SubmissionPublisher<User> users = new SubmissionPublisher<User>();
+        users.subscribe(processor);
+        for (int i = 0; i < 1000; i++) {
+            users.submit(makeUser(i));
+        }
+        users.close();
+        assertTrue(collector.done.await(30, TimeUnit.SECONDS));
+        assertNull(collector.error);
+
+        assertEquals(900, collector.tokens.size());
+        assertEquals(100, failed.size());
+        int n = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (i % 10 == 7) {
+                continue;
+            }
+            SignedToken token = collector.tokens.get(n++);
+            assertEquals("user" + i, token.getUser().getID());
+            assertEquals(signer.sign(token.getUser()), token.getToken());
+        }
+        for (SignedToken failure : failed) {
+            assertTrue(failure.getError() instanceof IllegalArgumentException);
+        }
+    }
+
+    @Test
+    public void testHonoursDemand() throws Exception {
+        CountingPublisher publisher = new CountingPublisher(10000);
+        SigningProcessor processor = new SigningProcessor(new Signer(sharedKey), this.pool, 16,
+            failed -> { });
+        Collector collector = new Collector(0); // requests nothing yet
+        processor.subscribe(collector);
+        publisher.subscribe(processor);
+
+        Thread.sleep(200);
+        assertTrue(collector.tokens.isEmpty());
+        // the buffer filled up, and then nothing more was asked for
+        assertTrue(publisher.sent <= 16);
+        assertTrue(publisher.maxOutstanding.get() <= 16);
+
+        collector.subscription.request(5);
+        Thread.sleep(200);
+        assertEquals(5, collector.tokens.size());
+        assertTrue(publisher.sent <= 16 + 5);
+
+        collector.subscription.request(Long.MAX_VALUE);
+        assertTrue(collector.done.await(30, TimeUnit.SECONDS));
+        assertEquals(9000, collector.tokens.size());
+        assertTrue(publisher.maxOutstanding.get() <= 16);
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        CountingPublisher publisher = new CountingPublisher(10000);
+        SigningProcessor processor = new SigningProcessor(new Signer(sharedKey), this.pool, 8,
+            failed -> { });
+        Collector collector = new Collector(4);
+        processor.subscribe(collector);
+        collector.subscription.cancel();
+        publisher.subscribe(processor);
+        assertTrue(publisher.cancelled);
+        assertTrue(publisher.sent < 10000);
+    }
+
+    @Test
+    public void testBadRequest() throws Exception {
+        CountingPublisher publisher = new CountingPublisher(100);
+        SigningProcessor processor = new SigningProcessor(new Signer(sharedKey), this.pool, 8,
+            failed -> { });
+        Collector collector = new Collector(0);
+        processor.subscribe(collector);
+        publisher.subscribe(processor);
+        collector.subscription.request(0);
+        assertTrue(collector.done.await(5, TimeUnit.SECONDS));
+        assertTrue(collector.error instanceof IllegalArgumentException);
+        assertTrue(publisher.cancelled);
+    }
+
+    @Test
+    public void testUpstreamError() throws Exception {
+        SigningProcessor processor = new SigningProcessor(new Signer(sharedKey), this.pool, 8,
+            failed -> { });
+        Collector collector = new Collector(100);
+        processor.subscribe(collector);
+
+        SubmissionPublisher<User> users = new SubmissionPublisher<User>();
+        users.subscribe(processor);
+        users.submit(makeUser(1));
+        users.submit(makeUser(2));
+        users.closeExceptionally(new IllegalStateException("boom"));
+        assertTrue(collector.done.await(5, TimeUnit.SECONDS));
+        assertEquals("boom", collector.error.getMessage());
+    }
+
+    @Test
+    public void testOneSubscriber() throws Exception {
+        SigningProcessor processor = new SigningProcessor(new Signer(sharedKey), 8, failed -> { });
+        processor.subscribe(new Collector(1));
+        Collector second = new Collector(1);
+        processor.subscribe(second);
+        assertTrue(second.error instanceof IllegalStateException);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testBufferSize() {
+        new SigningProcessor(new Signer(sharedKey), 0, failed -> { });
+    }
+}
@@ -0,0 +1,60 @@
+package com.goinstant.auth.jfr;
+
+import jdk.jfr.EventType;
+
+import com.goinstant.auth.SignListener;
+import com.goinstant.auth.Signer;
+
+/**
+ * Emits a <code>com.goinstant.auth.Sign</code> JDK Flight Recorder event for
+ * signs by the Signers it's attached to:
+ * <pre>
+ *   FlightRecorderSignListener.attach(signer);
+ * </pre>
+ * While no recording has the event enabled, a sign costs one extra check
+ * of a flag.  When it's enabled, JFR's threshold setting decides which
+ * signs are recorded, so a recording with
+ * <code>com.goinstant.auth.Sign#threshold=5 ms</code> captures only signs
+ * that took 5ms or more.
+ */
+public class FlightRecorderSignListener implements SignListener {
+    private static final EventType TYPE = EventType.getEventType(SignEvent.class);
+
+    private static final FlightRecorderSignListener INSTANCE = new FlightRecorderSignListener();
+
+    /**
+     * Emit events for everything this Signer signs.  Replaces any listener
+     * it had.
+     */
+    public static void attach(Signer signer) {
+        signer.setSignListener(INSTANCE);
+    }
+
+    public Object beforeSign() {
+        if (!TYPE.isEnabled()) {
+            return null;
+        }
+        SignEvent event = new SignEvent();
+        event.begin();
+        return event;
+    }
+
+    public void afterSign(Object context, String userID, int groups, int customClaims,
+        String headerVariant, int payloadBytes, boolean signed, RuntimeException error)
+    {
+        SignEvent event = (SignEvent)context;
+        event.end();
+        if (!event.shouldCommit()) {
+            return;
+        }
+        event.userIdHash = userID != null ? userID.hashCode() : 0;
+        event.groups = groups;
+        event.customClaims = customClaims;
+        event.headerVariant = headerVariant;
+        event.payloadBytes = payloadBytes;
+        event.outcome = error != null ? error.getClass().getName()
+            : signed ? "signed"
+            : "crypto failure";
+        event.commit();
+    }
+}
@@ -0,0 +1,54 @@
+package com.goinstant.auth.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * One token signed by a {@link com.goinstant.auth.Signer}, as a JDK Flight
+ * Recorder event named <code>com.goinstant.auth.Sign</code>.
+ *
+ * Off by default.  Turn it on in a recording's settings, with a threshold
+ * to only capture slow signs (see goinstant-auth.jfc in this jar).  Stack
+ * traces are off by default too; the fields say which user shape was slow.
+ */
+@Name("com.goinstant.auth.Sign")
+@Label("Sign Token")
+@Description("A GoInstant auth token signed by a Signer")
+@Category({ "GoInstant", "Auth" })
+@Enabled(false)
+@Threshold("0 ms")
+@StackTrace(false)
+final class SignEvent extends Event {
+
+    @Label("User ID Hash")
+    @Description("hashCode() of the user's id, so that a user's signs can be told apart without recording ids")
+    int userIdHash;
+
+    @Label("Groups")
+    @Description("Number of groups the user is in, or -1 if unknown")
+    int groups;
+
+    @Label("Custom Claims")
+    @Description("Number of custom claims the user has, or -1 if unknown")
+    int customClaims;
+
+    @Label("Header Variant")
+    @Description("default, kid (the Signer's key ID) or extra (extra headers)")
+    String headerVariant;
+
+    @Label("Payload Size")
+    @Description("Length of the claims JSON, or -1 if it wasn't written")
+    @DataAmount
+    int payloadBytes;
+
+    @Label("Outcome")
+    @Description("signed, crypto failure, or the exception thrown")
+    String outcome;
+}
@@ -0,0 +1,90 @@
+package com.goinstant.auth.jfr;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import com.goinstant.auth.Group;
+import com.goinstant.auth.PlainGroup;
+import com.goinstant.auth.PlainUser;
+import com.goinstant.auth.Signer;
+
+/**
+ * Unit tests for FlightRecorderSignListener.
+ */
+public class FlightRecorderSignListenerTest {
+
+    static final String sharedKey = "HKYdFdnezle2yrI2_Ph3cHz144bISk-cvuAbeAAA999";
+
+    private static PlainUser makeUser(String id) {
+        PlainUser user = new PlainUser(id, "example.com", "bob", new TreeSet<Group>(
+            Arrays.asList(new PlainGroup("1234"), new PlainGroup("42"))));
+        user.setCustomClaim("email", "bob@example.com");
+        return user;
+    }
+
+    private static List<RecordedEvent> record(Signer signer, Duration threshold) throws Exception {
+        Path file = Files.createTempFile("goinstant-auth", ".jfr");
+        try {
+            try (Recording recording = new Recording()) {
+                recording.enable(SignEvent.class).withThreshold(threshold);
+                recording.start();
+                signer.sign(makeUser("bar"));
+                try {
+                    signer.sign(new PlainUser("", "example.com"));
+                } catch (IllegalArgumentException e) {
+                    // recorded as an outcome
+                }
+                recording.stop();
+                recording.dump(file);
+            }
+            return RecordingFile.readAllEvents(file);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testDisabled() {
+        assertNull(new FlightRecorderSignListener().beforeSign());
+    }
+
+    @Test
+    public void testEvents() throws Exception {
+        Signer signer = new Signer(sharedKey);
+        FlightRecorderSignListener.attach(signer);
+
+        List<RecordedEvent> events = record(signer, Duration.ZERO);
+        assertEquals(2, events.size());
+
+        RecordedEvent signed = events.get(0);
+        assertEquals("com.goinstant.auth.Sign", signed.getEventType().getName());
+        assertEquals("bar".hashCode(), signed.getInt("userIdHash"));
+        assertEquals(2, signed.getInt("groups"));
+        assertEquals(1, signed.getInt("customClaims"));
+        assertEquals("default", signed.getString("headerVariant"));
+        assertTrue(signed.getInt("payloadBytes") > 0);
+        assertEquals("signed", signed.getString("outcome"));
+
+        RecordedEvent rejected = events.get(1);
+        assertEquals(-1, rejected.getInt("payloadBytes"));
+        assertEquals("java.lang.IllegalArgumentException", rejected.getString("outcome"));
+    }
+
+    @Test
+    public void testThreshold() throws Exception {
+        Signer signer = new Signer(sharedKey);
+        FlightRecorderSignListener.attach(signer);
+        assertEquals(0, record(signer, Duration.ofMinutes(1)).size());
+    }
+}
@@ -0,0 +1,76 @@
+package com.goinstant.auth;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Runs single signings off the caller's thread for {@link Signer#signAsync}.
+ */
+final class AsyncSigner {
+    private AsyncSigner() {
+    }
+
+    /**
+     * Lazily-created executor shared by every Signer: one daemon thread per
+     * CPU and up to 1024 pending signings per thread.
+     */
+    private static final class DefaultExecutor {
+        static final SigningExecutor EXECUTOR;
+        static {
+            int threads = Runtime.getRuntime().availableProcessors();
+            EXECUTOR = SigningExecutor.threadPool(threads, threads * 1024);
+        }
+    }
+
+    static SigningExecutor defaultExecutor() {
+        return DefaultExecutor.EXECUTOR;
+    }
+
+    static Future<String> submit(final Signer signer, final User user,
+        final Map<String,Object> extraHeaders, SignCallback callback, Executor executor)
+    {
+        Task task = new Task(new Callable<String>() {
+            public String call() {
+                return signer.sign(user, extraHeaders);
+            }
+        }, callback);
+        executor.execute(task); // RejectedExecutionException is the backpressure
+        return task;
+    }
+
+    /**
+     * A FutureTask that tells its callback when it's done.
+     */
+    private static final class Task extends FutureTask<String> {
+        private final SignCallback callback;
+
+        Task(Callable<String> work, SignCallback callback) {
+            super(work);
+            this.callback = callback;
+        }
+
+        @Override
+        protected void done() {
+            if (this.callback == null || isCancelled()) {
+                return;
+            }
+
+            String token;
+            try {
+                token = get();
+            } catch (ExecutionException e) {
+                this.callback.onFailure(e.getCause());
+                return;
+            } catch (InterruptedException e) { // can't happen, we're done
+                Thread.currentThread().interrupt();
+                this.callback.onFailure(e);
+                return;
+            }
+            this.callback.onSuccess(token);
+        }
+    }
+}
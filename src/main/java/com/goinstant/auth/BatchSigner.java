@@ -0,0 +1,181 @@
+package com.goinstant.auth;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Signs many users in parallel for {@link Signer#signAll}.
+ *
+ * Every user gets its own {@link SignedToken}, so one bad user doesn't stop
+ * the batch, and results are in the same order as the input.  Worker threads
+ * keep their HMAC and buffers between users, just like repeated sign() calls
+ * on one thread.
+ */
+final class BatchSigner {
+    /**
+     * Smallest slice of a batch worth handing to another thread.
+     */
+    private static final int MIN_SLICE = 16;
+
+    private BatchSigner() {
+    }
+
+    /**
+     * Lazily-created pool shared by every Signer; its threads are daemons.
+     */
+    private static final class DefaultPool {
+        static final ForkJoinPool POOL = new ForkJoinPool();
+    }
+
+    static ForkJoinPool defaultPool() {
+        return DefaultPool.POOL;
+    }
+
+    static List<SignedToken> signAll(Signer signer, Collection<? extends User> users,
+        Map<String,Object> extraHeaders, Executor executor)
+    {
+        User[] batch = users.toArray(new User[users.size()]);
+        SignedToken[] results = new SignedToken[batch.length];
+        if (batch.length == 0) {
+            return Collections.emptyList();
+        }
+
+        if (executor instanceof ForkJoinPool) {
+            ForkJoinPool pool = (ForkJoinPool)executor;
+            int slice = Math.max(MIN_SLICE, batch.length / (pool.getParallelism() * 8));
+            pool.invoke(new Slice(signer, batch, extraHeaders, results, 0, batch.length, slice));
+        } else {
+            shareWork(signer, batch, extraHeaders, results, executor);
+        }
+        return Collections.unmodifiableList(Arrays.asList(results));
+    }
+
+    static SignedToken signOne(Signer signer, User user, Map<String,Object> extraHeaders) {
+        try {
+            return new SignedToken(user, signer.sign(user, extraHeaders), null);
+        } catch (RuntimeException e) {
+            return new SignedToken(user, null, e);
+        }
+    }
+
+    private static void signRange(Signer signer, User[] batch, Map<String,Object> extraHeaders,
+        SignedToken[] results, int from, int to)
+    {
+        for (int i = from; i < to; i++) {
+            results[i] = signOne(signer, batch[i], extraHeaders);
+        }
+    }
+
+    /**
+     * Recursively splits the batch; idle pool threads steal the halves.
+     */
+    private static final class Slice extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Signer signer;
+        private final User[] batch;
+        private final Map<String,Object> extraHeaders;
+        private final SignedToken[] results;
+        private final int from, to, slice;
+
+        Slice(Signer signer, User[] batch, Map<String,Object> extraHeaders,
+            SignedToken[] results, int from, int to, int slice)
+        {
+            this.signer = signer;
+            this.batch = batch;
+            this.extraHeaders = extraHeaders;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+            this.slice = slice;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from <= this.slice) {
+                signRange(this.signer, this.batch, this.extraHeaders, this.results,
+                    this.from, this.to);
+                return;
+            }
+            int mid = (this.from + this.to) >>> 1;
+            invokeAll(
+                new Slice(this.signer, this.batch, this.extraHeaders, this.results,
+                    this.from, mid, this.slice),
+                new Slice(this.signer, this.batch, this.extraHeaders, this.results,
+                    mid, this.to, this.slice));
+        }
+    }
+
+    /**
+     * For plain Executors: the batch is cut into chunks that the executor's
+     * workers and the calling thread claim one at a time, so fast threads
+     * take more chunks.  Because the caller works too, the batch completes
+     * even if the executor is saturated or rejects the workers.
+     */
+    private static void shareWork(final Signer signer, final User[] batch,
+        final Map<String,Object> extraHeaders, final SignedToken[] results, Executor executor)
+    {
+        int threads = Runtime.getRuntime().availableProcessors();
+        final int chunk = Math.max(MIN_SLICE, batch.length / (threads * 8));
+        final int chunks = (batch.length + chunk - 1) / chunk;
+        final AtomicInteger next = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(chunks);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        Runnable worker = new Runnable() {
+            public void run() {
+                int c;
+                while ((c = next.getAndIncrement()) < chunks) {
+                    try {
+                        int from = c * chunk;
+                        signRange(signer, batch, extraHeaders, results,
+                            from, Math.min(from + chunk, batch.length));
+                    } catch (Throwable t) { // Errors; RuntimeExceptions are per-user
+                        failure.compareAndSet(null, t);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }
+        };
+
+        for (int i = 1; i < Math.min(threads, chunks); i++) {
+            try {
+                executor.execute(worker);
+            } catch (RejectedExecutionException e) {
+                break; // the caller will pick up the slack
+            }
+        }
+        worker.run();
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        Throwable t = failure.get();
+        if (t instanceof Error) {
+            throw (Error)t;
+        } else if (t != null) {
+            throw new IllegalStateException(t);
+        }
+    }
+}
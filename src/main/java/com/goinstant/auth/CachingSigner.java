@@ -0,0 +1,357 @@
+package com.goinstant.auth;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers recently signed tokens so that signing the same User again is a
+ * lookup instead of a signature.
+ *
+ * Users are matched on a snapshot of everything that goes into their token
+ * (id, domain, display name, custom claims, groups and extra headers), so a
+ * user whose claims have changed always gets a fresh token.  Users with claim
+ * values that can't be snapshotted (e.g. Dates or arrays) are simply signed
+ * every time.
+ * <br>
+ * The cache is bounded and evicts the least-recently-used tokens first.
+ * Entries can optionally expire after a fixed time.  Changing the Signer
+ * (e.g. when rotating keys) with {@link #setSigner} drops every cached token.
+ * <br>
+ * If the Signer makes expiring tokens ({@link Signer#setTokenLifetime}), a
+ * cached token is only re-used while enough of its lifetime is left (half,
+ * unless you {@link #setMinRemainingLifetime say otherwise}).  With {@link
+ * #setRefreshAhead refresh-ahead} on, a user whose token is getting close to
+ * that point is re-signed in the background, so active users keep getting
+ * cached tokens.
+ * <br>
+ * Like Signer, a single CachingSigner can be shared between threads.
+ * <pre>
+ *   CachingSigner signer = new CachingSigner(new Signer(secretKey), 10000);
+ *   String token = signer.sign(user);
+ * </pre>
+ */
+public class CachingSigner {
+    /**
+     * The cache is split into independently locked segments.
+     */
+    private static final int MAX_SEGMENTS = 16;
+
+    private volatile Signer signer;
+    private final Segment[] segments;
+    private final long ttlNanos;
+
+    /**
+     * Seconds of lifetime a re-used token must have left; negative means
+     * half the Signer's token lifetime.
+     */
+    private volatile long minRemaining = -1;
+
+    /**
+     * Seconds before minRemaining to start re-signing in the background; 0
+     * for never.
+     */
+    private volatile long refreshAhead;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+
+    /**
+     * Create a CachingSigner whose tokens never expire.
+     *
+     * @param signer the Signer to create tokens with.
+     * @param maxSize maximum number of tokens to remember.
+     *
+     * @throws IllegalArgumentException if maxSize isn't positive.
+     */
+    public CachingSigner(Signer signer, int maxSize) {
+        this(signer, maxSize, 0, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Create a CachingSigner whose tokens are forgotten after a while.
+     *
+     * @param signer the Signer to create tokens with.
+     * @param maxSize maximum number of tokens to remember.
+     * @param ttl how long to remember each token (0 for forever).
+     * @param unit unit for ttl.
+     *
+     * @throws IllegalArgumentException if maxSize isn't positive or ttl is
+     *   negative.
+     */
+    public CachingSigner(Signer signer, int maxSize, long ttl, TimeUnit unit) {
+        if (signer == null) {
+            throw new IllegalArgumentException("signer must not be null");
+        }
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+        if (ttl < 0) {
+            throw new IllegalArgumentException("ttl must not be negative");
+        }
+
+        this.signer = signer;
+        this.ttlNanos = unit.toNanos(ttl);
+
+        int count = Math.min(MAX_SEGMENTS, maxSize);
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            // spread maxSize over the segments, first ones get the remainder
+            this.segments[i] = new Segment(maxSize / count + (i < maxSize % count ? 1 : 0));
+        }
+    }
+
+    /**
+     * Get the Signer used to create tokens.
+     */
+    public Signer getSigner() {
+        return this.signer;
+    }
+
+    /**
+     * Switch to a different Signer, e.g. with a new secret key.
+     *
+     * Tokens signed by the previous Signer are never returned again.
+     */
+    public void setSigner(Signer signer) {
+        if (signer == null) {
+            throw new IllegalArgumentException("signer must not be null");
+        }
+        this.signer = signer;
+        invalidateAll();
+    }
+
+    /**
+     * How much lifetime a cached token must have left to be re-used, when the
+     * Signer makes expiring tokens.
+     *
+     * @param remaining the minimum time left; the default is half the
+     *   Signer's token lifetime.
+     * @param unit the unit of remaining.
+     */
+    public void setMinRemainingLifetime(long remaining, TimeUnit unit) {
+        if (remaining < 0) {
+            throw new IllegalArgumentException("remaining must not be negative");
+        }
+        this.minRemaining = unit.toSeconds(remaining);
+    }
+
+    /**
+     * Re-sign active users in the background before their cached token gets
+     * too old to re-use.
+     *
+     * When a cached token is served with less than the minimum remaining
+     * lifetime plus this window left, a fresh one is signed on the Signer's
+     * {@link Signer#setAsyncExecutor async executor} and replaces it.  The
+     * caller still gets the cached token right away.
+     *
+     * @param window how early to refresh; 0 turns refresh-ahead off (the
+     *   default).
+     * @param unit the unit of window.
+     */
+    public void setRefreshAhead(long window, TimeUnit unit) {
+        if (window < 0) {
+            throw new IllegalArgumentException("window must not be negative");
+        }
+        this.refreshAhead = unit.toSeconds(window);
+    }
+
+    /**
+     * Forget every cached token.
+     */
+    public void invalidateAll() {
+        for (Segment segment : this.segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * Get a token for this user, re-using a previous one if possible.
+     *
+     * @see Signer#sign(User)
+     */
+    public String sign(User user) {
+        return this.sign(user, null);
+    }
+
+    /**
+     * Get a token for this user with custom headers, re-using a previous one if
+     * possible.
+     *
+     * @see Signer#sign(User, Map)
+     */
+    public String sign(User user, Map<String,Object> extraHeaders) {
+        Signer current = this.signer;
+        Fingerprint key = Fingerprint.of(user, extraHeaders);
+        if (key == null) {
+            this.misses.incrementAndGet();
+            return current.sign(user, extraHeaders);
+        }
+
+        Segment segment = segmentFor(key);
+        Cached entry;
+        synchronized (segment) {
+            entry = segment.get(key);
+        }
+
+        long now = this.ttlNanos > 0 ? System.nanoTime() : 0;
+        long lifetime = current.lifetimeSeconds();
+        long seconds = lifetime > 0 ? current.clock().seconds() : 0;
+        if (entry != null && entry.signer == current && entry.lifetime == lifetime
+            && (this.ttlNanos == 0 || now - entry.expires < 0))
+        {
+            if (lifetime == 0) {
+                this.hits.incrementAndGet();
+                return entry.token;
+            }
+
+            long left = entry.tokenExpires - seconds;
+            long min = this.minRemaining >= 0 ? this.minRemaining : lifetime / 2;
+            if (left >= min) {
+                this.hits.incrementAndGet();
+                if (left < min + this.refreshAhead) {
+                    refresh(entry, key, segment, current, user, extraHeaders, seconds);
+                }
+                return entry.token;
+            }
+        }
+
+        this.misses.incrementAndGet();
+        String token = current.sign(user, extraHeaders);
+        if (token != null) {
+            synchronized (segment) {
+                segment.put(key, new Cached(current, token, now + this.ttlNanos,
+                    lifetime, seconds + lifetime));
+            }
+        }
+        return token;
+    }
+
+    /**
+     * Re-sign a user in the background and replace its cached token, once
+     * per cached token.
+     */
+    private void refresh(Cached entry, final Fingerprint key, final Segment segment,
+        final Signer current, final User user, final Map<String,Object> extraHeaders,
+        final long seconds)
+    {
+        if (!entry.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        final long lifetime = entry.lifetime;
+        try {
+            current.signAsync(user, extraHeaders, new SignCallback() {
+                public void onSuccess(String token) {
+                    // the user may have changed while we were signing
+                    if (token == null || CachingSigner.this.signer != current
+                        || !key.equals(Fingerprint.of(user, extraHeaders)))
+                    {
+                        return;
+                    }
+                    long now = CachingSigner.this.ttlNanos > 0 ? System.nanoTime() : 0;
+                    synchronized (segment) {
+                        segment.put(key, new Cached(current, token,
+                            now + CachingSigner.this.ttlNanos, lifetime, seconds + lifetime));
+                    }
+                    CachingSigner.this.refreshes.incrementAndGet();
+                }
+
+                public void onFailure(Throwable error) {
+                }
+            });
+        } catch (RejectedExecutionException e) { // busy; try again on the next hit
+            entry.refreshing.set(false);
+        }
+    }
+
+    private Segment segmentFor(Fingerprint key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return this.segments[(h & 0x7fffffff) % this.segments.length];
+    }
+
+    /**
+     * Number of tokens served from the cache.
+     */
+    public long getHitCount() {
+        return this.hits.get();
+    }
+
+    /**
+     * Number of tokens that had to be signed.
+     */
+    public long getMissCount() {
+        return this.misses.get();
+    }
+
+    /**
+     * Number of tokens re-signed in the background by refresh-ahead.
+     */
+    public long getRefreshCount() {
+        return this.refreshes.get();
+    }
+
+    /**
+     * Number of tokens currently cached (including expired ones not yet evicted).
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : this.segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    private static final class Cached {
+        final Signer signer;
+        final String token;
+
+        /**
+         * When the ttl runs out (System.nanoTime()).
+         */
+        final long expires;
+
+        /**
+         * The Signer's token lifetime when this was signed, and (if it's not
+         * 0) no later than the token's exp.
+         */
+        final long lifetime;
+        final long tokenExpires;
+
+        final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Cached(Signer signer, String token, long expires, long lifetime, long tokenExpires) {
+            this.signer = signer;
+            this.token = token;
+            this.expires = expires;
+            this.lifetime = lifetime;
+            this.tokenExpires = tokenExpires;
+        }
+    }
+
+    /**
+     * An access-ordered LinkedHashMap, i.e. an LRU.
+     */
+    private static final class Segment extends LinkedHashMap<Fingerprint,Cached> {
+        private static final long serialVersionUID = 1L;
+        private final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Fingerprint,Cached> eldest) {
+            return size() > this.capacity;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.goinstant.auth;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Claims JSON pre-built around a few values that change per token.
+ *
+ * Built by serializing a user with placeholder values and cutting the JSON
+ * at each placeholder, so key order and escaping stay exactly what
+ * ClaimsWriter produces.  String placeholders are found by searching for
+ * them; iat and exp are numbers a claim could just as well contain, so
+ * they're cut where ClaimsWriter says it wrote them.  Writing it back is
+ * the pieces with the real values between them.
+ */
+final class ClaimsPieces {
+    /**
+     * Slots for the values that go between pieces; custom claims use their
+     * index into the values array.
+     */
+    static final int SLOT_IAT = -4;
+    static final int SLOT_EXP = -3;
+    static final int SLOT_ID = -2;
+    static final int SLOT_DN = -1;
+
+    /**
+     * What to write for iat and exp before cutting them out; any time will
+     * do, since they're found by offset.
+     */
+    static final long PLACEHOLDER_TIME = 0;
+
+    private final byte[][] pieces;
+
+    /**
+     * What goes after pieces[i].
+     */
+    private final int[] slots;
+
+    private ClaimsPieces(byte[][] pieces, int[] slots) {
+        this.pieces = pieces;
+        this.slots = slots;
+    }
+
+    /**
+     * Placeholders found so far.
+     */
+    static final class Builder {
+        private final byte[] claims;
+        private final List<int[]> found = new ArrayList<int[]>(); // {position, length, slot}
+
+        Builder(JsonWriter json) {
+            this.claims = Arrays.copyOf(json.bytes(), json.length());
+        }
+
+        /**
+         * A placeholder that was written as a JSON string.
+         */
+        Builder string(String marker, int slot) {
+            JsonWriter w = new JsonWriter(marker.length() + 16);
+            w.writeString(marker);
+            return find(Arrays.copyOf(w.bytes(), w.length()), slot);
+        }
+
+        /**
+         * The default iat and exp, at the offsets ClaimsWriter noted in
+         * timeSlots; ones it didn't write (the user's own) stay as they are.
+         */
+        Builder times(int[] timeSlots) {
+            if (timeSlots[0] >= 0) {
+                this.found.add(new int[] { timeSlots[0], timeSlots[1] - timeSlots[0], SLOT_IAT });
+            }
+            if (timeSlots[2] >= 0) {
+                this.found.add(new int[] { timeSlots[2], timeSlots[3] - timeSlots[2], SLOT_EXP });
+            }
+            return this;
+        }
+
+        /**
+         * Find the one place a placeholder was written.
+         */
+        private Builder find(byte[] needle, int slot) {
+            int at = indexOf(this.claims, needle, 0);
+            if (at < 0 || indexOf(this.claims, needle, at + 1) >= 0) {
+                throw new IllegalArgumentException("claims can't be templated");
+            }
+            this.found.add(new int[] { at, needle.length, slot });
+            return this;
+        }
+
+        ClaimsPieces build() {
+            int[][] sorted = this.found.toArray(new int[this.found.size()][]);
+            Arrays.sort(sorted, new Comparator<int[]>() {
+                public int compare(int[] a, int[] b) {
+                    return a[0] < b[0] ? -1 : (a[0] == b[0] ? 0 : 1);
+                }
+            });
+
+            byte[][] pieces = new byte[sorted.length + 1][];
+            int[] slots = new int[sorted.length];
+            int from = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                pieces[i] = Arrays.copyOfRange(this.claims, from, sorted[i][0]);
+                slots[i] = sorted[i][2];
+                from = sorted[i][0] + sorted[i][1];
+            }
+            pieces[sorted.length] = Arrays.copyOfRange(this.claims, from, this.claims.length);
+            return new ClaimsPieces(pieces, slots);
+        }
+    }
+
+    private static int indexOf(byte[] haystack, byte[] needle, int from) {
+        outer:
+        for (int i = from; i <= haystack.length - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Write the claims with these values in their slots.  Values for slots
+     * that weren't marked are ignored.
+     */
+    void write(JsonWriter out, String id, String dn, Object[] values, long iat, long exp) {
+        for (int i = 0; i < this.slots.length; i++) {
+            out.writeBytes(this.pieces[i]);
+            int slot = this.slots[i];
+            if (slot == SLOT_ID) {
+                out.writeString(id);
+            } else if (slot == SLOT_DN) {
+                out.writeString(dn);
+            } else if (slot == SLOT_IAT) {
+                out.writeLong(iat);
+            } else if (slot == SLOT_EXP) {
+                out.writeLong(exp);
+            } else {
+                out.writeValue(values[slot]);
+            }
+        }
+        out.writeBytes(this.pieces[this.slots.length]);
+    }
+}
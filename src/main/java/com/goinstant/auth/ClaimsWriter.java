@@ -0,0 +1,450 @@
+package com.goinstant.auth;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Validates a User and streams its claims as JSON.
+ *
+ * The output is byte-for-byte what serializing a Nimbus JWTClaimsSet built
+ * from the same User used to produce:
+ * <ul>
+ *   <li>the top-level object is a json-smart JSONObject (a HashMap), so the
+ *   claims come out in HashMap iteration order. For users without custom
+ *   claims that order is fixed and worked out once; otherwise it's found by
+ *   building a small HashMap the same way JWTClaimsSet.toJSONObject() does.</li>
+ *   <li>each group was a TreeMap, so its keys are written in sorted order.</li>
+ *   <li>the registered JWT claims (exp, nbf, iat, jti, typ) get the same
+ *   type checks and conversions as JWTClaimsSet.setClaim().</li>
+ * </ul>
+ */
+final class ClaimsWriter {
+
+    /**
+     * Claims that can't be custom for a User.
+     */
+    private final static Set<String> RESERVED_CLAIMS;
+    static {
+        Set<String> n = new HashSet<String>();
+        n.add("aud");
+        n.add("dn");
+        n.add("g");
+        n.add("iss");
+        n.add("sub");
+        RESERVED_CLAIMS = Collections.unmodifiableSet(n);
+    };
+
+    /**
+     * Claims that can't be custom for a Group.
+     */
+    private final static Set<String> GROUP_RESERVED_CLAIMS;
+    static {
+        Set<String> n = new HashSet<String>();
+        n.add("dn");
+        n.add("id");
+        GROUP_RESERVED_CLAIMS = Collections.unmodifiableSet(n);
+    };
+
+    /**
+     * The "aud" claim is always goinstant.net
+     */
+    private final static String AUDIENCE = "goinstant.net";
+    private final static byte[] AUDIENCE_JSON = bytes("[\"" + AUDIENCE + "\"]");
+
+    private final static byte[] KEY_DN = bytes("\"dn\":");
+    private final static byte[] KEY_ID = bytes("\"id\":");
+
+    /**
+     * Fewest bytes a group can take: <code>{"dn":null,"id":"x"}</code>.
+     */
+    private final static int MIN_GROUP_BYTES = 20;
+
+    /**
+     * Means "no default iat/exp" to writeClaims().
+     */
+    final static long NO_TIME = -1;
+
+    /**
+     * Claim order for users without custom claims, with and without groups,
+     * with and without default iat/exp.
+     */
+    private final static String[] ORDER_NO_GROUPS = fixedOrder(false, false);
+    private final static String[] ORDER_WITH_GROUPS = fixedOrder(true, false);
+    private final static String[] ORDER_NO_GROUPS_TIMED = fixedOrder(false, true);
+    private final static String[] ORDER_WITH_GROUPS_TIMED = fixedOrder(true, true);
+
+    private final static Comparator<Map.Entry<String,Object>> BY_KEY =
+        new Comparator<Map.Entry<String,Object>>() {
+            public int compare(Map.Entry<String,Object> a, Map.Entry<String,Object> b) {
+                return a.getKey().compareTo(b.getKey());
+            }
+        };
+
+    private ClaimsWriter() {
+    }
+
+    private static byte[] bytes(String ascii) {
+        JsonWriter w = new JsonWriter(ascii.length());
+        w.writeRaw(ascii);
+        return Arrays.copyOf(w.bytes(), w.length());
+    }
+
+    /**
+     * Work out the HashMap iteration order of the fixed claims.
+     */
+    private static String[] fixedOrder(boolean withGroups, boolean timed) {
+        Map<String,Object> custom = new HashMap<String,Object>();
+        custom.put("dn", Boolean.TRUE);
+        if (withGroups) {
+            custom.put("g", Boolean.TRUE);
+        }
+        Long time = timed ? Long.valueOf(0) : null;
+        Map<String,Object> all = topLevel(custom, "", "", time, null, time, null, null);
+        return all.keySet().toArray(new String[all.size()]);
+    }
+
+    /**
+     * Mirrors JWTClaimsSet.toJSONObject(): a copy of the custom claims with
+     * the registered claims put on top, in this order.
+     */
+    private static Map<String,Object> topLevel(Map<String,Object> custom,
+        String domain, String id, Long exp, Long nbf, Long iat, String jti, String typ)
+    {
+        Map<String,Object> all = new HashMap<String,Object>(custom);
+        all.put("iss", domain);
+        all.put("sub", id);
+        all.put("aud", AUDIENCE);
+        if (exp != null) all.put("exp", exp);
+        if (nbf != null) all.put("nbf", nbf);
+        if (iat != null) all.put("iat", iat);
+        if (jti != null) all.put("jti", jti);
+        if (typ != null) all.put("typ", typ);
+        return all;
+    }
+
+    static void checkIdAndDn(String id, String displayName) {
+        if (id == null || id.length() == 0)
+            throw new IllegalArgumentException(
+                "id must be a non-empty String");
+
+        // optional, but must be non-empty if provided
+        if (displayName != null && displayName.length() == 0)
+            throw new IllegalArgumentException(
+                "displayName must be a non-empty String");
+    }
+
+    /**
+     * Validate a User and write its claims as a JSON object.
+     *
+     * @throws IllegalArgumentException if the user has bad values or
+     *   reserved custom properties.
+     */
+    static void writeClaims(JsonWriter out, User user) {
+        writeClaims(out, user, NO_TIME, NO_TIME);
+    }
+
+    /**
+     * Validate a User and write its claims as a JSON object, with iat and
+     * exp (in seconds) for users whose custom claims don't set them.
+     *
+     * @param defaultIat issued-at time, or NO_TIME.
+     * @param defaultExp expiry time, or NO_TIME.
+     *
+     * @throws IllegalArgumentException if the user has bad values or
+     *   reserved custom properties.
+     */
+    static void writeClaims(JsonWriter out, User user, long defaultIat, long defaultExp) {
+        if (user instanceof FrozenUser) { // validated & serialized already
+            ((FrozenUser)user).writeClaims(out, defaultIat, defaultExp);
+        } else {
+            writeUserClaims(out, user, defaultIat, defaultExp);
+        }
+    }
+
+    /**
+     * writeClaims(), always validating and serializing the user.
+     */
+    static void writeUserClaims(JsonWriter out, User user, long defaultIat, long defaultExp) {
+        writeUserClaims(out, user, defaultIat, defaultExp, null);
+    }
+
+    /**
+     * writeUserClaims(), noting where the default iat and exp went.
+     *
+     * @param timeSlots if not null, set to the offsets in out of the default
+     *   iat and exp values: <code>{iatStart, iatEnd, expStart, expEnd}</code>,
+     *   with -1s for one that wasn't written (NO_TIME, or the user's own).
+     */
+    static void writeUserClaims(JsonWriter out, User user, long defaultIat, long defaultExp,
+        int[] timeSlots)
+    {
+        if (timeSlots != null) {
+            Arrays.fill(timeSlots, -1);
+        }
+        String id = user.getID();
+        String displayName = user.getDisplayName();
+        checkIdAndDn(id, displayName);
+
+        String domain = user.getDomain();
+        if (domain == null || domain.length() == 0)
+            throw new IllegalArgumentException(
+                "domain must be a non-empty String");
+
+        String dn = displayName != null ? displayName : id;
+        Map<String,Object> custom = user.getCustomClaims();
+        Set<Group> groups = user.getGroups();
+        boolean hasGroups = groups.size() > 0;
+
+        if (custom.isEmpty() && (defaultIat == NO_TIME) == (defaultExp == NO_TIME)) {
+            String[] order = (defaultIat == NO_TIME)
+                ? (hasGroups ? ORDER_WITH_GROUPS : ORDER_NO_GROUPS)
+                : (hasGroups ? ORDER_WITH_GROUPS_TIMED : ORDER_NO_GROUPS_TIMED);
+            out.writeByte('{');
+            for (int i = 0; i < order.length; i++) {
+                if (i > 0) {
+                    out.writeByte(',');
+                }
+                String key = order[i];
+                out.writeString(key);
+                out.writeByte(':');
+                if (key.equals("aud")) {
+                    out.writeBytes(AUDIENCE_JSON);
+                } else if (key.equals("g")) {
+                    writeGroups(out, groups);
+                } else if (key.equals("dn")) {
+                    out.writeString(dn);
+                } else if (key.equals("iss")) {
+                    out.writeString(domain);
+                } else if (key.equals("iat")) {
+                    writeTime(out, defaultIat, timeSlots, 0);
+                } else if (key.equals("exp")) {
+                    writeTime(out, defaultExp, timeSlots, 2);
+                } else {
+                    out.writeString(id);
+                }
+            }
+            out.writeByte('}');
+            return;
+        }
+
+        Map<String,Object> customClaims = new HashMap<String,Object>();
+        customClaims.put("dn", dn);
+        Long exp = null, nbf = null, iat = null;
+        String jti = null, typ = null;
+        // PlainUser's CompactClaims are walked by index, without allocating
+        CompactClaims compact = custom instanceof CompactClaims ? (CompactClaims)custom : null;
+        Iterator<Map.Entry<String,Object>> it = compact == null ? custom.entrySet().iterator() : null;
+        for (int i = 0; compact != null ? i < compact.size() : it.hasNext(); i++) {
+            String key;
+            Object val;
+            if (compact != null) {
+                key = compact.keyAt(i);
+                val = compact.valueAt(i);
+            } else {
+                Map.Entry<String,Object> entry = it.next();
+                key = entry.getKey();
+                val = entry.getValue();
+            }
+            if (RESERVED_CLAIMS.contains(key)) {
+                throw new IllegalArgumentException("The '"+key+"' claim cannot be custom for a User");
+            }
+
+            if (key.equals("exp")) {
+                exp = seconds(val, "Expiration claim must be a Date");
+            } else if (key.equals("nbf")) {
+                nbf = seconds(val, "Not-before claim must be a Date");
+            } else if (key.equals("iat")) {
+                iat = seconds(val, "Issued-at claim must be a Date");
+            } else if (key.equals("jti")) {
+                jti = string(val, "JWT-ID claim must be a String");
+            } else if (key.equals("typ")) {
+                typ = string(val, "Type claim must be a String");
+            } else {
+                customClaims.put(key, val);
+            }
+        }
+        if (hasGroups) {
+            customClaims.put("g", groups);
+        }
+        boolean isDefaultExp = exp == null && defaultExp != NO_TIME;
+        if (isDefaultExp) {
+            exp = Long.valueOf(defaultExp);
+        }
+        boolean isDefaultIat = iat == null && defaultIat != NO_TIME;
+        if (isDefaultIat) {
+            iat = Long.valueOf(defaultIat);
+        }
+
+        Map<String,Object> all = topLevel(customClaims, domain, id, exp, nbf, iat, jti, typ);
+        out.writeByte('{');
+        boolean first = true;
+        for (Map.Entry<String,Object> entry : all.entrySet()) {
+            if (!first) {
+                out.writeByte(',');
+            }
+            first = false;
+            String key = entry.getKey();
+            out.writeString(key);
+            out.writeByte(':');
+            if (key.equals("aud")) {
+                out.writeBytes(AUDIENCE_JSON);
+            } else if (key.equals("g")) {
+                writeGroups(out, groups);
+            } else if (key.equals("iat") && isDefaultIat) {
+                writeTime(out, defaultIat, timeSlots, 0);
+            } else if (key.equals("exp") && isDefaultExp) {
+                writeTime(out, defaultExp, timeSlots, 2);
+            } else {
+                out.writeValue(entry.getValue());
+            }
+        }
+        out.writeByte('}');
+    }
+
+    /**
+     * Write a default iat or exp, noting where it went in timeSlots[slot]
+     * and timeSlots[slot + 1].
+     */
+    private static void writeTime(JsonWriter out, long seconds, int[] timeSlots, int slot) {
+        int start = out.length();
+        out.writeLong(seconds);
+        if (timeSlots != null) {
+            timeSlots[slot] = start;
+            timeSlots[slot + 1] = out.length();
+        }
+    }
+
+    private static Long seconds(Object val, String message) {
+        if (val != null && !(val instanceof Date)) {
+            throw new IllegalArgumentException(message);
+        }
+        return val == null ? null : Long.valueOf(((Date)val).getTime() / 1000);
+    }
+
+    private static String string(Object val, String message) {
+        if (val != null && !(val instanceof String)) {
+            throw new IllegalArgumentException(message);
+        }
+        return (String)val;
+    }
+
+    /**
+     * Groups are written as a JSON Array, which GoInstant requires.
+     */
+    private static void writeGroups(JsonWriter out, Set<Group> groups) {
+        // Fail before writing a thing if the groups can't possibly fit.
+        out.checkLimit((long)groups.size() * MIN_GROUP_BYTES);
+
+        out.writeByte('[');
+        boolean first = true;
+        for (Group group : groups) {
+            if (!first) {
+                out.writeByte(',');
+            }
+            first = false;
+            if (group instanceof FrozenGroup) { // validated & serialized already
+                out.writeBytes(((FrozenGroup)group).json());
+            } else {
+                writeGroup(out, group);
+            }
+            out.checkLimit();
+        }
+        out.writeByte(']');
+    }
+
+    /**
+     * Validate a Group and write it as a JSON object, keys sorted.
+     */
+    static void writeGroup(JsonWriter out, Group group) {
+        String id = group.getID();
+        String displayName = group.getDisplayName();
+        checkIdAndDn(id, displayName);
+
+        Map<String,Object> custom = group.getCustomClaims();
+        if (custom.isEmpty()) {
+            out.writeByte('{');
+            out.writeBytes(KEY_DN);
+            writeNullableString(out, displayName);
+            out.writeByte(',');
+            out.writeBytes(KEY_ID);
+            out.writeString(id);
+            out.writeByte('}');
+            return;
+        }
+
+        Map.Entry<String,Object>[] entries = out.entries(custom.size());
+        int n = 0;
+        try {
+            for (Map.Entry<String,Object> entry : custom.entrySet()) {
+                String key = entry.getKey();
+                if (GROUP_RESERVED_CLAIMS.contains(key)) {
+                    throw new IllegalArgumentException("The '"+key+"' claim cannot be custom for a Group");
+                }
+                entries[n++] = entry;
+            }
+            Arrays.sort(entries, 0, n, BY_KEY);
+            writeSortedGroup(out, id, displayName, entries, n);
+        } finally {
+            Arrays.fill(entries, 0, n, null); // don't pin claims to the thread
+        }
+    }
+
+    private static void writeSortedGroup(JsonWriter out, String id, String displayName,
+        Map.Entry<String,Object>[] entries, int n)
+    {
+        out.writeByte('{');
+        boolean wroteDn = false, wroteId = false, first = true;
+        for (int i = 0; i < n; i++) {
+            String key = entries[i].getKey();
+            if (!wroteDn && key.compareTo("dn") > 0) {
+                first = writeSeparator(out, first);
+                out.writeBytes(KEY_DN);
+                writeNullableString(out, displayName);
+                wroteDn = true;
+            }
+            if (!wroteId && key.compareTo("id") > 0) {
+                first = writeSeparator(out, first);
+                out.writeBytes(KEY_ID);
+                out.writeString(id);
+                wroteId = true;
+            }
+            first = writeSeparator(out, first);
+            out.writeString(key);
+            out.writeByte(':');
+            out.writeValue(entries[i].getValue());
+        }
+        if (!wroteDn) {
+            first = writeSeparator(out, first);
+            out.writeBytes(KEY_DN);
+            writeNullableString(out, displayName);
+        }
+        if (!wroteId) {
+            first = writeSeparator(out, first);
+            out.writeBytes(KEY_ID);
+            out.writeString(id);
+        }
+        out.writeByte('}');
+    }
+
+    private static boolean writeSeparator(JsonWriter out, boolean first) {
+        if (!first) {
+            out.writeByte(',');
+        }
+        return false;
+    }
+
+    private static void writeNullableString(JsonWriter out, String s) {
+        if (s == null) {
+            out.writeValue(null);
+        } else {
+            out.writeString(s);
+        }
+    }
+}
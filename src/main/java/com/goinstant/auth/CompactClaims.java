@@ -0,0 +1,303 @@
+package com.goinstant.auth;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A small, insertion-ordered Map of claims, stored in a single array.
+ *
+ * Custom claims are usually a handful of entries per user, where a HashMap
+ * spends far more memory on its table and entry objects than on the claims
+ * themselves.  Here keys and values sit side by side in one array and
+ * lookups scan it, which is as fast as hashing for a few entries.  Large
+ * maps still work, but lookups get slower as they grow; iteration doesn't.
+ * The library's own copies of claims only use one up to
+ * {@link #MAX_COMPACT} entries, and a LinkedHashMap past that.
+ * <br>
+ * Iteration order is insertion order, so copying another Map keeps its
+ * order (and the tokens signed from it).  Null keys and values are allowed.
+ * Not thread-safe, like HashMap.
+ */
+public final class CompactClaims extends AbstractMap<String,Object> {
+    private static final Object[] EMPTY = new Object[0];
+
+    /**
+     * Most claims worth keeping in a CompactClaims: past this, scanning for
+     * a key costs more than hashing it.
+     */
+    public static final int MAX_COMPACT = 16;
+
+    /**
+     * key0, value0, key1, value1, ...
+     */
+    private Object[] table;
+    private int size;
+    private int modCount;
+
+    private transient Set<Map.Entry<String,Object>> entrySet;
+
+    /**
+     * An empty map.
+     */
+    public CompactClaims() {
+        this.table = EMPTY;
+    }
+
+    /**
+     * An empty map with room for some claims.
+     */
+    public CompactClaims(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative");
+        }
+        this.table = capacity == 0 ? EMPTY : new Object[capacity * 2];
+    }
+
+    /**
+     * A copy of another map, in its iteration order.
+     */
+    public CompactClaims(Map<String,?> claims) {
+        this(claims.size());
+        // a Map's keys are already distinct, so append without looking them up
+        Object[] table = this.table;
+        int end = 0;
+        for (Map.Entry<String,?> entry : claims.entrySet()) {
+            if (end == table.length) { // map grew while copying
+                table = Arrays.copyOf(table, Math.max(8, end * 2));
+            }
+            table[end] = entry.getKey();
+            table[end + 1] = entry.getValue();
+            end += 2;
+        }
+        if (end < table.length) { // map shrank while copying
+            table = Arrays.copyOf(table, end);
+        }
+        this.table = table;
+        this.size = end / 2;
+    }
+
+    /**
+     * A copy of some claims, in their iteration order: a CompactClaims for
+     * up to MAX_COMPACT of them, otherwise a LinkedHashMap.
+     */
+    static Map<String,Object> copyOf(Map<String,?> claims) {
+        if (claims.size() <= MAX_COMPACT) {
+            return new CompactClaims(claims);
+        }
+        return new LinkedHashMap<String,Object>(claims);
+    }
+
+    private int indexOf(Object key) {
+        Object[] table = this.table;
+        int end = this.size * 2;
+        if (key == null) {
+            for (int i = 0; i < end; i += 2) {
+                if (table[i] == null) {
+                    return i;
+                }
+            }
+        } else {
+            for (int i = 0; i < end; i += 2) {
+                if (key.equals(table[i])) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The i'th key and value, in iteration order: a way to walk the claims
+     * without an iterator or Entry objects, for the code that serializes
+     * them on every sign.
+     */
+    String keyAt(int i) {
+        return (String)this.table[i * 2];
+    }
+
+    Object valueAt(int i) {
+        return this.table[i * 2 + 1];
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public Object get(Object key) {
+        int i = indexOf(key);
+        return i >= 0 ? this.table[i + 1] : null;
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        int i = indexOf(key);
+        if (i >= 0) {
+            Object old = this.table[i + 1];
+            this.table[i + 1] = value;
+            return old;
+        }
+
+        int end = this.size * 2;
+        if (end == this.table.length) {
+            int pairs = Math.max(4, this.size + (this.size >> 1) + 1);
+            this.table = Arrays.copyOf(this.table, pairs * 2);
+        }
+        this.table[end] = key;
+        this.table[end + 1] = value;
+        this.size++;
+        this.modCount++;
+        return null;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        int i = indexOf(key);
+        if (i < 0) {
+            return null;
+        }
+        Object old = this.table[i + 1];
+        removeAt(i);
+        return old;
+    }
+
+    private void removeAt(int i) {
+        int end = this.size * 2;
+        System.arraycopy(this.table, i + 2, this.table, i, end - i - 2);
+        this.table[end - 2] = null;
+        this.table[end - 1] = null;
+        this.size--;
+        this.modCount++;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(this.table, 0, this.size * 2, null);
+        this.size = 0;
+        this.modCount++;
+    }
+
+    @Override
+    public Set<Map.Entry<String,Object>> entrySet() {
+        Set<Map.Entry<String,Object>> entries = this.entrySet;
+        if (entries == null) {
+            entries = new EntrySet();
+            this.entrySet = entries;
+        }
+        return entries;
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<String,Object>> {
+        @Override
+        public Iterator<Map.Entry<String,Object>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return CompactClaims.this.size;
+        }
+
+        @Override
+        public void clear() {
+            CompactClaims.this.clear();
+        }
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<String,Object>> {
+        private int next;
+        private int last = -1;
+        private int expectedModCount = CompactClaims.this.modCount;
+
+        public boolean hasNext() {
+            return this.next < CompactClaims.this.size * 2;
+        }
+
+        public Map.Entry<String,Object> next() {
+            if (CompactClaims.this.modCount != this.expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            this.last = this.next;
+            this.next += 2;
+            return new Entry(this.last);
+        }
+
+        public void remove() {
+            if (this.last < 0) {
+                throw new IllegalStateException();
+            }
+            if (CompactClaims.this.modCount != this.expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            removeAt(this.last);
+            this.next = this.last;
+            this.last = -1;
+            this.expectedModCount = CompactClaims.this.modCount;
+        }
+    }
+
+    /**
+     * A view of one slot; setValue() writes through.
+     */
+    private final class Entry implements Map.Entry<String,Object> {
+        private final int index;
+
+        Entry(int index) {
+            this.index = index;
+        }
+
+        public String getKey() {
+            return (String)CompactClaims.this.table[this.index];
+        }
+
+        public Object getValue() {
+            return CompactClaims.this.table[this.index + 1];
+        }
+
+        public Object setValue(Object value) {
+            Object old = CompactClaims.this.table[this.index + 1];
+            CompactClaims.this.table[this.index + 1] = value;
+            return old;
+        }
+
+        @Override
+        public boolean equals(Object that) {
+            if (!(that instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?,?> other = (Map.Entry<?,?>)that;
+            return eq(getKey(), other.getKey()) && eq(getValue(), other.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            Object key = getKey(), value = getValue();
+            return (key == null ? 0 : key.hashCode()) ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+
+    private static boolean eq(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
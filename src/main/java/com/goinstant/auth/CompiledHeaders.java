@@ -0,0 +1,35 @@
+package com.goinstant.auth;
+
+import java.nio.charset.Charset;
+
+/**
+ * A set of extra JWS headers, serialized and base64url-encoded once.
+ *
+ * Get one from {@link Signer#compileHeaders(java.util.Map)} and pass it to
+ * {@link Signer#signWith(User, CompiledHeaders)} to skip building the header on
+ * every call.  Immutable and thread-safe.
+ */
+public final class CompiledHeaders {
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    /**
+     * The base64url header plus the '.'.
+     */
+    private final byte[] prefix;
+
+    CompiledHeaders(byte[] prefix) {
+        this.prefix = prefix;
+    }
+
+    byte[] prefix() {
+        return this.prefix;
+    }
+
+    /**
+     * The base64url-encoded header, as it appears at the start of a token.
+     */
+    @Override
+    public String toString() {
+        return new String(this.prefix, 0, this.prefix.length - 1, US_ASCII);
+    }
+}
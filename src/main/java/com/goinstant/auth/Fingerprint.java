@@ -0,0 +1,203 @@
+package com.goinstant.auth;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A canonical, immutable snapshot of everything that goes into a token: the
+ * User's id, domain, display name and custom claims, each of its Groups (in
+ * the order they'll be written) and any extra headers.  Single Groups can be
+ * fingerprinted too.
+ *
+ * Two users with equal fingerprints get equivalent tokens.  Claim values are
+ * copied (Maps and Collections deeply; RawJson is immutable), so mutating a user after it has been
+ * signed changes its fingerprint.  Values that can't be safely snapshotted
+ * (Dates, arrays, arbitrary objects) make a user uncacheable.
+ */
+final class Fingerprint {
+    /**
+     * Marks "no custom claims", so that empty maps needn't be copied.
+     */
+    private static final Object NONE = new Object() {
+        @Override
+        public String toString() {
+            return "NONE";
+        }
+    };
+
+    /**
+     * Where the extra headers are in parts.
+     */
+    private static final int HEADERS = 4;
+
+    private final Object[] parts;
+    private final int hash;
+
+    private Fingerprint(Object[] parts) {
+        this.parts = parts;
+        this.hash = Arrays.hashCode(parts);
+    }
+
+    /**
+     * Snapshot a User and extra headers (null OK).
+     *
+     * @return the fingerprint, or null if something in the user can't be
+     *   snapshotted.
+     */
+    static Fingerprint of(User user, Map<String,Object> extraHeaders) {
+        if (user instanceof FrozenUser) {
+            Fingerprint frozen = ((FrozenUser)user).fingerprint();
+            if (frozen == null || extraHeaders == null || extraHeaders.isEmpty()) {
+                return frozen;
+            }
+            Object headers = claims(extraHeaders);
+            if (headers == null) {
+                return null;
+            }
+            Object[] parts = frozen.parts.clone();
+            parts[HEADERS] = headers;
+            return new Fingerprint(parts);
+        }
+        return compute(user, extraHeaders);
+    }
+
+    /**
+     * of(), always taking a new snapshot.
+     */
+    static Fingerprint compute(User user, Map<String,Object> extraHeaders) {
+        Set<Group> groups = user.getGroups();
+        Object[] parts = new Object[5 + groups.size() * 3];
+        int i = 0;
+        parts[i++] = user.getID();
+        parts[i++] = user.getDomain();
+        parts[i++] = user.getDisplayName();
+        if ((parts[i++] = claims(user.getCustomClaims())) == null) {
+            return null;
+        }
+        if ((parts[i++] = claims(extraHeaders)) == null) { // HEADERS
+            return null;
+        }
+
+        for (Group group : groups) {
+            if (i + 3 > parts.length) {
+                return null; // Set changed size underneath us
+            }
+            if (group instanceof FrozenGroup) { // snapshotted already
+                if ((parts[i++] = ((FrozenGroup)group).fingerprint()) == null) {
+                    return null;
+                }
+                parts[i++] = NONE;
+                parts[i++] = NONE;
+                continue;
+            }
+            parts[i++] = group.getID();
+            parts[i++] = group.getDisplayName();
+            if ((parts[i++] = claims(group.getCustomClaims())) == null) {
+                return null;
+            }
+        }
+        if (i != parts.length) {
+            return null;
+        }
+
+        return new Fingerprint(parts);
+    }
+
+    /**
+     * Snapshot a Group on its own.
+     *
+     * @return the fingerprint, or null if the group's claims can't be
+     *   snapshotted.
+     */
+    static Fingerprint of(Group group) {
+        if (group instanceof FrozenGroup) {
+            return ((FrozenGroup)group).fingerprint();
+        }
+        return compute(group);
+    }
+
+    /**
+     * of(Group), always taking a new snapshot.
+     */
+    static Fingerprint compute(Group group) {
+        Object custom = claims(group.getCustomClaims());
+        if (custom == null) {
+            return null;
+        }
+        return new Fingerprint(new Object[] {
+            group.getID(), group.getDisplayName(), custom
+        });
+    }
+
+    private static Object claims(Map<String,Object> claims) {
+        if (claims == null || claims.isEmpty()) {
+            return NONE;
+        }
+        return copy(claims);
+    }
+
+    /**
+     * Deep-copy a claim value, or null if it can't be snapshotted.
+     */
+    private static Object copy(Object value) {
+        if (value == null) {
+            return NONE;
+        } else if (value instanceof String || value instanceof Boolean
+            || value instanceof Integer || value instanceof Long
+            || value instanceof Short || value instanceof Byte
+            || value instanceof Double || value instanceof Float
+            || value instanceof BigInteger || value instanceof BigDecimal
+            || value instanceof RawJson)
+        {
+            return value;
+        } else if (value instanceof Map) {
+            Map<?,?> map = (Map<?,?>)value;
+            Map<Object,Object> copied = new HashMap<Object,Object>(map.size() * 2);
+            for (Map.Entry<?,?> entry : map.entrySet()) {
+                Object v = copy(entry.getValue());
+                if (v == null) {
+                    return null;
+                }
+                copied.put(entry.getKey(), v);
+            }
+            return copied;
+        } else if (value instanceof Collection) {
+            // Lists and Sets are both written as arrays in iteration order
+            Collection<?> list = (Collection<?>)value;
+            List<Object> copied = new ArrayList<Object>(list.size());
+            for (Object item : list) {
+                Object v = copy(item);
+                if (v == null) {
+                    return null;
+                }
+                copied.add(v);
+            }
+            return copied;
+        }
+        return null;
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hash;
+    }
+
+    @Override
+    public boolean equals(Object that) {
+        if (this == that) {
+            return true;
+        }
+        if (!(that instanceof Fingerprint)) {
+            return false;
+        }
+        Fingerprint other = (Fingerprint)that;
+        return this.hash == other.hash && Arrays.equals(this.parts, other.parts);
+    }
+}
@@ -0,0 +1,141 @@
+package com.goinstant.auth;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * An immutable Group whose JSON is worked out once, up-front.
+ *
+ * The group is validated when it is constructed (so a bad id or a reserved
+ * custom claim throws right away, not when a user is signed), and {@link
+ * Signer} copies its pre-serialized JSON straight into every token that
+ * includes it.  Use these for groups that many users share; see {@link
+ * GroupRegistry} to de-duplicate them.
+ * <br>
+ * Custom claims are copied, but claim values themselves aren't: changing a
+ * nested List or Map after construction isn't reflected in tokens.
+ * <br>
+ * Like PlainGroup, equality and ordering are on the group ID, so FrozenGroups
+ * and PlainGroups can be mixed in the same Set.
+ */
+public final class FrozenGroup implements Group, Comparable<Group> {
+    private final String id;
+    private final String displayName;
+    private final Map<String,Object> custom;
+    private final byte[] json;
+
+    /**
+     * Built on first use; UNCACHEABLE if the claims can't be snapshotted.
+     */
+    private volatile Object fingerprint;
+    private static final Object UNCACHEABLE = new Object();
+
+    /**
+     * Freeze a copy of another Group.
+     *
+     * @param group the group to copy.
+     *
+     * @throws IllegalArgumentException if the group has bad values or reserved
+     *   custom properties.
+     */
+    public FrozenGroup(Group group) {
+        this(group.getID(), group.getDisplayName(), group.getCustomClaims());
+    }
+
+    /**
+     * Create a frozen Group.
+     *
+     * @param id Permanent identifier for this Group.
+     * @param displayName The visible name for this Group (null OK).
+     */
+    public FrozenGroup(String id, String displayName) {
+        this(id, displayName, null);
+    }
+
+    /**
+     * Create a frozen Group with custom claims.
+     *
+     * @param id Permanent identifier for this Group.
+     * @param displayName The visible name for this Group (null OK).
+     * @param custom any custom claims (null OK).
+     *
+     * @throws IllegalArgumentException if the group has bad values or reserved
+     *   custom properties.
+     */
+    public FrozenGroup(String id, String displayName, Map<String,Object> custom) {
+        this.id = id;
+        this.displayName = displayName;
+        this.custom = (custom == null || custom.isEmpty())
+            ? PlainThing.NO_CUSTOM
+            : Collections.unmodifiableMap(CompactClaims.copyOf(custom));
+
+        JsonWriter out = new JsonWriter(64);
+        ClaimsWriter.writeGroup(out, this); // validates
+        this.json = Arrays.copyOf(out.bytes(), out.length());
+    }
+
+    /**
+     * Unique ID for this group.
+     */
+    public String getID() {
+        return this.id;
+    }
+
+    /**
+     * Display name for this group (may be null).
+     */
+    public String getDisplayName() {
+        return this.displayName;
+    }
+
+    /**
+     * Custom claims for this group (unmodifiable).
+     */
+    public Map<String,Object> getCustomClaims() {
+        return this.custom;
+    }
+
+    /**
+     * The group as a JSON object, as it appears in tokens.
+     * Callers must not modify the array.
+     */
+    byte[] json() {
+        return this.json;
+    }
+
+    /**
+     * This group's fingerprint, or null if it can't be cached.
+     */
+    Fingerprint fingerprint() {
+        Object fingerprint = this.fingerprint;
+        if (fingerprint == null) {
+            fingerprint = Fingerprint.compute(this);
+            if (fingerprint == null) {
+                fingerprint = UNCACHEABLE;
+            }
+            this.fingerprint = fingerprint;
+        }
+        return fingerprint == UNCACHEABLE ? null : (Fingerprint)fingerprint;
+    }
+
+    /**
+     * Since Groups go into a Set, provide equality on the group ID.
+     */
+    @Override
+    public boolean equals(Object that) {
+        return that instanceof Group && this.compareTo((Group)that) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return this.id.hashCode();
+    }
+
+    /**
+     * Compare group IDs.
+     */
+    public int compareTo(Group that) {
+        return this.id.compareTo(that.getID());
+    }
+}
@@ -0,0 +1,202 @@
+package com.goinstant.auth;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable User, validated once and serialized once.
+ *
+ * Construction checks the user the way {@link Signer#sign(User)} would (so a
+ * bad id or a reserved custom claim throws right away) and writes its claims
+ * JSON.  Signer recognizes FrozenUsers and copies that JSON into the token
+ * instead of validating and serializing the user again; with a token
+ * lifetime, the JSON is split around iat and exp the first time it's needed.
+ * {@link CachingSigner} re-uses the user's fingerprint rather than taking a
+ * new one each time.
+ * <br>
+ * Groups are frozen too (existing {@link FrozenGroup}s are kept as they
+ * are).  Custom claims are copied, but claim values themselves aren't:
+ * changing a nested List or Map after construction isn't reflected in
+ * tokens.
+ * <pre>
+ *   FrozenUser user = plainUser.freeze();
+ * </pre>
+ */
+public final class FrozenUser implements User {
+    private final String id;
+    private final String domain;
+    private final String displayName;
+    private final Set<Group> groups;
+    private final Map<String,Object> custom;
+
+    /**
+     * Claims JSON without iat or exp.
+     */
+    private final byte[] json;
+
+    /**
+     * Claims JSON with slots for iat and exp; built on first use.
+     */
+    private volatile ClaimsPieces timed;
+
+    /**
+     * Fingerprint without extra headers; built on first use.  UNCACHEABLE
+     * if the claims can't be snapshotted.
+     */
+    private volatile Object fingerprint;
+    private static final Object UNCACHEABLE = new Object();
+
+    /**
+     * Freeze a copy of another User.
+     *
+     * @param user the user to copy.
+     *
+     * @throws IllegalArgumentException if the user has bad values or reserved
+     *   custom properties.
+     */
+    public FrozenUser(User user) {
+        this(user.getID(), user.getDomain(), user.getDisplayName(), user.getGroups(),
+            user.getCustomClaims());
+    }
+
+    /**
+     * Create a frozen User.
+     *
+     * @param id Permanent identifier for this user.
+     * @param domain The domain name in which the user and group IDs are defined.
+     * @param displayName The visible name for this user (null OK).
+     * @param groups groups this user belongs to (null OK).
+     * @param custom any custom claims (null OK).
+     *
+     * @throws IllegalArgumentException if the user has bad values or reserved
+     *   custom properties.
+     */
+    public FrozenUser(String id, String domain, String displayName,
+        Set<? extends Group> groups, Map<String,Object> custom)
+    {
+        this.id = id;
+        this.domain = domain;
+        this.displayName = displayName;
+        this.custom = (custom == null || custom.isEmpty())
+            ? PlainThing.NO_CUSTOM
+            : Collections.unmodifiableMap(CompactClaims.copyOf(custom));
+
+        if (groups == null || groups.isEmpty()) {
+            this.groups = PlainUser.NO_GROUPS;
+        } else {
+            Group[] frozen = new Group[groups.size()];
+            int n = 0;
+            for (Group group : groups) {
+                if (n == frozen.length) {
+                    frozen = Arrays.copyOf(frozen, n * 2); // Set grew underneath us
+                }
+                frozen[n++] = group instanceof FrozenGroup
+                    ? (FrozenGroup)group
+                    : new FrozenGroup(group);
+            }
+            this.groups = new GroupSet(Arrays.copyOf(frozen, n));
+        }
+
+        JsonWriter out = new JsonWriter(256);
+        ClaimsWriter.writeUserClaims(out, this, ClaimsWriter.NO_TIME, ClaimsWriter.NO_TIME);
+        this.json = Arrays.copyOf(out.bytes(), out.length());
+    }
+
+    /**
+     * Get the permanent identifier for this user.
+     */
+    public String getID() {
+        return this.id;
+    }
+
+    /**
+     * Get the domain of this user and its groups.
+     */
+    public String getDomain() {
+        return this.domain;
+    }
+
+    /**
+     * Get the visible name for this user (may be null, meaning the id).
+     */
+    public String getDisplayName() {
+        return this.displayName;
+    }
+
+    /**
+     * Get the groups this user belongs to (unmodifiable FrozenGroups).
+     */
+    public Set<Group> getGroups() {
+        return this.groups;
+    }
+
+    /**
+     * Get custom claims made about this user (unmodifiable).
+     */
+    public Map<String,Object> getCustomClaims() {
+        return this.custom;
+    }
+
+    /**
+     * The frozen groups, in the original Set's order.  Not re-hashed, so
+     * a Set whose groups compare equal but hash differently (PlainGroup)
+     * keeps all of them, just like in the original's token.
+     */
+    static final class GroupSet extends AbstractSet<Group> {
+        private final Group[] groups;
+
+        GroupSet(Group[] groups) {
+            this.groups = groups;
+        }
+
+        @Override
+        public Iterator<Group> iterator() {
+            return Collections.unmodifiableList(Arrays.asList(this.groups)).iterator();
+        }
+
+        @Override
+        public int size() {
+            return this.groups.length;
+        }
+    }
+
+    /**
+     * Write the claims JSON, with iat and exp unless both are NO_TIME.
+     */
+    void writeClaims(JsonWriter out, long iat, long exp) {
+        if (iat == ClaimsWriter.NO_TIME && exp == ClaimsWriter.NO_TIME) {
+            out.writeBytes(this.json);
+            return;
+        }
+        ClaimsPieces timed = this.timed;
+        if (timed == null) {
+            JsonWriter json = new JsonWriter(this.json.length + 64);
+            int[] timeSlots = new int[4];
+            ClaimsWriter.writeUserClaims(json, this,
+                ClaimsPieces.PLACEHOLDER_TIME, ClaimsPieces.PLACEHOLDER_TIME, timeSlots);
+            timed = new ClaimsPieces.Builder(json).times(timeSlots).build();
+            this.timed = timed;
+        }
+        timed.write(out, null, null, null, iat, exp);
+    }
+
+    /**
+     * This user's fingerprint without extra headers, or null if it can't
+     * be cached.
+     */
+    Fingerprint fingerprint() {
+        Object fingerprint = this.fingerprint;
+        if (fingerprint == null) {
+            fingerprint = Fingerprint.compute(this, null);
+            if (fingerprint == null) {
+                fingerprint = UNCACHEABLE;
+            }
+            this.fingerprint = fingerprint;
+        }
+        return fingerprint == UNCACHEABLE ? null : (Fingerprint)fingerprint;
+    }
+}
@@ -0,0 +1,94 @@
+package com.goinstant.auth;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * De-duplicates Groups shared by many users.
+ *
+ * {@link #intern(Group)} returns a single {@link FrozenGroup} for every group
+ * with the same id, display name and custom claims, so each distinct group is
+ * validated and serialized once no matter how many users belong to it.
+ * <pre>
+ *   GroupRegistry registry = new GroupRegistry();
+ *   Set&lt;Group&gt; groups = registry.intern(loadGroupsFor(userId));
+ *   PlainUser user = new PlainUser(userId, domain, displayName, groups);
+ * </pre>
+ * A registry is thread-safe.  It holds on to every group it has seen, so use
+ * it for your (bounded) set of real groups, or {@link #clear()} it
+ * periodically.
+ */
+public class GroupRegistry {
+    private final ConcurrentMap<Fingerprint,FrozenGroup> groups =
+        new ConcurrentHashMap<Fingerprint,FrozenGroup>();
+
+    /**
+     * Get the shared FrozenGroup for this group's content.
+     *
+     * @param group any Group; FrozenGroups are registered as-is.
+     *
+     * @throws IllegalArgumentException if the group has bad values or reserved
+     *   custom properties.
+     */
+    public FrozenGroup intern(Group group) {
+        Fingerprint key = Fingerprint.of(group);
+        if (key == null) { // claims we can't compare; don't share it
+            return group instanceof FrozenGroup
+                ? (FrozenGroup)group
+                : new FrozenGroup(group);
+        }
+
+        FrozenGroup frozen = this.groups.get(key);
+        if (frozen == null) {
+            frozen = group instanceof FrozenGroup
+                ? (FrozenGroup)group
+                : new FrozenGroup(group);
+            FrozenGroup raced = this.groups.putIfAbsent(key, frozen);
+            if (raced != null) {
+                frozen = raced;
+            }
+        }
+        return frozen;
+    }
+
+    /**
+     * Intern every group in a Set.
+     *
+     * @return an unmodifiable Set of FrozenGroups, one for each group in the
+     *   original, in its iteration order.  Like a frozen user's groups, it
+     *   isn't re-hashed: groups with the same id but a different display
+     *   name or claims (which a Set of PlainGroups can hold) are all kept,
+     *   so the token carries every one of them, just as it would have.
+     */
+    public Set<Group> intern(Set<? extends Group> groups) {
+        if (groups == null || groups.isEmpty()) {
+            return PlainUser.NO_GROUPS;
+        }
+        Group[] interned = new Group[groups.size()];
+        int n = 0;
+        for (Group group : groups) {
+            if (n == interned.length) {
+                interned = Arrays.copyOf(interned, n * 2); // Set grew underneath us
+            }
+            interned[n++] = intern(group);
+        }
+        return new FrozenUser.GroupSet(Arrays.copyOf(interned, n));
+    }
+
+    /**
+     * Number of distinct groups registered.
+     */
+    public int size() {
+        return this.groups.size();
+    }
+
+    /**
+     * Forget every registered group. FrozenGroups already handed out keep
+     * working.
+     */
+    public void clear() {
+        this.groups.clear();
+    }
+}
@@ -0,0 +1,347 @@
+package com.goinstant.auth;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import net.minidev.json.JSONAware;
+import net.minidev.json.JSONStreamAware;
+import net.minidev.json.JSONValue;
+
+/**
+ * Writes JSON as UTF-8 straight into a growable byte array.
+ *
+ * The output is identical to what json-smart (used by Nimbus JOSE+JWT)
+ * produces with its default <code>NO_COMPRESS</code> style: keys and strings
+ * are always quoted, '/' is escaped, and control characters plus the
+ * U+007F-U+009F and U+2000-U+20FF ranges are written as <code>\\uXXXX</code>.
+ * Types this class doesn't know about are handed to json-smart so that they
+ * still serialize exactly the same way.
+ * <br>
+ * Instances are not thread-safe; see {@link TokenBuffer}.
+ */
+final class JsonWriter {
+    private static final byte[] HEX = {
+        '0','1','2','3','4','5','6','7','8','9','A','B','C','D','E','F'
+    };
+    private static final byte[] NULL = { 'n','u','l','l' };
+    private static final byte[] TRUE = { 't','r','u','e' };
+    private static final byte[] FALSE = { 'f','a','l','s','e' };
+
+    private byte[] buf;
+    private int len;
+
+    /**
+     * Most bytes the JSON may take, and the token size that came from, for
+     * checkLimit().
+     */
+    private int limit = Integer.MAX_VALUE;
+    private int tokenLimit;
+
+    /**
+     * Re-used by entries().
+     */
+    private Map.Entry<?,?>[] entries = new Map.Entry<?,?>[8];
+
+    JsonWriter(int capacity) {
+        this.buf = new byte[capacity];
+    }
+
+    void reset() {
+        this.len = 0;
+        this.limit = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Cap the JSON at maxBytes, for a token of at most maxTokenSize; until
+     * the next reset().
+     */
+    void limit(int maxBytes, int maxTokenSize) {
+        this.limit = maxBytes;
+        this.tokenLimit = maxTokenSize;
+    }
+
+    /**
+     * @throws TokenTooLargeException if the JSON has outgrown its limit.
+     */
+    void checkLimit() {
+        if (this.len > this.limit) {
+            throw new TokenTooLargeException(this.tokenLimit);
+        }
+    }
+
+    /**
+     * @throws TokenTooLargeException if moreBytes won't fit under the limit.
+     */
+    void checkLimit(long moreBytes) {
+        if (this.len + moreBytes > this.limit) {
+            throw new TokenTooLargeException(this.tokenLimit);
+        }
+    }
+
+    /**
+     * A scratch array of at least n entries; only valid until the next call.
+     */
+    @SuppressWarnings("unchecked")
+    <K,V> Map.Entry<K,V>[] entries(int n) {
+        if (this.entries.length < n) {
+            this.entries = new Map.Entry<?,?>[Math.max(n, this.entries.length * 2)];
+        }
+        return (Map.Entry<K,V>[])this.entries;
+    }
+
+    byte[] bytes() {
+        return this.buf;
+    }
+
+    int length() {
+        return this.len;
+    }
+
+    int capacity() {
+        return this.buf.length;
+    }
+
+    private void ensure(int extra) {
+        int needed = this.len + extra;
+        if (needed > this.buf.length) {
+            byte[] grown = new byte[Math.max(needed, this.buf.length * 2)];
+            System.arraycopy(this.buf, 0, grown, 0, this.len);
+            this.buf = grown;
+        }
+    }
+
+    void writeByte(int b) {
+        ensure(1);
+        this.buf[this.len++] = (byte)b;
+    }
+
+    void writeBytes(byte[] bytes) {
+        writeBytes(bytes, 0, bytes.length);
+    }
+
+    void writeBytes(byte[] bytes, int off, int count) {
+        ensure(count);
+        System.arraycopy(bytes, off, this.buf, this.len, count);
+        this.len += count;
+    }
+
+    /**
+     * Write a quoted, escaped JSON string.
+     */
+    void writeString(String s) {
+        int n = s.length();
+        ensure(n + 2);
+        this.buf[this.len++] = '"';
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':  writeEscape('"'); break;
+                case '\\': writeEscape('\\'); break;
+                case '\b': writeEscape('b'); break;
+                case '\f': writeEscape('f'); break;
+                case '\n': writeEscape('n'); break;
+                case '\r': writeEscape('r'); break;
+                case '\t': writeEscape('t'); break;
+                case '/':  writeEscape('/'); break;
+                default:
+                    if (c <= 0x1F || (c >= 0x7F && c <= 0x9F)
+                        || (c >= 0x2000 && c <= 0x20FF)) {
+                        writeUnicodeEscape(c);
+                    } else if (c < 0x80) {
+                        ensure(1);
+                        this.buf[this.len++] = (byte)c;
+                    } else {
+                        i = writeUtf8(s, i, n);
+                    }
+                    break;
+            }
+        }
+        writeByte('"');
+    }
+
+    /**
+     * Write a String as UTF-8 with no quoting or escaping.
+     */
+    void writeRaw(String s) {
+        int n = s.length();
+        ensure(n);
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                ensure(1);
+                this.buf[this.len++] = (byte)c;
+            } else {
+                i = writeUtf8(s, i, n);
+            }
+        }
+    }
+
+    private void writeEscape(char c) {
+        ensure(2);
+        this.buf[this.len++] = '\\';
+        this.buf[this.len++] = (byte)c;
+    }
+
+    private void writeUnicodeEscape(char c) {
+        ensure(6);
+        this.buf[this.len++] = '\\';
+        this.buf[this.len++] = 'u';
+        this.buf[this.len++] = HEX[(c >> 12) & 0xF];
+        this.buf[this.len++] = HEX[(c >> 8) & 0xF];
+        this.buf[this.len++] = HEX[(c >> 4) & 0xF];
+        this.buf[this.len++] = HEX[c & 0xF];
+    }
+
+    /**
+     * Encode the non-ASCII char at index i the way String.getBytes("UTF-8")
+     * does (unpaired surrogates become '?').
+     *
+     * @return the index of the last char consumed
+     */
+    private int writeUtf8(String s, int i, int n) {
+        char c = s.charAt(i);
+        ensure(4);
+        if (c < 0x800) {
+            this.buf[this.len++] = (byte)(0xC0 | (c >> 6));
+            this.buf[this.len++] = (byte)(0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c)) {
+            if (i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(i + 1));
+                this.buf[this.len++] = (byte)(0xF0 | (cp >> 18));
+                this.buf[this.len++] = (byte)(0x80 | ((cp >> 12) & 0x3F));
+                this.buf[this.len++] = (byte)(0x80 | ((cp >> 6) & 0x3F));
+                this.buf[this.len++] = (byte)(0x80 | (cp & 0x3F));
+                return i + 1;
+            }
+            this.buf[this.len++] = '?';
+        } else if (Character.isLowSurrogate(c)) {
+            this.buf[this.len++] = '?';
+        } else {
+            this.buf[this.len++] = (byte)(0xE0 | (c >> 12));
+            this.buf[this.len++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+            this.buf[this.len++] = (byte)(0x80 | (c & 0x3F));
+        }
+        return i;
+    }
+
+    /**
+     * Write a long in decimal, without going through Long.toString.
+     */
+    void writeLong(long v) {
+        if (v == Long.MIN_VALUE) {
+            writeRaw(Long.toString(v));
+            return;
+        }
+        ensure(20);
+        if (v < 0) {
+            this.buf[this.len++] = '-';
+            v = -v;
+        }
+        int start = this.len;
+        do {
+            this.buf[this.len++] = (byte)('0' + (v % 10));
+            v /= 10;
+        } while (v != 0);
+        // digits went in backwards:
+        for (int i = start, j = this.len - 1; i < j; i++, j--) {
+            byte t = this.buf[i];
+            this.buf[i] = this.buf[j];
+            this.buf[j] = t;
+        }
+    }
+
+    /**
+     * Write any claim value.
+     */
+    void writeValue(Object value) {
+        if (value == null) {
+            writeBytes(NULL);
+        } else if (value instanceof String) {
+            writeString((String)value);
+        } else if (value instanceof Number) {
+            writeNumber((Number)value);
+        } else if (value instanceof Boolean) {
+            writeBytes(((Boolean)value).booleanValue() ? TRUE : FALSE);
+        } else if (value instanceof RawJson) {
+            writeBytes(((RawJson)value).utf8());
+        } else if (value instanceof JSONStreamAware || value instanceof JSONAware) {
+            writeFallback(value);
+        } else if (value instanceof Map) {
+            writeMap((Map<?,?>)value);
+        } else if (value instanceof Iterable) {
+            writeIterable((Iterable<?>)value);
+        } else {
+            writeFallback(value);
+        }
+    }
+
+    private void writeNumber(Number n) {
+        if (n instanceof Integer || n instanceof Long
+            || n instanceof Short || n instanceof Byte) {
+            writeLong(n.longValue());
+        } else if (n instanceof Double && ((Double)n).isInfinite()) {
+            writeBytes(NULL);
+        } else if (n instanceof Float && ((Float)n).isInfinite()) {
+            writeBytes(NULL);
+        } else {
+            writeRaw(n.toString());
+        }
+    }
+
+    /**
+     * Maps are written in their own iteration order.
+     */
+    void writeMap(Map<?,?> map) {
+        if (map instanceof CompactClaims) {
+            writeCompactClaims((CompactClaims)map);
+            return;
+        }
+        writeByte('{');
+        boolean first = true;
+        for (Map.Entry<?,?> entry : map.entrySet()) {
+            if (!first) {
+                writeByte(',');
+            }
+            first = false;
+            writeString(entry.getKey().toString());
+            writeByte(':');
+            writeValue(entry.getValue());
+        }
+        writeByte('}');
+    }
+
+    private void writeCompactClaims(CompactClaims claims) {
+        writeByte('{');
+        for (int i = 0; i < claims.size(); i++) {
+            if (i > 0) {
+                writeByte(',');
+            }
+            writeString(claims.keyAt(i));
+            writeByte(':');
+            writeValue(claims.valueAt(i));
+        }
+        writeByte('}');
+    }
+
+    void writeIterable(Iterable<?> list) {
+        writeByte('[');
+        Iterator<?> it = list.iterator();
+        boolean first = true;
+        while (it.hasNext()) {
+            if (!first) {
+                writeByte(',');
+            }
+            first = false;
+            writeValue(it.next());
+        }
+        writeByte(']');
+    }
+
+    /**
+     * Dates, enums, arrays and json-smart's own types are rare in claims;
+     * let json-smart serialize them.
+     */
+    private void writeFallback(Object value) {
+        writeRaw(JSONValue.toJSONString(value));
+    }
+}
@@ -0,0 +1,196 @@
+package com.goinstant.auth;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A token that isn't signed until it's used, from
+ * {@link Signer#signLazily(User)}.
+ *
+ * Pages that only sometimes embed a token (say, only for signed-in users
+ * with collaboration turned on) can hand a LazyToken to their templates
+ * instead of signing up front; tokens that are never rendered are never
+ * signed:
+ * <pre>
+ *   model.put("token", signer.signLazily(user));
+ *   ...
+ *   ${token}   // signed here, if at all
+ * </pre>
+ * The user is snapshotted when the LazyToken is made: its id, domain,
+ * display name, groups and custom claims are copied (claim values
+ * themselves aren't, as with {@link FrozenUser}), so later changes to the
+ * user don't affect the token.  Validation, serialization and the HMAC all
+ * wait until the first {@link #toString()}, {@link #charAt(int)},
+ * {@link #length()} or {@link #appendTo(Appendable)}; the token is signed
+ * once and remembered.  With a token lifetime, iat is when it's signed.
+ * <br>
+ * LazyTokens are safe to share between threads; if several use one at
+ * once, only one of them signs it.
+ * <br>
+ * A user with bad values makes every use of the token throw the
+ * IllegalArgumentException that {@link Signer#sign(User)} would have.  A
+ * crypto problem (where sign() returns null) makes them throw an
+ * IllegalStateException; use {@link #get()} to get null instead.
+ */
+public final class LazyToken implements CharSequence {
+    private final Signer signer;
+    private final User user;
+
+    /**
+     * The token, once signed.
+     */
+    private volatile String token;
+
+    LazyToken(Signer signer, User user) {
+        this.signer = signer;
+        this.user = snapshot(user);
+    }
+
+    /**
+     * Sign the token if it hasn't been yet.
+     *
+     * @return the token, or null if there was some crypto problem.
+     *
+     * @throws IllegalArgumentException if the user contains bad values or
+     *   reserved custom properties.
+     */
+    public String get() {
+        String token = this.token;
+        if (token == null) {
+            synchronized (this) {
+                token = this.token;
+                if (token == null) {
+                    token = this.signer.sign(this.user);
+                    this.token = token;
+                }
+            }
+        }
+        return token;
+    }
+
+    /**
+     * Whether the token has been signed yet.
+     */
+    public boolean isSigned() {
+        return this.token != null;
+    }
+
+    /**
+     * Write the token, signing it first if need be.
+     *
+     * @throws IllegalArgumentException if the user contains bad values.
+     * @throws IllegalStateException if there was some crypto problem.
+     */
+    public void appendTo(Appendable out) throws IOException {
+        out.append(token());
+    }
+
+    public int length() {
+        return token().length();
+    }
+
+    public char charAt(int index) {
+        return token().charAt(index);
+    }
+
+    public CharSequence subSequence(int start, int end) {
+        return token().subSequence(start, end);
+    }
+
+    /**
+     * The token, signing it first if need be.
+     *
+     * @throws IllegalArgumentException if the user contains bad values.
+     * @throws IllegalStateException if there was some crypto problem.
+     */
+    @Override
+    public String toString() {
+        return token();
+    }
+
+    private String token() {
+        String token = get();
+        if (token == null) {
+            throw new IllegalStateException("The token could not be signed");
+        }
+        return token;
+    }
+
+    /**
+     * Copy the parts of a User that go into its token, without validating
+     * them.  FrozenUsers and FrozenGroups are immutable already.
+     */
+    static User snapshot(User user) {
+        if (user instanceof FrozenUser) {
+            return user;
+        }
+        Set<Group> groups = user.getGroups();
+        Set<Group> copied = PlainUser.NO_GROUPS;
+        if (groups != null && !groups.isEmpty()) {
+            Group[] array = new Group[groups.size()];
+            int n = 0;
+            for (Group group : groups) {
+                if (n == array.length) {
+                    array = Arrays.copyOf(array, n * 2); // Set grew underneath us
+                }
+                array[n++] = group instanceof FrozenGroup
+                    ? group
+                    : new Snapshot(group.getID(), null, group.getDisplayName(), null,
+                        claims(group.getCustomClaims()));
+            }
+            copied = new FrozenUser.GroupSet(Arrays.copyOf(array, n));
+        }
+        return new Snapshot(user.getID(), user.getDomain(), user.getDisplayName(), copied,
+            claims(user.getCustomClaims()));
+    }
+
+    private static Map<String,Object> claims(Map<String,Object> claims) {
+        return (claims == null || claims.isEmpty())
+            ? PlainThing.NO_CUSTOM
+            : Collections.unmodifiableMap(CompactClaims.copyOf(claims));
+    }
+
+    /**
+     * A copied User or Group, unchecked.
+     */
+    private static final class Snapshot implements User, Group {
+        private final String id;
+        private final String domain;
+        private final String displayName;
+        private final Set<Group> groups;
+        private final Map<String,Object> custom;
+
+        Snapshot(String id, String domain, String displayName, Set<Group> groups,
+            Map<String,Object> custom)
+        {
+            this.id = id;
+            this.domain = domain;
+            this.displayName = displayName;
+            this.groups = groups;
+            this.custom = custom;
+        }
+
+        public String getID() {
+            return this.id;
+        }
+
+        public String getDomain() {
+            return this.domain;
+        }
+
+        public String getDisplayName() {
+            return this.displayName;
+        }
+
+        public Set<Group> getGroups() {
+            return this.groups;
+        }
+
+        public Map<String,Object> getCustomClaims() {
+            return this.custom;
+        }
+    }
+}
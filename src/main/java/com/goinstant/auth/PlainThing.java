@@ -55,16 +55,36 @@ abstract class PlainThing {
 
     /**
      * Assign custom claims about this user or group.
+     *
+     * The map is kept, not copied: later changes to it are signed, and
+     * getCustomClaims() returns it.  To keep claims for many users in less
+     * memory, pass a {@link CompactClaims} (or build the claims with
+     * setCustomClaim()).
      * @param custom any custom claims.  Pass null to remove all claims.
      */
     public void setCustomClaims(Map<String,Object> custom) {
-        if (custom.isEmpty()) {
+        if (custom == null || custom.isEmpty()) {
             this.custom = null;
         } else {
             this.custom = custom;
         }
     }
 
+    /**
+     * Add or replace one custom claim about this user or group.
+     *
+     * If no claims map is set yet, one is started as a {@link CompactClaims};
+     * otherwise the claim is put into the map that's there.
+     * @param name the claim name.
+     * @param value the claim value.
+     */
+    public void setCustomClaim(String name, Object value) {
+        if (this.custom == null) {
+            this.custom = new CompactClaims(2);
+        }
+        this.custom.put(name, value);
+    }
+
     /**
      * Get custom claims made about this user or group.
      * Returns an empty set by default.
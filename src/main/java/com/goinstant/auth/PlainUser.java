@@ -79,4 +79,14 @@ public class PlainUser extends PlainThing implements User {
     public Set<Group> getGroups() {
         return this.groups != null ? this.groups : NO_GROUPS;
     }
+
+    /**
+     * Get an immutable, pre-validated copy of this user, which signs faster.
+     *
+     * @throws IllegalArgumentException if the user has bad values or reserved
+     *   custom properties.
+     */
+    public FrozenUser freeze() {
+        return new FrozenUser(this);
+    }
 }
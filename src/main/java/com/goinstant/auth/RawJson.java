@@ -0,0 +1,311 @@
+package com.goinstant.auth;
+
+import java.nio.charset.Charset;
+
+import net.minidev.json.JSONAware;
+
+/**
+ * A custom claim value that's already JSON.
+ *
+ * When a claim (a profile blob, a permission list) is already held as a JSON
+ * string, wrapping it in a RawJson lets the Signer copy it into the token
+ * as-is, instead of parsing it into Maps and Lists just to have them
+ * serialized again:
+ * <pre>
+ *   user.setCustomClaim("profile", new RawJson(cachedProfileJson));
+ * </pre>
+ * RawJson works anywhere a claim value can go: in User and Group custom
+ * claims, and inside Lists and Maps.  Its UTF-8 bytes are encoded once, when
+ * it's created, so re-using one RawJson for many tokens is cheapest.
+ * <br>
+ * The JSON is checked to be exactly one JSON value (RFC 7159) when the
+ * RawJson is created, unless you ask for it not to be.  Unchecked JSON goes
+ * into tokens verbatim: something like <code>1,"sub":"admin"</code> would
+ * add claims of its own, so only skip the check for JSON you produced.
+ */
+public final class RawJson implements JSONAware {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Deepest nesting of arrays and objects the check accepts.
+     */
+    private static final int MAX_DEPTH = 512;
+
+    private final String json;
+    private final byte[] utf8;
+
+    /**
+     * Wrap a JSON value, checking it first.
+     *
+     * @param json one JSON value: an object, array, string, number, true,
+     *   false or null.  Surrounding whitespace is allowed.
+     *
+     * @throws IllegalArgumentException if the JSON isn't valid.
+     */
+    public RawJson(String json) {
+        this(json, true);
+    }
+
+    /**
+     * Wrap a JSON value, optionally without checking it.
+     *
+     * @param json one JSON value.
+     * @param validate whether to check the JSON; pass false only for JSON
+     *   that you've produced or already checked.
+     *
+     * @throws IllegalArgumentException if the JSON is null, or validate is
+     *   true and the JSON isn't valid.
+     */
+    public RawJson(String json, boolean validate) {
+        if (json == null) {
+            throw new IllegalArgumentException("JSON must not be null");
+        }
+        if (validate) {
+            validate(json);
+        }
+        this.json = json;
+        this.utf8 = json.getBytes(UTF_8);
+    }
+
+    /**
+     * The JSON, exactly as given.
+     */
+    public String toJSONString() {
+        return this.json;
+    }
+
+    /**
+     * The JSON as UTF-8; JsonWriter copies this into the token.  Don't
+     * modify it.
+     */
+    byte[] utf8() {
+        return this.utf8;
+    }
+
+    @Override
+    public String toString() {
+        return this.json;
+    }
+
+    /**
+     * RawJsons are equal when their text is, so that CachingSigner can
+     * tell an unchanged claim from a changed one.
+     */
+    @Override
+    public boolean equals(Object that) {
+        return that instanceof RawJson && this.json.equals(((RawJson)that).json);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.json.hashCode();
+    }
+
+    /**
+     * Check that a String holds exactly one JSON value.
+     *
+     * @throws IllegalArgumentException if it doesn't.
+     */
+    static void validate(String json) {
+        Checker checker = new Checker(json);
+        checker.skipWhitespace();
+        checker.value(0);
+        checker.skipWhitespace();
+        if (checker.pos != json.length()) {
+            throw checker.error("unexpected data after the JSON value");
+        }
+    }
+
+    /**
+     * A strict RFC 7159 recognizer; it builds nothing.
+     */
+    private static final class Checker {
+        private final String s;
+        private final int n;
+        private int pos;
+
+        Checker(String s) {
+            this.s = s;
+            this.n = s.length();
+        }
+
+        IllegalArgumentException error(String what) {
+            return new IllegalArgumentException("Invalid JSON: " + what + " at position " + this.pos);
+        }
+
+        private int peek() {
+            return this.pos < this.n ? this.s.charAt(this.pos) : -1;
+        }
+
+        void skipWhitespace() {
+            while (this.pos < this.n) {
+                char c = this.s.charAt(this.pos);
+                if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                    return;
+                }
+                this.pos++;
+            }
+        }
+
+        private void expect(char c) {
+            if (peek() != c) {
+                throw error("expected '" + c + "'");
+            }
+            this.pos++;
+        }
+
+        void value(int depth) {
+            int c = peek();
+            switch (c) {
+                case '{': object(depth + 1); break;
+                case '[': array(depth + 1); break;
+                case '"': string(); break;
+                case 't': literal("true"); break;
+                case 'f': literal("false"); break;
+                case 'n': literal("null"); break;
+                default:
+                    if (c == '-' || (c >= '0' && c <= '9')) {
+                        number();
+                    } else {
+                        throw error(c < 0 ? "missing value" : "unexpected character");
+                    }
+                    break;
+            }
+        }
+
+        private void object(int depth) {
+            if (depth > MAX_DEPTH) {
+                throw error("nested too deeply");
+            }
+            this.pos++; // '{'
+            skipWhitespace();
+            if (peek() == '}') {
+                this.pos++;
+                return;
+            }
+            while (true) {
+                skipWhitespace();
+                if (peek() != '"') {
+                    throw error("expected a key");
+                }
+                string();
+                skipWhitespace();
+                expect(':');
+                skipWhitespace();
+                value(depth);
+                skipWhitespace();
+                if (peek() == ',') {
+                    this.pos++;
+                } else {
+                    expect('}');
+                    return;
+                }
+            }
+        }
+
+        private void array(int depth) {
+            if (depth > MAX_DEPTH) {
+                throw error("nested too deeply");
+            }
+            this.pos++; // '['
+            skipWhitespace();
+            if (peek() == ']') {
+                this.pos++;
+                return;
+            }
+            while (true) {
+                skipWhitespace();
+                value(depth);
+                skipWhitespace();
+                if (peek() == ',') {
+                    this.pos++;
+                } else {
+                    expect(']');
+                    return;
+                }
+            }
+        }
+
+        private void string() {
+            this.pos++; // opening quote
+            while (this.pos < this.n) {
+                char c = this.s.charAt(this.pos++);
+                if (c == '"') {
+                    return;
+                } else if (c < 0x20) {
+                    this.pos--;
+                    throw error("unescaped control character");
+                } else if (c == '\\') {
+                    int e = peek();
+                    this.pos++;
+                    switch (e) {
+                        case '"': case '\\': case '/':
+                        case 'b': case 'f': case 'n': case 'r': case 't':
+                            break;
+                        case 'u':
+                            for (int i = 0; i < 4; i++) {
+                                if (!isHexDigit(peek())) {
+                                    throw error("bad \\u escape");
+                                }
+                                this.pos++;
+                            }
+                            break;
+                        default:
+                            this.pos--;
+                            throw error("bad escape");
+                    }
+                }
+            }
+            throw error("unterminated string");
+        }
+
+        private void number() {
+            if (peek() == '-') {
+                this.pos++;
+            }
+            if (peek() == '0') {
+                this.pos++;
+            } else if (!digits()) {
+                throw error("bad number");
+            }
+            if (peek() == '.') {
+                this.pos++;
+                if (!digits()) {
+                    throw error("bad number");
+                }
+            }
+            if (peek() == 'e' || peek() == 'E') {
+                this.pos++;
+                if (peek() == '+' || peek() == '-') {
+                    this.pos++;
+                }
+                if (!digits()) {
+                    throw error("bad number");
+                }
+            }
+        }
+
+        /**
+         * ASCII hex only; Character.digit() takes fullwidth and other
+         * Unicode digits too, which JSON doesn't.
+         */
+        private static boolean isHexDigit(int c) {
+            return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+        }
+
+        private boolean digits() {
+            int start = this.pos;
+            while (peek() >= '0' && peek() <= '9') {
+                this.pos++;
+            }
+            return this.pos > start;
+        }
+
+        private void literal(String word) {
+            if (!this.s.startsWith(word, this.pos)) {
+                throw error("unexpected character");
+            }
+            this.pos += word.length();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.goinstant.auth;
+
+/**
+ * Receives the result of {@link Signer#signAsync(User, java.util.Map,
+ * SignCallback)}.
+ *
+ * Called on the thread that did the signing, so implementations should be
+ * quick (hand the token off, complete a promise, write a response...).
+ */
+public interface SignCallback {
+    /**
+     * The token was signed.
+     *
+     * @param token the signed token.  Null if there was a crypto problem,
+     *   just like {@link Signer#sign(User)}.
+     */
+    public void onSuccess(String token);
+
+    /**
+     * The token couldn't be signed.
+     *
+     * @param error usually the IllegalArgumentException that {@link
+     *   Signer#sign(User)} would have thrown.
+     */
+    public void onFailure(Throwable error);
+}
@@ -0,0 +1,57 @@
+package com.goinstant.auth;
+
+/**
+ * Hears about every token a {@link Signer} signs, for tracing and profiling
+ * (the goinstant-auth-jfr module uses it to emit JDK Flight Recorder
+ * events).  Attach one with {@link Signer#setSignListener(SignListener)}.
+ *
+ * Both methods are called on the signing thread, around every sign (by
+ * sign(), signWith(), signTo(), signAll(), signAsync() or a
+ * {@link TokenTemplate}), so they should be quick.  Listeners that are only
+ * sometimes interested should return null from beforeSign() when they
+ * aren't; then the sign costs no more than without a listener.
+ */
+public interface SignListener {
+    /**
+     * Variant of header tokens get when there are no extra headers and the
+     * Signer has no key ID.
+     */
+    public static final String HEADER_DEFAULT = "default";
+
+    /**
+     * Variant of header from a Signer with a key ID and no extra headers.
+     */
+    public static final String HEADER_KEY_ID = "kid";
+
+    /**
+     * Variant of header with extra headers (or CompiledHeaders).
+     */
+    public static final String HEADER_EXTRA = "extra";
+
+    /**
+     * A token is about to be signed.
+     *
+     * @return anything; it's passed to afterSign().  Null means "not
+     *   interested in this one", and afterSign() isn't called.
+     */
+    public Object beforeSign();
+
+    /**
+     * A token was signed, or signing it failed.
+     *
+     * @param context what beforeSign() returned.
+     * @param userID the user's id (possibly null or empty if it was rejected).
+     * @param groups how many groups the user is in, or -1 if unknown.
+     * @param customClaims how many custom claims the user has, or -1 if
+     *   unknown.
+     * @param headerVariant {@link #HEADER_DEFAULT}, {@link #HEADER_KEY_ID} or
+     *   {@link #HEADER_EXTRA}.
+     * @param payloadBytes length of the claims JSON, or -1 if it wasn't
+     *   written.
+     * @param signed whether a token was made; false with no error for a
+     *   crypto problem (where sign() returns null).
+     * @param error why signing threw, or null.
+     */
+    public void afterSign(Object context, String userID, int groups, int customClaims,
+        String headerVariant, int payloadBytes, boolean signed, RuntimeException error);
+}
@@ -0,0 +1,54 @@
+package com.goinstant.auth;
+
+/**
+ * The outcome of signing one User as part of a batch.
+ *
+ * Either {@link #getToken()} is the signed token, or {@link #getError()} says
+ * why the user couldn't be signed (usually an IllegalArgumentException, just
+ * like {@link Signer#sign(User)} would have thrown).
+ */
+public final class SignedToken {
+    private final User user;
+    private final String token;
+    private final RuntimeException error;
+
+    SignedToken(User user, String token, RuntimeException error) {
+        this.user = user;
+        this.token = token;
+        this.error = error;
+    }
+
+    /**
+     * The user this token is for.
+     */
+    public User getUser() {
+        return this.user;
+    }
+
+    /**
+     * The signed token, or null if signing failed.
+     */
+    public String getToken() {
+        return this.token;
+    }
+
+    /**
+     * Why signing failed, or null if it succeeded or failed for crypto
+     * reasons (where {@link Signer#sign(User)} returns null).
+     */
+    public RuntimeException getError() {
+        return this.error;
+    }
+
+    /**
+     * Whether there's a token.
+     */
+    public boolean isSuccess() {
+        return this.token != null;
+    }
+
+    @Override
+    public String toString() {
+        return this.token != null ? this.token : String.valueOf(this.error);
+    }
+}
@@ -1,25 +1,32 @@
 package com.goinstant.auth;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.URL;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
 
-import com.nimbusds.jose.JOSEException;
 import com.nimbusds.jose.JOSEObjectType;
 import com.nimbusds.jose.JWSAlgorithm;
 import com.nimbusds.jose.JWSHeader;
-import com.nimbusds.jose.JWSSigner;
-import com.nimbusds.jose.crypto.MACSigner;
 import com.nimbusds.jose.jwk.JWK;
 import com.nimbusds.jose.util.Base64;
 import com.nimbusds.jose.util.Base64URL;
-import com.nimbusds.jwt.JWTClaimsSet;
-import com.nimbusds.jwt.SignedJWT;
 
 /**
  * Generates JWT Tokens for your Users.
@@ -31,48 +38,72 @@ import com.nimbusds.jwt.SignedJWT;
  * Please read GoInstant guide on <a href="https://developer.goinstant.com/v1/security_and_auth/index.html">Security and Auth</a>.
  */
 public class Signer {
-    private JWSSigner hmac;
+    /**
+     * This thread's HMAC for the secret key.
+     */
+    private final ThreadMac mac;
 
     /**
-     * Define the JWT message type.
-     * Nimbus JOSE+JWT doesn't define this... maybe it's removed in later spec drafts?
+     * Key ID put in every header, or null.
      */
-    private final static JOSEObjectType TYP_JWT = new JOSEObjectType("JWT");
+    private final String keyID;
 
     /**
-     * Claims that can't be custom for a User.
+     * Serialized header (with the key ID) plus the '.', built once.
      */
-    private final static Set<String> RESERVED_CLAIMS;
-    static {
-        Set<String> n = new HashSet<String>();
-        n.add("aud");
-        n.add("dn");
-        n.add("g");
-        n.add("iss");
-        n.add("sub");
-        RESERVED_CLAIMS = Collections.unmodifiableSet(n);
-    };
+    private final byte[] prefix;
 
     /**
-     * Claims that can't be custom for a Group.
+     * Recently used extraHeaders maps (copies) and their compiled headers.
      */
-    private final static Set<String> GROUP_RESERVED_CLAIMS;
-    static {
-        Set<String> n = new HashSet<String>();
-        n.add("dn");
-        n.add("id");
-        GROUP_RESERVED_CLAIMS = Collections.unmodifiableSet(n);
-    };
+    private final ConcurrentMap<Map<String,Object>,CompiledHeaders> headerCache =
+        new ConcurrentHashMap<Map<String,Object>,CompiledHeaders>();
 
     /**
-     * The "aud" claim is always goinstant.net
+     * Most extraHeaders maps remembered; the cache starts over when full.
      */
-    private final static List<String> AUDIENCE;
-    static {
-        ArrayList<String> n = new ArrayList<String>(1);
-        n.add(0,"goinstant.net");
-        AUDIENCE = Collections.unmodifiableList(n);
-    };
+    private final static int MAX_CACHED_HEADERS = 64;
+
+    /**
+     * Seconds from iat to exp, or 0 for tokens that don't expire.
+     */
+    private volatile long lifetime;
+
+    /**
+     * Where iat comes from, or null for the shared system clock.
+     */
+    private volatile TokenClock clock;
+
+    /**
+     * Where signAsync() runs, or null for the shared default.
+     */
+    private volatile Executor asyncExecutor;
+
+    /**
+     * Where signs are counted and timed, or null.
+     */
+    private volatile SignerMetrics metrics;
+
+    /**
+     * Told about every sign, or null.
+     */
+    private volatile SignListener listener;
+
+    /**
+     * Largest token to sign, in bytes, or 0 for no limit.
+     */
+    private volatile int maxTokenSize;
+
+    /**
+     * The '.' and base64url HMAC-SHA256 signature that end every token.
+     */
+    private final static int SIGNATURE_CHARS = 1 + 43;
+
+    /**
+     * Define the JWT message type.
+     * Nimbus JOSE+JWT doesn't define this... maybe it's removed in later spec drafts?
+     */
+    private final static JOSEObjectType TYP_JWT = new JOSEObjectType("JWT");
 
     /**
      * Default HS256 JWS header.
@@ -82,6 +113,11 @@ public class Signer {
         DEFAULT_HEADER = makeHeader();
     };
 
+    /**
+     * Serialized default header plus the '.', i.e. the start of every token.
+     */
+    final static byte[] DEFAULT_PREFIX = signingPrefix(DEFAULT_HEADER);
+
 
     /**
      * Creates a Signer with a base64 or base64url encoded secret key.
@@ -93,6 +129,24 @@ public class Signer {
      * @throws java.lang.IllegalArgumentException if the base64 is invalid or too short
      */
     public Signer(String secretKey) {
+        this(secretKey, null);
+    }
+
+    /**
+     * Creates a Signer whose tokens name their key with a <code>kid</code>
+     * header.
+     *
+     * Cheaper than passing <code>kid</code> in extraHeaders on every call,
+     * since the header is only built once.
+     *
+     * @param secretKey your GoInstant application secret key
+     * @param keyID the <code>kid</code> to put in every token, or null for none.
+     *
+     * @throws java.lang.IllegalArgumentException if the base64 is invalid or too short
+     *
+     * @see SignerRegistry
+     */
+    public Signer(String secretKey, String keyID) {
         byte[] binaryKey = parseKey(secretKey);
         if (binaryKey.length < 32) {
             throw new IllegalArgumentException(
@@ -100,7 +154,194 @@ public class Signer {
             );
         }
 
-        this.hmac = new MACSigner(binaryKey);
+        this.mac = new ThreadMac(binaryKey);
+        Arrays.fill(binaryKey, (byte)0);
+        this.keyID = keyID;
+        this.prefix = prefixFor(keyID);
+    }
+
+    /**
+     * The header prefix used when there are no extra headers.
+     */
+    byte[] defaultPrefix() {
+        return this.prefix;
+    }
+
+    /**
+     * The <code>kid</code> put in every token's header, or null.
+     */
+    public String getKeyID() {
+        return this.keyID;
+    }
+
+    /**
+     * Make tokens expire.
+     *
+     * Tokens get an <code>iat</code> (issued-at) claim and an
+     * <code>exp</code> claim this long after it, both in whole seconds.
+     * Users with their own <code>iat</code> or <code>exp</code> custom
+     * claims keep them.  The time comes from a clock that a background
+     * thread updates several times a second, so signing doesn't read the
+     * system clock or allocate a Date.
+     *
+     * @param lifetime how long tokens are valid for; 0 for never expiring
+     *   (the default).  Rounded up to whole seconds.
+     * @param unit the unit of lifetime.
+     *
+     * @throws IllegalArgumentException if lifetime is negative.
+     *
+     * @see CachingSigner
+     */
+    public void setTokenLifetime(long lifetime, TimeUnit unit) {
+        if (lifetime < 0) {
+            throw new IllegalArgumentException("lifetime must not be negative");
+        }
+        long millis = unit.toMillis(lifetime);
+        this.lifetime = (millis + 999) / 1000;
+    }
+
+    /**
+     * How long tokens are valid for; 0 if they don't expire.
+     */
+    public long getTokenLifetime(TimeUnit unit) {
+        return unit.convert(this.lifetime, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Count and time every token this Signer signs.
+     *
+     * @param metrics where to record, or null to stop recording (the
+     *   default).  Can be shared with other Signers.
+     */
+    public void setMetrics(SignerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Where this Signer records, or null.
+     */
+    public SignerMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Tell a listener about every token this Signer signs.
+     *
+     * @param listener the listener, or null for none (the default).
+     */
+    public void setSignListener(SignListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * The listener told about every sign, or null.
+     */
+    public SignListener getSignListener() {
+        return this.listener;
+    }
+
+    /**
+     * Refuse to sign tokens longer than maxTokenSize bytes.
+     *
+     * Tokens grow with a user's groups and claims, and may end up in headers
+     * or cookies that have a size limit of their own.  With a maximum set,
+     * signing a user whose token would be too large throws a
+     * {@link TokenTooLargeException}; it's thrown as soon as the claims have
+     * outgrown the budget (or, for a user with very many groups, before any
+     * are written), so oversized users are cheap to reject.
+     *
+     * @param maxTokenSize the largest token, in bytes, or 0 for no limit
+     *   (the default).
+     *
+     * @throws IllegalArgumentException if maxTokenSize is negative.
+     */
+    public void setMaxTokenSize(int maxTokenSize) {
+        if (maxTokenSize < 0) {
+            throw new IllegalArgumentException("maxTokenSize must not be negative");
+        }
+        this.maxTokenSize = maxTokenSize;
+    }
+
+    /**
+     * The largest token this Signer will sign, or 0 for no limit.
+     */
+    public int getMaxTokenSize() {
+        return this.maxTokenSize;
+    }
+
+    /**
+     * Sign a throwaway user, so the first real token is as quick as the rest.
+     *
+     * The first token a JVM signs pays for loading and initializing the
+     * claims writer, base64 encoding, the HMAC provider and this thread's
+     * buffers; on a short-lived process that's most of the time to the first
+     * token.  Call this right after constructing the Signer (on a thread
+     * that will sign) to pay for it at startup instead.  Nothing is counted
+     * in the metrics or told to the listener, and the maximum token size
+     * doesn't apply.
+     *
+     * @return true if this Signer can sign; false if the HMAC provider is
+     *   unavailable or the key has been destroyed, so a service can refuse to
+     *   start rather than fail its first request.
+     */
+    public boolean warmUp() {
+        TokenBuffer buf = TokenBuffer.acquire();
+        try {
+            long lifetime = this.lifetime;
+            if (lifetime > 0) {
+                long now = clock().seconds();
+                ClaimsWriter.writeClaims(buf.json, warmUpUser(), now, now + lifetime);
+            } else {
+                ClaimsWriter.writeClaims(buf.json, warmUpUser());
+            }
+            return finish(this.prefix, buf);
+        } finally {
+            buf.release();
+        }
+    }
+
+    /**
+     * A user with a group and a claim of each common type, so warming up
+     * touches the same code a real sign does.
+     */
+    private static User warmUpUser() {
+        PlainGroup group = new PlainGroup("warm-up", "Warm-up");
+        Set<Group> groups = new HashSet<Group>();
+        groups.add(group);
+        PlainUser user = new PlainUser("warm-up", "warm-up.invalid", "Warm-up \u00e9", groups);
+        Map<String,Object> claims = new HashMap<String,Object>();
+        claims.put("string", "\"quoted\"");
+        claims.put("number", 1);
+        claims.put("boolean", true);
+        claims.put("list", Arrays.asList("a", 2.5));
+        claims.put("map", new HashMap<String,Object>(claims));
+        user.setCustomClaims(claims);
+        return user;
+    }
+
+    /**
+     * Zero this Signer's key; from now on it signs nothing (sign() returns
+     * null).  Used by SignerPool for the Signers it evicts.
+     */
+    void destroy() {
+        this.mac.destroy();
+    }
+
+    boolean isDestroyed() {
+        return this.mac.isDestroyed();
+    }
+
+    long lifetimeSeconds() {
+        return this.lifetime;
+    }
+
+    TokenClock clock() {
+        TokenClock clock = this.clock;
+        return clock != null ? clock : TokenClock.system();
+    }
+
+    void setClock(TokenClock clock) {
+        this.clock = clock;
     }
 
     /**
@@ -147,100 +388,511 @@ public class Signer {
      * @return signed token if successful, null otherwise.
      */
     public String sign(User user, Map<String,Object> extraHeaders) {
+        return this.signWithPrefix(user, prefixFor(extraHeaders));
+    }
+
+    /**
+     * Create a signed JWT token for your GoInstant App, with pre-compiled
+     * custom headers.
+     *
+     * @param user the user to create a token for.
+     * @param headers from {@link #compileHeaders(Map)}.
+     *
+     * @throws IllegalArgumentException if the user contains bad values or
+     *   reserved custom properties.
+     *
+     * @return signed token if successful, null otherwise.
+     */
+    public String signWith(User user, CompiledHeaders headers) {
+        return this.signWithPrefix(user, headers.prefix());
+    }
+
+    private String signWithPrefix(User user, byte[] prefix) {
+        TokenBuffer buf = TokenBuffer.acquire();
         try {
-            JWSHeader header = (extraHeaders == null || extraHeaders.isEmpty())
-                ? DEFAULT_HEADER
-                : convertHeaders(extraHeaders);
-            JWTClaimsSet claims = userToClaims(user);
+            return build(user, prefix, buf) ? buf.toString() : null;
+        } finally {
+            buf.release();
+        }
+    }
+
+    /**
+     * Write the whole token into buf, telling the metrics and listener (if
+     * any) about it.
+     *
+     * @return false if there was some crypto problem.
+     */
+    private boolean build(User user, byte[] prefix, TokenBuffer buf) {
+        SignerMetrics metrics = this.metrics;
+        SignListener listener = this.listener;
+        if (metrics == null && listener == null) {
+            return write(user, prefix, buf);
+        }
 
-            SignedJWT jwt = new SignedJWT(header, claims);
-            jwt.sign(this.hmac);
-            return jwt.serialize();
+        Object context = listener != null ? listener.beforeSign() : null;
+        if (metrics == null && context == null) {
+            return write(user, prefix, buf);
+        }
+        String variant = prefix != this.prefix ? SignListener.HEADER_EXTRA
+            : this.keyID != null ? SignListener.HEADER_KEY_ID
+            : SignListener.HEADER_DEFAULT;
 
-        } catch (JOSEException e) { // some crypto problem
-            return null;
+        long start = System.nanoTime();
+        boolean ok;
+        try {
+            ok = write(user, prefix, buf);
+        } catch (RuntimeException e) {
+            observe(metrics, listener, context, start, user.getID(), -1, -1, variant, buf, false, e);
+            throw e;
         }
+        observe(metrics, listener, context, start, user.getID(), user.getGroups().size(),
+            user.getCustomClaims().size(), variant, buf, ok, null);
+        return ok;
     }
 
-    private static void checkIdAndDn(String id, String displayName) {
-        if (id == null || id.length() == 0)
-            throw new IllegalArgumentException(
-                "id must be a non-empty String");
+    /**
+     * Tell the metrics and listener (either may be null) how a sign went.
+     */
+    static void observe(SignerMetrics metrics, SignListener listener, Object context,
+        long start, String userID, int groups, int customClaims, String headerVariant,
+        TokenBuffer buf, boolean ok, RuntimeException error)
+    {
+        if (metrics != null) {
+            if (error instanceof IllegalArgumentException) {
+                metrics.recordRejected();
+            } else if (error != null) {
+                metrics.recordError();
+            } else if (ok) {
+                metrics.recordSigned(groups, System.nanoTime() - start, buf.length());
+            } else {
+                metrics.recordCryptoFailure();
+            }
+        }
+        if (context != null) {
+            listener.afterSign(context, userID, groups, customClaims, headerVariant,
+                error == null ? buf.json.length() : -1, ok, error);
+        }
+    }
 
-        // optional, but must be non-empty if provided
-        if (displayName != null && displayName.length() == 0)
-            throw new IllegalArgumentException(
-                "displayName must be a non-empty String");
+    private boolean write(User user, byte[] prefix, TokenBuffer buf) {
+        limit(prefix, buf);
+        long lifetime = this.lifetime;
+        if (lifetime > 0) {
+            long now = clock().seconds();
+            ClaimsWriter.writeClaims(buf.json, user, now, now + lifetime);
+        } else {
+            ClaimsWriter.writeClaims(buf.json, user);
+        }
+        return finish(prefix, buf);
     }
 
     /**
-     * Converts a User and its Groups into a JWTClaimsSet.
+     * Hold buf.json to the claims that fit in a maxTokenSize token after
+     * prefix; call before writing them.
+     */
+    void limit(byte[] prefix, TokenBuffer buf) {
+        int max = this.maxTokenSize;
+        if (max > 0) {
+            buf.json.limit(maxPayload(max - prefix.length - SIGNATURE_CHARS), max);
+        }
+    }
+
+    /**
+     * Most bytes whose unpadded base64url fits in chars characters.
+     */
+    static int maxPayload(int chars) {
+        if (chars < 0) {
+            return -1;
+        }
+        int rest = chars % 4;
+        return chars / 4 * 3 + (rest > 1 ? rest - 1 : 0);
+    }
+
+    /**
+     * Turn the claims JSON in buf.json into the whole token.
      *
-     * Groups are converted into a List so the List will get serialized as a
-     * JSON Array, which GoInstant requires.
+     * @return false if there was some crypto problem.
+     *
+     * @throws TokenTooLargeException if the token would be over the
+     *   maximum size.
      */
-    private static JWTClaimsSet userToClaims(User user) {
-        JWTClaimsSet claims = new JWTClaimsSet();
+    boolean finish(byte[] prefix, TokenBuffer buf) {
+        buf.json.checkLimit();
+        int payload = TokenBuffer.encodedLength(buf.json.length());
+        buf.reserve(prefix.length + payload + SIGNATURE_CHARS);
+        try {
+            buf.append(prefix);
+            buf.appendBase64Url(buf.json.bytes(), 0, buf.json.length());
 
-        String id = user.getID();
-        String displayName = user.getDisplayName();
-        checkIdAndDn(id, displayName);
+            Mac mac = this.mac.get();
+            mac.update(buf.token(), 0, buf.length());
+            byte[] signature = buf.signature();
+            mac.doFinal(signature, 0);
 
-        String domain = user.getDomain();
-        if (domain == null || domain.length() == 0)
-            throw new IllegalArgumentException(
-                "domain must be a non-empty String");
+            buf.append('.');
+            buf.appendBase64Url(signature, 0, signature.length);
+            return true;
 
-        claims.setAudience(AUDIENCE);
-        claims.setSubject(id);
-        claims.setIssuer(domain);
-        claims.setCustomClaim("dn", displayName != null ? displayName : id);
+        } catch (GeneralSecurityException e) { // some crypto problem
+            return false;
+        }
+    }
 
-        Map<String,Object> custom = user.getCustomClaims();
-        for (Map.Entry<String,Object> entry : custom.entrySet()) {
-            String key = entry.getKey();
-            if (RESERVED_CLAIMS.contains(key)) {
-                throw new IllegalArgumentException("The '"+key+"' claim cannot be custom for a User");
-            }
-            claims.setClaim(key, entry.getValue());
+    private byte[] prefixFor(Map<String,Object> extraHeaders) {
+        return (extraHeaders == null || extraHeaders.isEmpty())
+            ? this.prefix
+            : cachedHeaders(extraHeaders).prefix();
+    }
+
+    /**
+     * Write a signed JWT token into a ByteBuffer (heap or direct), without
+     * creating a String.
+     *
+     * The token is US-ASCII, so it's written byte for byte at the buffer's
+     * position, which advances past it.
+     *
+     * @param user the user to create a token for.
+     * @param out where to write the token.
+     *
+     * @throws IllegalArgumentException if the user contains bad values or
+     *   reserved custom properties.
+     * @throws java.nio.BufferOverflowException if the token doesn't fit in
+     *   out's remaining space.  Nothing is written.
+     *
+     * @return the number of bytes written, or -1 if there was some crypto
+     *   problem (where {@link #sign(User)} returns null).
+     */
+    public int signTo(User user, ByteBuffer out) {
+        return this.signTo(user, null, out);
+    }
+
+    /**
+     * Write a signed JWT token, with custom headers, into a ByteBuffer.
+     *
+     * @param user the user to create a token for.
+     * @param extraHeaders a map of additional properties to include in the
+     *   JWS header, or null.
+     * @param out where to write the token.
+     *
+     * @return the number of bytes written, or -1.
+     *
+     * @see #signTo(User, ByteBuffer)
+     */
+    public int signTo(User user, Map<String,Object> extraHeaders, ByteBuffer out) {
+        byte[] prefix = prefixFor(extraHeaders);
+        TokenBuffer buf = TokenBuffer.acquire();
+        try {
+            return build(user, prefix, buf) ? buf.writeTo(out) : -1;
+        } finally {
+            buf.release();
         }
+    }
 
-        Set<Group> groups = user.getGroups();
-        if (groups.size() > 0) {
-            // Lists will get serialized as JSON Arrays
-            ArrayList<Object> g = new ArrayList<Object>(groups.size());
-            for (Group group : groups) {
-                g.add(groupToMap(group));
-            }
-            claims.setCustomClaim("g", g);
+    /**
+     * Write a signed JWT token to an OutputStream, without creating a String.
+     *
+     * @param user the user to create a token for.
+     * @param out where to write the token; it isn't flushed or closed.
+     *
+     * @throws IllegalArgumentException if the user contains bad values or
+     *   reserved custom properties.
+     * @throws IOException if out does.
+     *
+     * @return the number of bytes written, or -1 if there was some crypto
+     *   problem (where {@link #sign(User)} returns null).
+     */
+    public int signTo(User user, OutputStream out) throws IOException {
+        return this.signTo(user, null, out);
+    }
+
+    /**
+     * Write a signed JWT token, with custom headers, to an OutputStream.
+     *
+     * @see #signTo(User, OutputStream)
+     */
+    public int signTo(User user, Map<String,Object> extraHeaders, OutputStream out)
+        throws IOException
+    {
+        byte[] prefix = prefixFor(extraHeaders);
+        TokenBuffer buf = TokenBuffer.acquire();
+        try {
+            return build(user, prefix, buf) ? buf.writeTo(out) : -1;
+        } finally {
+            buf.release();
         }
+    }
 
-        return claims;
+    /**
+     * Append a signed JWT token to a StringBuilder, Writer or other
+     * Appendable, without creating a String first.
+     *
+     * @param user the user to create a token for.
+     * @param out where to append the token.
+     *
+     * @throws IllegalArgumentException if the user contains bad values or
+     *   reserved custom properties.
+     * @throws IOException if out does.
+     *
+     * @return the number of characters (which is also the number of bytes)
+     *   appended, or -1 if there was some crypto problem.
+     */
+    public int signTo(User user, Appendable out) throws IOException {
+        return this.signTo(user, null, out);
     }
 
     /**
-     * Converts a Group into a generic Map for serialization.
-     * Maps are serialized as JSON Objects.
+     * Append a signed JWT token, with custom headers, to an Appendable.
+     *
+     * @see #signTo(User, Appendable)
      */
-    private static Map<String,Object> groupToMap(Group group) {
-        Map<String,Object> groupMap = new TreeMap<String,Object>(); // deterministic ordering
+    public int signTo(User user, Map<String,Object> extraHeaders, Appendable out)
+        throws IOException
+    {
+        byte[] prefix = prefixFor(extraHeaders);
+        TokenBuffer buf = TokenBuffer.acquire();
+        try {
+            return build(user, prefix, buf) ? buf.appendTo(out) : -1;
+        } finally {
+            buf.release();
+        }
+    }
 
-        String id = group.getID();
-        String displayName = group.getDisplayName();
-        checkIdAndDn(id, displayName);
-        groupMap.put("id", id);
-        groupMap.put("dn", displayName);
+    /**
+     * Build the header for a set of extra headers once, for re-use with
+     * {@link #signWith(User, CompiledHeaders)}.
+     *
+     * The result includes this Signer's key ID, if it has one (unless the
+     * map overrides <code>kid</code>).
+     *
+     * @param extraHeaders a map of additional properties to include in the JWS header.
+     *
+     * @throws ClassCastException if one of the extra headers' value is of the
+     *  wrong type for that key.
+     */
+    public CompiledHeaders compileHeaders(Map<String,Object> extraHeaders) {
+        if (extraHeaders == null || extraHeaders.isEmpty()) {
+            return new CompiledHeaders(this.prefix);
+        }
+        return new CompiledHeaders(signingPrefix(convertHeaders(this.keyID, extraHeaders)));
+    }
 
-        Map<String,Object> custom = group.getCustomClaims();
-        for (Map.Entry<String,Object> entry : custom.entrySet()) {
-            String key = entry.getKey();
-            if (GROUP_RESERVED_CLAIMS.contains(key)) {
-                throw new IllegalArgumentException("The '"+key+"' claim cannot be custom for a Group");
+    /**
+     * compileHeaders(), remembering the result for maps of simple values.
+     * The caller's map is only used for the lookup; a copy is stored, so
+     * changing the map later can't change what it maps to.
+     */
+    private CompiledHeaders cachedHeaders(Map<String,Object> extraHeaders) {
+        // Check the values before hashing the map: URLs, JWKs etc. have
+        // costly (a URL's does a DNS lookup) or mutable hashCode()s.
+        for (Object value : extraHeaders.values()) {
+            if (!(value instanceof String || value instanceof Boolean
+                || value instanceof Integer || value instanceof Long))
+            {
+                return compileHeaders(extraHeaders);
             }
-            groupMap.put(key, entry.getValue());
         }
 
-        return groupMap;
+        CompiledHeaders compiled = this.headerCache.get(extraHeaders);
+        if (compiled != null) {
+            return compiled;
+        }
+        compiled = compileHeaders(extraHeaders);
+        if (this.headerCache.size() >= MAX_CACHED_HEADERS) {
+            this.headerCache.clear();
+        }
+        this.headerCache.put(new HashMap<String,Object>(extraHeaders), compiled);
+        return compiled;
+    }
+
+    int cachedHeaderCount() {
+        return this.headerCache.size();
+    }
+
+    /**
+     * Sign one user the way {@link #signAll(Collection)} does: a user that
+     * would make {@link #sign(User)} throw gets a SignedToken with the error,
+     * instead.  Handy for pipelines that route failures elsewhere.
+     *
+     * @param user the user to create a token for.
+     *
+     * @return the token, or why there isn't one.
+     */
+    public SignedToken trySign(User user) {
+        return BatchSigner.signOne(this, user, null);
+    }
+
+    /**
+     * Sign a batch of users in parallel, on a shared ForkJoinPool.
+     *
+     * Each user gets its own result, so a user that would make {@link
+     * #sign(User)} throw doesn't stop the rest of the batch.
+     *
+     * @param users the users to create tokens for.
+     *
+     * @return one SignedToken per user, in the same order as users.
+     */
+    public List<SignedToken> signAll(Collection<? extends User> users) {
+        return this.signAll(users, null, BatchSigner.defaultPool());
+    }
+
+    /**
+     * Sign a batch of users in parallel, on your own Executor.
+     *
+     * ForkJoinPools split the batch recursively; other Executors get a few
+     * workers that share the batch with the calling thread.  Either way this
+     * call blocks until every user is signed.
+     *
+     * @param users the users to create tokens for.
+     * @param executor where to run the signing.
+     *
+     * @return one SignedToken per user, in the same order as users.
+     */
+    public List<SignedToken> signAll(Collection<? extends User> users, Executor executor) {
+        return this.signAll(users, null, executor);
+    }
+
+    /**
+     * Sign a batch of users in parallel, with custom headers.
+     *
+     * @param users the users to create tokens for.
+     * @param extraHeaders a map of additional properties to include in every JWS header.
+     * @param executor where to run the signing.
+     *
+     * @return one SignedToken per user, in the same order as users.
+     *
+     * @see #signAll(Collection, Executor)
+     */
+    public List<SignedToken> signAll(Collection<? extends User> users,
+        Map<String,Object> extraHeaders, Executor executor)
+    {
+        return BatchSigner.signAll(this, users, extraHeaders, executor);
+    }
+
+    /**
+     * Create a token that's only signed when it's first used.
+     *
+     * The user is copied now; checking it, serializing it and signing it
+     * wait until the token is rendered (with toString(), charAt() and so
+     * on), so tokens that are never used cost almost nothing.
+     *
+     * @param user the user to create a token for.
+     *
+     * @return the token-to-be.  Using it throws the IllegalArgumentException
+     *   that {@link #sign(User)} would if the user has bad values.
+     *
+     * @see LazyToken
+     */
+    public LazyToken signLazily(User user) {
+        return new LazyToken(this, user);
+    }
+
+    /**
+     * Create a signed JWT token without blocking the calling thread.
+     *
+     * @param user the user to create a token for.
+     *
+     * @return the token, once it's signed.  If the user has bad values,
+     *   get() throws an ExecutionException caused by the same
+     *   IllegalArgumentException that {@link #sign(User)} would throw.
+     *
+     * @throws java.util.concurrent.RejectedExecutionException if the
+     *   executor is saturated; shed the request or retry later.
+     *
+     * @see #setAsyncExecutor(Executor)
+     */
+    public Future<String> signAsync(User user) {
+        return this.signAsync(user, null, null);
+    }
+
+    /**
+     * Create a signed JWT token with custom headers, without blocking the
+     * calling thread.
+     *
+     * @param user the user to create a token for.
+     * @param extraHeaders a map of additional properties to include in the JWS header.
+     *
+     * @return the token, once it's signed.
+     *
+     * @throws java.util.concurrent.RejectedExecutionException if the
+     *   executor is saturated.
+     *
+     * @see #signAsync(User)
+     */
+    public Future<String> signAsync(User user, Map<String,Object> extraHeaders) {
+        return this.signAsync(user, extraHeaders, null);
+    }
+
+    /**
+     * Create a signed JWT token without blocking, and be called back with it.
+     *
+     * Handy for event-loop servers: the callback runs on the signing thread
+     * as soon as the token (or the IllegalArgumentException) is ready, so
+     * nothing has to wait on the returned Future.
+     *
+     * @param user the user to create a token for.
+     * @param extraHeaders a map of additional properties to include in the
+     *   JWS header, or null.
+     * @param callback told about the token or the error; may be null.
+     *
+     * @return the token, once it's signed.
+     *
+     * @throws java.util.concurrent.RejectedExecutionException if the
+     *   executor is saturated.  The callback isn't called.
+     */
+    public Future<String> signAsync(User user, Map<String,Object> extraHeaders,
+        SignCallback callback)
+    {
+        Executor executor = this.asyncExecutor;
+        if (executor == null) {
+            executor = AsyncSigner.defaultExecutor();
+        }
+        return AsyncSigner.submit(this, user, extraHeaders, callback, executor);
+    }
+
+    /**
+     * Choose where {@link #signAsync(User)} runs.
+     *
+     * Use a {@link SigningExecutor} to bound the number of pending signings,
+     * or to get virtual threads.  Any other Executor's own rejection policy
+     * decides what happens when it's busy.
+     *
+     * @param executor the executor, or null for a shared pool with one
+     *   thread per CPU and a bounded backlog.
+     */
+    public void setAsyncExecutor(Executor executor) {
+        this.asyncExecutor = executor;
+    }
+
+    /**
+     * Where {@link #signAsync(User)} runs.
+     */
+    public Executor getAsyncExecutor() {
+        Executor executor = this.asyncExecutor;
+        return executor != null ? executor : AsyncSigner.defaultExecutor();
+    }
+
+    /**
+     * The base64url header and '.' that start a token with no extra headers.
+     */
+    static byte[] prefixFor(String keyID) {
+        if (keyID == null) {
+            return DEFAULT_PREFIX;
+        }
+        JWSHeader header = makeHeader();
+        header.setKeyID(keyID);
+        return signingPrefix(header);
+    }
+
+    /**
+     * The base64url header and '.' that start a token.
+     */
+    private static byte[] signingPrefix(JWSHeader header) {
+        String encoded = header.toBase64URL().toString() + ".";
+        try {
+            return encoded.getBytes("US-ASCII");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e); // every JVM has US-ASCII
+        }
     }
 
     /**
@@ -255,8 +907,11 @@ public class Signer {
     /**
      * Attempt to assign custom headers.
      */
-    private static JWSHeader convertHeaders(Map<String,Object> extraHeaders) {
+    private static JWSHeader convertHeaders(String keyID, Map<String,Object> extraHeaders) {
         JWSHeader header = makeHeader();
+        if (keyID != null) {
+            header.setKeyID(keyID); // extraHeaders may override it
+        }
 
         for (Map.Entry<String,Object> entry : extraHeaders.entrySet()) {
             String key = entry.getKey();
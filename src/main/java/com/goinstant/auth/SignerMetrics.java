@@ -0,0 +1,596 @@
+package com.goinstant.auth;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Counts and times what a {@link Signer} does.
+ *
+ * Metrics are off until you attach them:
+ * <pre>
+ *   SignerMetrics metrics = new SignerMetrics();
+ *   signer.setMetrics(metrics);
+ *   metrics.registerMBean("auth");  // optional
+ *   ...
+ *   SignerMetrics.Snapshot s = metrics.snapshot();
+ *   long p99 = s.getLatency().getValueAtPercentile(99.0);
+ * </pre>
+ * Every token signed (by sign(), signWith(), signTo(), signAll(), signAsync()
+ * or a {@link TokenTemplate}) is counted as one of:
+ * <ul>
+ *   <li>signed: its latency (nanoseconds) and length (bytes) go into
+ *     histograms, overall and by how many groups the user is in;</li>
+ *   <li>a crypto failure, where sign() returns null;</li>
+ *   <li>rejected, where the user had bad values or reserved claims
+ *     (IllegalArgumentException);</li>
+ *   <li>an error, for any other exception.</li>
+ * </ul>
+ * Recording is lock-free and spread over per-thread stripes, so signing
+ * threads don't contend on it.  Histograms keep 8 buckets per power of two,
+ * so percentiles are within 12.5% of the true value.  One SignerMetrics can
+ * be shared by several Signers.
+ */
+public class SignerMetrics {
+    /**
+     * Labels of the group-count classes histograms are split by.
+     */
+    static final String[] GROUP_CLASSES = { "0", "1-9", "10-99", "100-999", "1000+" };
+
+    private static final int SIGNED = 0;
+    private static final int CRYPTO_FAILURES = 1;
+    private static final int REJECTED = 2;
+    private static final int ERRORS = 3;
+    private static final int COUNTERS = 4;
+
+    /**
+     * Unused cells on both sides of a stripe's counters, so that stripes
+     * don't share cache lines.
+     */
+    private static final int PAD = 8;
+
+    private final Stripe[] stripes;
+    private final int mask;
+
+    private volatile ObjectName registeredName;
+
+    /**
+     * Metrics striped for this machine's processors.
+     */
+    public SignerMetrics() {
+        int n = 1;
+        int want = Math.min(64, Runtime.getRuntime().availableProcessors() * 2);
+        while (n < want) {
+            n <<= 1;
+        }
+        this.stripes = new Stripe[n];
+        for (int i = 0; i < n; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.mask = n - 1;
+    }
+
+    private Stripe stripe() {
+        long id = Thread.currentThread().getId();
+        int h = (int)(id ^ (id >>> 32)) * 0x9E3779B9;
+        return this.stripes[(h ^ (h >>> 16)) & this.mask];
+    }
+
+    static int groupClass(int groups) {
+        if (groups == 0) {
+            return 0;
+        } else if (groups < 10) {
+            return 1;
+        } else if (groups < 100) {
+            return 2;
+        } else if (groups < 1000) {
+            return 3;
+        }
+        return 4;
+    }
+
+    /**
+     * A token was signed.
+     */
+    void recordSigned(int groups, long nanos, int bytes) {
+        Stripe stripe = stripe();
+        stripe.counters.incrementAndGet(PAD + SIGNED);
+        int c = groupClass(groups);
+        stripe.latency[c].record(nanos);
+        stripe.size[c].record(bytes);
+    }
+
+    void recordCryptoFailure() {
+        stripe().counters.incrementAndGet(PAD + CRYPTO_FAILURES);
+    }
+
+    void recordRejected() {
+        stripe().counters.incrementAndGet(PAD + REJECTED);
+    }
+
+    void recordError() {
+        stripe().counters.incrementAndGet(PAD + ERRORS);
+    }
+
+    /**
+     * Add up every stripe.
+     *
+     * Signs in progress may or may not be included, and counters and
+     * histograms are read one after the other, so they can be off from each
+     * other by a few signs under load.
+     */
+    public Snapshot snapshot() {
+        long[] counters = new long[COUNTERS];
+        Histogram.Builder[] latency = new Histogram.Builder[GROUP_CLASSES.length];
+        Histogram.Builder[] size = new Histogram.Builder[GROUP_CLASSES.length];
+        for (int c = 0; c < GROUP_CLASSES.length; c++) {
+            latency[c] = new Histogram.Builder();
+            size[c] = new Histogram.Builder();
+        }
+        for (Stripe stripe : this.stripes) {
+            for (int i = 0; i < COUNTERS; i++) {
+                counters[i] += stripe.counters.get(PAD + i);
+            }
+            for (int c = 0; c < GROUP_CLASSES.length; c++) {
+                latency[c].add(stripe.latency[c]);
+                size[c].add(stripe.size[c]);
+            }
+        }
+        return new Snapshot(counters, latency, size);
+    }
+
+    /**
+     * Start counting from zero.  Signs in progress may be partly counted.
+     */
+    public void reset() {
+        for (Stripe stripe : this.stripes) {
+            for (int i = 0; i < COUNTERS; i++) {
+                stripe.counters.set(PAD + i, 0);
+            }
+            for (int c = 0; c < GROUP_CLASSES.length; c++) {
+                stripe.latency[c].reset();
+                stripe.size[c].reset();
+            }
+        }
+    }
+
+    /**
+     * Publish these metrics to JMX, as an MXBean on the platform MBean
+     * server named <code>com.goinstant.auth:type=SignerMetrics,name=...</code>.
+     *
+     * @param name tells this SignerMetrics apart from others.
+     * @return the ObjectName registered.
+     *
+     * @throws IllegalStateException if this SignerMetrics is already
+     *   registered.
+     * @throws JMException if the name is taken or can't be registered.
+     *
+     * @see SignerMetricsMXBean
+     */
+    public synchronized ObjectName registerMBean(String name) throws JMException {
+        if (this.registeredName != null) {
+            throw new IllegalStateException("already registered as " + this.registeredName);
+        }
+        ObjectName objectName = new ObjectName(
+            "com.goinstant.auth:type=SignerMetrics,name=" + ObjectName.quote(name));
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        server.registerMBean(new StandardMBean(new MXBean(this), SignerMetricsMXBean.class, true),
+            objectName);
+        this.registeredName = objectName;
+        return objectName;
+    }
+
+    /**
+     * Take these metrics out of JMX, if registerMBean() put them there.
+     *
+     * @throws JMException if the MBean server won't unregister them.
+     */
+    public synchronized void unregisterMBean() throws JMException {
+        ObjectName objectName = this.registeredName;
+        if (objectName != null) {
+            this.registeredName = null;
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        }
+    }
+
+    /**
+     * One stripe's counters and histograms.
+     */
+    private static final class Stripe {
+        final AtomicLongArray counters = new AtomicLongArray(PAD + COUNTERS + PAD);
+        final Recorder[] latency = new Recorder[GROUP_CLASSES.length];
+        final Recorder[] size = new Recorder[GROUP_CLASSES.length];
+
+        Stripe() {
+            for (int c = 0; c < GROUP_CLASSES.length; c++) {
+                this.latency[c] = new Recorder();
+                this.size[c] = new Recorder();
+            }
+        }
+    }
+
+    /**
+     * A histogram being recorded into.
+     */
+    static final class Recorder {
+        final AtomicLongArray counts = new AtomicLongArray(Histogram.BUCKETS);
+        final AtomicLong sum = new AtomicLong();
+        final AtomicLong max = new AtomicLong();
+
+        void record(long value) {
+            if (value < 0) {
+                value = 0; // nanoTime() isn't always monotonic across cores
+            }
+            this.counts.incrementAndGet(Histogram.bucket(value));
+            this.sum.addAndGet(value);
+            long max;
+            while (value > (max = this.max.get())) {
+                if (this.max.compareAndSet(max, value)) {
+                    break;
+                }
+            }
+        }
+
+        void reset() {
+            for (int i = 0; i < Histogram.BUCKETS; i++) {
+                this.counts.set(i, 0);
+            }
+            this.sum.set(0);
+            this.max.set(0);
+        }
+    }
+
+    /**
+     * An immutable, log-linear histogram of recorded values.
+     */
+    public static final class Histogram {
+        private static final int SUB_BITS = 3;
+        private static final int SUB = 1 << SUB_BITS;
+
+        /**
+         * Values of 2^41 and up (about 37 minutes in nanoseconds) go in the
+         * last bucket.
+         */
+        private static final int MAX_EXP = 40;
+
+        static final int BUCKETS = (MAX_EXP - SUB_BITS + 2) * SUB;
+
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Histogram(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * Values below 8 get a bucket each; above that, each power of two
+         * is split into 8 buckets.
+         */
+        static int bucket(long value) {
+            if (value < SUB) {
+                return (int)value;
+            }
+            int exp = 63 - Long.numberOfLeadingZeros(value);
+            if (exp > MAX_EXP) {
+                return BUCKETS - 1;
+            }
+            return (exp - SUB_BITS + 1) * SUB + (int)((value >>> (exp - SUB_BITS)) & (SUB - 1));
+        }
+
+        /**
+         * Largest value that goes in a bucket.
+         */
+        static long highestValue(int bucket) {
+            if (bucket < SUB) {
+                return bucket;
+            }
+            int exp = bucket / SUB + SUB_BITS - 1;
+            long sub = bucket % SUB;
+            return ((SUB + sub + 1) << (exp - SUB_BITS)) - 1;
+        }
+
+        /**
+         * Number of values recorded.
+         */
+        public long getCount() {
+            return this.count;
+        }
+
+        /**
+         * Exact mean of the values, or 0 if there are none.
+         */
+        public double getMean() {
+            return this.count == 0 ? 0 : (double)this.sum / this.count;
+        }
+
+        /**
+         * Exact largest value, or 0 if there are none.
+         */
+        public long getMax() {
+            return this.max;
+        }
+
+        /**
+         * The value that the given percentage of values are at or below
+         * (to within 12.5%), or 0 if there are none.
+         *
+         * @param percentile from 0 to 100, e.g. 99.9.
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("percentile must be from 0 to 100");
+            }
+            if (this.count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long)Math.ceil(percentile / 100 * this.count));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += this.counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValue(i), this.max);
+                }
+            }
+            return this.max;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + this.count + " mean=" + Math.round(getMean())
+                + " p50=" + getValueAtPercentile(50) + " p99=" + getValueAtPercentile(99)
+                + " max=" + this.max;
+        }
+
+        static final class Builder {
+            private final long[] counts = new long[BUCKETS];
+            private long count, sum, max;
+
+            void add(Recorder recorder) {
+                for (int i = 0; i < BUCKETS; i++) {
+                    long n = recorder.counts.get(i);
+                    this.counts[i] += n;
+                    this.count += n;
+                }
+                this.sum += recorder.sum.get();
+                this.max = Math.max(this.max, recorder.max.get());
+            }
+
+            void add(Builder other) {
+                for (int i = 0; i < BUCKETS; i++) {
+                    this.counts[i] += other.counts[i];
+                }
+                this.count += other.count;
+                this.sum += other.sum;
+                this.max = Math.max(this.max, other.max);
+            }
+
+            Histogram build() {
+                return new Histogram(this.counts.clone(), this.count, this.sum, this.max);
+            }
+        }
+    }
+
+    /**
+     * SignerMetrics at one point in time.
+     */
+    public static final class Snapshot {
+        private final long[] counters;
+        private final Histogram latency;
+        private final Histogram size;
+        private final Histogram[] latencyByGroups;
+        private final Histogram[] sizeByGroups;
+
+        Snapshot(long[] counters, Histogram.Builder[] latency, Histogram.Builder[] size) {
+            this.counters = counters;
+            this.latencyByGroups = new Histogram[latency.length];
+            this.sizeByGroups = new Histogram[size.length];
+            Histogram.Builder allLatency = new Histogram.Builder();
+            Histogram.Builder allSize = new Histogram.Builder();
+            for (int c = 0; c < latency.length; c++) {
+                this.latencyByGroups[c] = latency[c].build();
+                this.sizeByGroups[c] = size[c].build();
+                allLatency.add(latency[c]);
+                allSize.add(size[c]);
+            }
+            this.latency = allLatency.build();
+            this.size = allSize.build();
+        }
+
+        /**
+         * Tokens signed.
+         */
+        public long getSignCount() {
+            return this.counters[SIGNED];
+        }
+
+        /**
+         * Times signing returned null because of a crypto problem.
+         */
+        public long getCryptoFailureCount() {
+            return this.counters[CRYPTO_FAILURES];
+        }
+
+        /**
+         * Users rejected for bad values or reserved claims.
+         */
+        public long getRejectedCount() {
+            return this.counters[REJECTED];
+        }
+
+        /**
+         * Signs that threw something other than IllegalArgumentException.
+         */
+        public long getErrorCount() {
+            return this.counters[ERRORS];
+        }
+
+        /**
+         * Nanoseconds per signed token.
+         */
+        public Histogram getLatency() {
+            return this.latency;
+        }
+
+        /**
+         * Nanoseconds per signed token, for users with about this many
+         * groups (see {@link #getLatencyByGroups()}).
+         */
+        public Histogram getLatency(int groups) {
+            return this.latencyByGroups[groupClass(groups)];
+        }
+
+        /**
+         * Nanoseconds per signed token, by group count: "0", "1-9",
+         * "10-99", "100-999" and "1000+".
+         */
+        public Map<String,Histogram> getLatencyByGroups() {
+            return byGroups(this.latencyByGroups);
+        }
+
+        /**
+         * Bytes per signed token.
+         */
+        public Histogram getTokenSize() {
+            return this.size;
+        }
+
+        /**
+         * Bytes per signed token, for users with about this many groups.
+         */
+        public Histogram getTokenSize(int groups) {
+            return this.sizeByGroups[groupClass(groups)];
+        }
+
+        /**
+         * Bytes per signed token, by group count, like
+         * {@link #getLatencyByGroups()}.
+         */
+        public Map<String,Histogram> getTokenSizeByGroups() {
+            return byGroups(this.sizeByGroups);
+        }
+
+        private static Map<String,Histogram> byGroups(Histogram[] histograms) {
+            Map<String,Histogram> map = new LinkedHashMap<String,Histogram>();
+            for (int c = 0; c < histograms.length; c++) {
+                map.put(GROUP_CLASSES[c], histograms[c]);
+            }
+            return Collections.unmodifiableMap(map);
+        }
+
+        @Override
+        public String toString() {
+            return "signed=" + getSignCount() + " cryptoFailures=" + getCryptoFailureCount()
+                + " rejected=" + getRejectedCount() + " errors=" + getErrorCount()
+                + " latency[" + this.latency + "] size[" + this.size + "]";
+        }
+    }
+
+    /**
+     * What JMX sees; snapshots are re-used for a second, since a JMX
+     * client reads attributes one at a time.
+     */
+    private static final class MXBean implements SignerMetricsMXBean {
+        private static final long MAX_AGE = 1000000000L;
+
+        private final SignerMetrics metrics;
+        private Snapshot snapshot;
+        private long taken;
+
+        MXBean(SignerMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        private synchronized Snapshot get() {
+            long now = System.nanoTime();
+            if (this.snapshot == null || now - this.taken > MAX_AGE) {
+                this.snapshot = this.metrics.snapshot();
+                this.taken = now;
+            }
+            return this.snapshot;
+        }
+
+        public long getSignCount() {
+            return get().getSignCount();
+        }
+
+        public long getCryptoFailureCount() {
+            return get().getCryptoFailureCount();
+        }
+
+        public long getRejectedCount() {
+            return get().getRejectedCount();
+        }
+
+        public long getErrorCount() {
+            return get().getErrorCount();
+        }
+
+        public double getLatencyMeanNanos() {
+            return get().getLatency().getMean();
+        }
+
+        public long getLatencyP50Nanos() {
+            return get().getLatency().getValueAtPercentile(50);
+        }
+
+        public long getLatencyP99Nanos() {
+            return get().getLatency().getValueAtPercentile(99);
+        }
+
+        public long getLatencyP999Nanos() {
+            return get().getLatency().getValueAtPercentile(99.9);
+        }
+
+        public long getLatencyMaxNanos() {
+            return get().getLatency().getMax();
+        }
+
+        public double getTokenSizeMean() {
+            return get().getTokenSize().getMean();
+        }
+
+        public long getTokenSizeP99() {
+            return get().getTokenSize().getValueAtPercentile(99);
+        }
+
+        public long getTokenSizeMax() {
+            return get().getTokenSize().getMax();
+        }
+
+        public Map<String,Long> getSignCountByGroups() {
+            Map<String,Long> map = new LinkedHashMap<String,Long>();
+            for (Map.Entry<String,Histogram> entry : get().getLatencyByGroups().entrySet()) {
+                map.put(entry.getKey(), entry.getValue().getCount());
+            }
+            return map;
+        }
+
+        public Map<String,Long> getLatencyP99NanosByGroups() {
+            Map<String,Long> map = new LinkedHashMap<String,Long>();
+            for (Map.Entry<String,Histogram> entry : get().getLatencyByGroups().entrySet()) {
+                map.put(entry.getKey(), entry.getValue().getValueAtPercentile(99));
+            }
+            return map;
+        }
+
+        public void reset() {
+            this.metrics.reset();
+            synchronized (this) {
+                this.snapshot = null;
+            }
+        }
+    }
+}
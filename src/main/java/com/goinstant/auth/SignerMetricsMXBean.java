@@ -0,0 +1,46 @@
+package com.goinstant.auth;
+
+import java.util.Map;
+
+/**
+ * The JMX view of a {@link SignerMetrics}, from
+ * {@link SignerMetrics#registerMBean(String)}.
+ *
+ * Attributes are read from a snapshot at most a second old.  Percentiles
+ * are within 12.5%; "ByGroups" attributes are keyed by group count ("0",
+ * "1-9", "10-99", "100-999" and "1000+").
+ */
+public interface SignerMetricsMXBean {
+    long getSignCount();
+
+    long getCryptoFailureCount();
+
+    long getRejectedCount();
+
+    long getErrorCount();
+
+    double getLatencyMeanNanos();
+
+    long getLatencyP50Nanos();
+
+    long getLatencyP99Nanos();
+
+    long getLatencyP999Nanos();
+
+    long getLatencyMaxNanos();
+
+    double getTokenSizeMean();
+
+    long getTokenSizeP99();
+
+    long getTokenSizeMax();
+
+    Map<String,Long> getSignCountByGroups();
+
+    Map<String,Long> getLatencyP99NanosByGroups();
+
+    /**
+     * Start counting from zero.
+     */
+    void reset();
+}
@@ -0,0 +1,352 @@
+package com.goinstant.auth;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Ready-made Signers for many GoInstant apps, each with its own secret key.
+ *
+ * Creating a Signer decodes its key and sets up its HMAC; a pool does that
+ * once per app and hands back the same Signer after that:
+ * <pre>
+ *   SignerPool pool = new SignerPool(1000);
+ *   String token = pool.sign(app.getId(), app.getSecretKey(), user);
+ * </pre>
+ * Apps are looked up by id.  If an app's secret changes, its Signer is
+ * replaced.  The pool is bounded: when it's full, the least recently used
+ * app's Signer is evicted.  Evicted and replaced Signers are destroyed,
+ * which zeroes their decoded key, and from then on they sign nothing
+ * (sign() returns null).  So use a Signer from {@link #get} right away
+ * rather than holding on to it, or let {@link #sign} do it for you.
+ * <br>
+ * A pool is thread-safe.  Apps are spread over independently locked
+ * segments, each with its own LRU order, so lookups for different apps
+ * rarely wait for each other.  The pool keeps the secret strings it's given
+ * (to notice changes), like your own configuration does.
+ */
+public class SignerPool {
+    /**
+     * Fewest apps a segment holds; small pools get fewer segments, so that
+     * LRU order stays close to exact.
+     */
+    private static final int MIN_SEGMENT_SIZE = 8;
+
+    private static final int MAX_SEGMENTS = 16;
+
+    /**
+     * How many times sign() tries when its Signer is evicted underneath it.
+     */
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final int maxSize;
+    private final Segment[] segments;
+
+    /**
+     * Create a pool.
+     *
+     * @param maxSize the most apps to keep Signers for.
+     *
+     * @throws IllegalArgumentException if maxSize is less than 1.
+     */
+    public SignerPool(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        }
+        this.maxSize = maxSize;
+
+        int count = 1;
+        while (count * 2 <= MAX_SEGMENTS && count * 2 * MIN_SEGMENT_SIZE <= maxSize) {
+            count *= 2;
+        }
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            // spread the remainder so that capacities add up to maxSize
+            this.segments[i] = new Segment(maxSize / count + (i < maxSize % count ? 1 : 0));
+        }
+    }
+
+    private Segment segmentFor(String appID) {
+        int h = appID.hashCode();
+        h ^= (h >>> 16);
+        return this.segments[h & (this.segments.length - 1)];
+    }
+
+    /**
+     * Get the Signer for an app, creating it if needed.
+     *
+     * @param appID identifies the app.
+     * @param secretKey the app's secret key, as for {@link Signer#Signer(String)}.
+     *
+     * @throws IllegalArgumentException if appID or secretKey is null, or
+     *   the key is invalid or too short.
+     */
+    public Signer get(String appID, String secretKey) {
+        if (appID == null || secretKey == null) {
+            throw new IllegalArgumentException("appID and secretKey are required");
+        }
+        Segment segment = segmentFor(appID);
+        synchronized (segment) {
+            Tenant tenant = segment.get(appID);
+            if (tenant != null && tenant.secretKey.equals(secretKey)) {
+                tenant.hits++;
+                segment.hits++;
+                return tenant.signer;
+            }
+        }
+
+        // Set up the Signer without holding the lock.
+        Signer signer = new Signer(secretKey);
+
+        synchronized (segment) {
+            segment.misses++;
+            Tenant tenant = segment.get(appID);
+            if (tenant != null && tenant.secretKey.equals(secretKey)) { // raced
+                tenant.misses++;
+                signer.destroy();
+                return tenant.signer;
+            }
+            Tenant fresh = new Tenant(secretKey, signer);
+            if (tenant != null) { // the secret changed
+                fresh.hits = tenant.hits;
+                fresh.misses = tenant.misses;
+                tenant.signer.destroy();
+            }
+            fresh.misses++;
+            segment.put(appID, fresh);
+        }
+        return signer;
+    }
+
+    /**
+     * Sign a token with an app's Signer.
+     *
+     * @throws IllegalArgumentException if appID or secretKey is missing or
+     *   invalid, or the user has bad values or reserved custom properties.
+     *
+     * @return signed token if successful, null otherwise.
+     */
+    public String sign(String appID, String secretKey, User user) {
+        return sign(appID, secretKey, user, null);
+    }
+
+    /**
+     * Sign a token with an app's Signer, with custom headers.
+     *
+     * @throws IllegalArgumentException if appID or secretKey is missing or
+     *   invalid, or the user or extraHeaders have bad values or reserved
+     *   custom properties.
+     *
+     * @return signed token if successful, null otherwise.
+     */
+    public String sign(String appID, String secretKey, User user,
+        Map<String,Object> extraHeaders)
+    {
+        String token = null;
+        for (int i = 0; i < MAX_ATTEMPTS; i++) {
+            Signer signer = get(appID, secretKey);
+            token = signer.sign(user, extraHeaders);
+            if (token != null || !signer.isDestroyed()) {
+                break;
+            }
+        }
+        return token;
+    }
+
+    /**
+     * Evict an app's Signer (destroying it), e.g. when the app is deleted.
+     *
+     * @return whether the app was in the pool.
+     */
+    public boolean remove(String appID) {
+        Segment segment = segmentFor(appID);
+        synchronized (segment) {
+            Tenant tenant = segment.remove(appID);
+            if (tenant == null) {
+                return false;
+            }
+            tenant.signer.destroy();
+            return true;
+        }
+    }
+
+    /**
+     * Evict every Signer.  Counts are kept.
+     */
+    public void clear() {
+        for (Segment segment : this.segments) {
+            synchronized (segment) {
+                for (Tenant tenant : segment.values()) {
+                    tenant.signer.destroy();
+                }
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * Number of apps with a Signer in the pool.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : this.segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * The most apps the pool holds.
+     */
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+    /**
+     * Lookups that found a ready Signer.
+     */
+    public long getHitCount() {
+        long hits = 0;
+        for (Segment segment : this.segments) {
+            synchronized (segment) {
+                hits += segment.hits;
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Lookups that had to create a Signer.
+     */
+    public long getMissCount() {
+        long misses = 0;
+        for (Segment segment : this.segments) {
+            synchronized (segment) {
+                misses += segment.misses;
+            }
+        }
+        return misses;
+    }
+
+    /**
+     * Signers evicted to make room.
+     */
+    public long getEvictionCount() {
+        long evictions = 0;
+        for (Segment segment : this.segments) {
+            synchronized (segment) {
+                evictions += segment.evictions;
+            }
+        }
+        return evictions;
+    }
+
+    /**
+     * Hits and misses for one app.
+     *
+     * @return the app's counts, or null if it isn't in the pool (counts
+     *   start over when an app is evicted).
+     */
+    public TenantStats getStats(String appID) {
+        Segment segment = segmentFor(appID);
+        synchronized (segment) {
+            Tenant tenant = segment.peek(appID);
+            return tenant == null ? null : new TenantStats(appID, tenant.hits, tenant.misses);
+        }
+    }
+
+    /**
+     * One app's lookups, at the time getStats() was called.
+     */
+    public static final class TenantStats {
+        private final String appID;
+        private final long hits;
+        private final long misses;
+
+        TenantStats(String appID, long hits, long misses) {
+            this.appID = appID;
+            this.hits = hits;
+            this.misses = misses;
+        }
+
+        public String getAppID() {
+            return this.appID;
+        }
+
+        /**
+         * Lookups that found this app's Signer ready.
+         */
+        public long getHitCount() {
+            return this.hits;
+        }
+
+        /**
+         * Lookups that created a Signer for this app (the first one, and
+         * any after its secret changed).
+         */
+        public long getMissCount() {
+            return this.misses;
+        }
+
+        @Override
+        public String toString() {
+            return this.appID + ": hits=" + this.hits + " misses=" + this.misses;
+        }
+    }
+
+    /**
+     * An app's Signer and counts; guarded by its Segment's lock.
+     */
+    private static final class Tenant {
+        final String secretKey;
+        final Signer signer;
+        long hits;
+        long misses;
+
+        Tenant(String secretKey, Signer signer) {
+            this.secretKey = secretKey;
+            this.signer = signer;
+        }
+    }
+
+    /**
+     * An access-ordered map that destroys what it evicts; guarded by its
+     * own lock.
+     */
+    private static final class Segment extends LinkedHashMap<String,Tenant> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+        long hits;
+        long misses;
+        long evictions;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        /**
+         * get() without touching the LRU order.
+         */
+        Tenant peek(String appID) {
+            for (Map.Entry<String,Tenant> entry : entrySet()) {
+                if (entry.getKey().equals(appID)) {
+                    return entry.getValue();
+                }
+            }
+            return null;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String,Tenant> eldest) {
+            if (size() <= this.capacity) {
+                return false;
+            }
+            eldest.getValue().signer.destroy();
+            this.evictions++;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package com.goinstant.auth;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.minidev.json.JSONObject;
+import net.minidev.json.JSONValue;
+
+import com.nimbusds.jose.util.Base64URL;
+
+/**
+ * Several secret keys, told apart by their <code>kid</code>, one of which is
+ * active for signing.
+ *
+ * Each key gets a {@link Signer} whose <code>kid</code> header is built once.
+ * Rotating to a new key is a single atomic swap: sign() calls already in
+ * flight finish with the old key, later ones use the new key, and nobody
+ * waits on a lock.
+ * <pre>
+ *   SignerRegistry keys = new SignerRegistry(1, TimeUnit.HOURS);
+ *   keys.rotate("2014-01", secretKey);
+ *   String token = keys.sign(user);
+ *   ...
+ *   keys.rotate("2014-02", newSecretKey); // "2014-01" tokens verify for another hour
+ * </pre>
+ * Keys that are no longer active still {@link #verify(String)} tokens until
+ * their grace period is up or they're {@link #remove(String) removed}.
+ */
+public class SignerRegistry {
+    /**
+     * Grace period meaning "until removed".
+     */
+    private static final long FOREVER = -1;
+
+    private final ConcurrentMap<String,Key> keys = new ConcurrentHashMap<String,Key>();
+
+    /**
+     * The same keys by their base64url header, so verify() needn't decode it.
+     */
+    private final ConcurrentMap<String,Key> byHeader = new ConcurrentHashMap<String,Key>();
+
+    private final AtomicReference<Key> active = new AtomicReference<Key>();
+    private final long gracePeriod;
+
+    /**
+     * A registry that keeps old keys for verification until they're removed.
+     */
+    public SignerRegistry() {
+        this.gracePeriod = FOREVER;
+    }
+
+    /**
+     * A registry whose old keys stop verifying a while after they were last
+     * active.
+     *
+     * @param gracePeriod how long an old key keeps verifying.
+     * @param unit the unit of gracePeriod.
+     */
+    public SignerRegistry(long gracePeriod, TimeUnit unit) {
+        if (gracePeriod < 0) {
+            throw new IllegalArgumentException("gracePeriod must not be negative");
+        }
+        this.gracePeriod = unit.toNanos(gracePeriod);
+    }
+
+    /**
+     * One registered key.
+     */
+    private static final class Key {
+        final String keyID;
+        final String header;
+        final Signer signer;
+        final Verifier verifier;
+
+        /**
+         * When this key stopped being active (System.nanoTime()); only
+         * meaningful once retired is set.
+         */
+        volatile long retiredAt;
+        volatile boolean retired;
+
+        Key(String keyID, String secretKey) {
+            this.keyID = keyID;
+            this.header = Verifier.headerSegment(keyID);
+            this.signer = new Signer(secretKey, keyID);
+            this.verifier = new Verifier(secretKey, keyID, Verifier.DEFAULT_CACHE_SIZE);
+        }
+    }
+
+    /**
+     * Register a key without making it active.
+     *
+     * @param keyID the <code>kid</code> for this key's tokens.
+     * @param secretKey base64 or base64url secret key.
+     *
+     * @return the key's Signer.
+     *
+     * @throws IllegalArgumentException if the key ID is empty or already
+     *   registered, or the key is invalid.
+     */
+    public Signer add(String keyID, String secretKey) {
+        if (keyID == null || keyID.isEmpty()) {
+            throw new IllegalArgumentException("keyID must be non-empty");
+        }
+        Key key = new Key(keyID, secretKey);
+        if (this.keys.putIfAbsent(keyID, key) != null) {
+            throw new IllegalArgumentException("key " + keyID + " is already registered");
+        }
+        this.byHeader.put(key.header, key);
+        return key.signer;
+    }
+
+    /**
+     * Make a registered key the one used for signing.
+     *
+     * The previously active key starts its grace period.
+     *
+     * @throws IllegalArgumentException if there's no such key.
+     */
+    public void activate(String keyID) {
+        Key next = this.keys.get(keyID);
+        if (next == null) {
+            throw new IllegalArgumentException("no key " + keyID);
+        }
+        next.retired = false;
+
+        Key previous = this.active.getAndSet(next);
+        if (previous != null && previous != next) {
+            previous.retiredAt = System.nanoTime();
+            previous.retired = true;
+        }
+    }
+
+    /**
+     * Register a new key and make it active.
+     *
+     * @return the key's Signer.
+     *
+     * @see #add(String, String)
+     * @see #activate(String)
+     */
+    public Signer rotate(String keyID, String secretKey) {
+        Signer signer = add(keyID, secretKey);
+        activate(keyID);
+        return signer;
+    }
+
+    /**
+     * Forget a key; its tokens stop verifying.
+     *
+     * @return false if there was no such key.
+     *
+     * @throws IllegalStateException if it's the active key.
+     */
+    public boolean remove(String keyID) {
+        Key key = this.keys.get(keyID);
+        if (key == null) {
+            return false;
+        }
+        if (key == this.active.get()) {
+            throw new IllegalStateException("can't remove the active key " + keyID);
+        }
+        forget(key);
+        return true;
+    }
+
+    private void forget(Key key) {
+        this.keys.remove(key.keyID, key);
+        this.byHeader.remove(key.header, key);
+    }
+
+    /**
+     * The Signer for the active key.
+     *
+     * @throws IllegalStateException if no key is active yet.
+     */
+    public Signer getActiveSigner() {
+        Key key = this.active.get();
+        if (key == null) {
+            throw new IllegalStateException("no key is active");
+        }
+        return key.signer;
+    }
+
+    /**
+     * The active key's ID, or null if no key is active yet.
+     */
+    public String getActiveKeyID() {
+        Key key = this.active.get();
+        return key != null ? key.keyID : null;
+    }
+
+    /**
+     * The Signer for any registered key, or null.
+     */
+    public Signer getSigner(String keyID) {
+        Key key = this.keys.get(keyID);
+        return key != null ? key.signer : null;
+    }
+
+    /**
+     * IDs of every registered key, active or not.
+     */
+    public Set<String> getKeyIDs() {
+        return Collections.unmodifiableSet(this.keys.keySet());
+    }
+
+    /**
+     * Sign with the active key.
+     *
+     * @see Signer#sign(User)
+     */
+    public String sign(User user) {
+        return getActiveSigner().sign(user, null);
+    }
+
+    /**
+     * Sign with the active key, with custom headers.
+     *
+     * @see Signer#sign(User, Map)
+     */
+    public String sign(User user, Map<String,Object> extraHeaders) {
+        return getActiveSigner().sign(user, extraHeaders);
+    }
+
+    /**
+     * Check a token against the key its <code>kid</code> names (or the active
+     * key, if it has none).
+     *
+     * @return the verified token, or null if it's malformed, its key is
+     *   unknown or past its grace period, or the signature doesn't match.
+     */
+    public VerifiedToken verify(String token) {
+        if (token == null) {
+            return null;
+        }
+        int headerEnd = token.indexOf('.');
+        if (headerEnd <= 0) {
+            return null;
+        }
+
+        Key key = this.byHeader.get(token.substring(0, headerEnd));
+        if (key == null) {
+            String keyID = keyID(token.substring(0, headerEnd));
+            key = keyID != null ? this.keys.get(keyID) : this.active.get();
+        }
+        if (key == null || expired(key)) {
+            return null;
+        }
+        return key.verifier.verify(token);
+    }
+
+    private boolean expired(Key key) {
+        if (!key.retired || this.gracePeriod == FOREVER) {
+            return false;
+        }
+        long retiredAt = key.retiredAt;
+        if (!key.retired || System.nanoTime() - retiredAt <= this.gracePeriod) {
+            return false; // (re-activated meanwhile)
+        }
+        forget(key);
+        return true;
+    }
+
+    /**
+     * The <code>kid</code> of a base64url header, or null.
+     */
+    private static String keyID(String header) {
+        try {
+            Object parsed = JSONValue.parse(new Base64URL(header).decodeToString());
+            if (parsed instanceof JSONObject) {
+                Object kid = ((JSONObject)parsed).get("kid");
+                return kid instanceof String ? (String)kid : null;
+            }
+        } catch (RuntimeException e) { // not base64 or not JSON
+        }
+        return null;
+    }
+}
@@ -0,0 +1,167 @@
+package com.goinstant.auth;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs {@link Signer#signAsync} work with a cap on how much can be pending.
+ *
+ * Once <code>maxPending</code> tasks are queued or running, {@link
+ * #execute(Runnable)} throws a RejectedExecutionException instead of queueing
+ * more. That tells callers to shed load before queues and latency grow
+ * without bound.  {@link #isSaturated()} lets callers check first.
+ * <br>
+ * Two flavours are built in: a fixed pool of daemon threads, and (on JDKs
+ * that have them) one virtual thread per task. Virtual threads don't keep
+ * per-thread state between tasks, so each task sets up its own HMAC and
+ * buffers. The thread pool is the faster choice for pure signing throughput.
+ */
+public class SigningExecutor implements Executor {
+    private final Executor delegate;
+    private final Semaphore permits;
+    private final int maxPending;
+
+    /**
+     * Bound any Executor.
+     *
+     * @param delegate where tasks actually run.
+     * @param maxPending most tasks allowed to be queued or running at once.
+     */
+    public SigningExecutor(Executor delegate, int maxPending) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate must not be null");
+        }
+        if (maxPending <= 0) {
+            throw new IllegalArgumentException("maxPending must be positive");
+        }
+        this.delegate = delegate;
+        this.maxPending = maxPending;
+        this.permits = new Semaphore(maxPending);
+    }
+
+    /**
+     * A fixed pool of daemon threads.
+     *
+     * @param threads number of signing threads.
+     * @param maxPending most tasks allowed to be queued or running at once.
+     */
+    public static SigningExecutor threadPool(int threads, int maxPending) {
+        if (maxPending <= 0) { // before we start any threads
+            throw new IllegalArgumentException("maxPending must be positive");
+        }
+        return new SigningExecutor(
+            Executors.newFixedThreadPool(threads, new DaemonThreadFactory()), maxPending);
+    }
+
+    /**
+     * One virtual thread per task.
+     *
+     * @param maxPending most tasks allowed to be queued or running at once.
+     *
+     * @throws UnsupportedOperationException if this JDK doesn't have
+     *   virtual threads.
+     */
+    public static SigningExecutor virtualThreads(int maxPending) {
+        Method factory = virtualThreadFactory();
+        if (factory == null) {
+            throw new UnsupportedOperationException("virtual threads need JDK 21 or later");
+        }
+        try {
+            return new SigningExecutor((Executor)factory.invoke(null), maxPending);
+        } catch (Exception e) {
+            throw new UnsupportedOperationException("couldn't create virtual threads", e);
+        }
+    }
+
+    /**
+     * Whether {@link #virtualThreads(int)} will work on this JDK.
+     */
+    public static boolean isVirtualThreadsSupported() {
+        return virtualThreadFactory() != null;
+    }
+
+    private static Method virtualThreadFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Run a task, if there's room for it.
+     *
+     * @throws RejectedExecutionException if maxPending tasks are already
+     *   pending, or the underlying executor refused the task.
+     */
+    public void execute(final Runnable task) {
+        if (!this.permits.tryAcquire()) {
+            throw new RejectedExecutionException(
+                "signing executor is saturated (" + this.maxPending + " pending)");
+        }
+        try {
+            this.delegate.execute(new Runnable() {
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        SigningExecutor.this.permits.release();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            this.permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Number of tasks queued or running.
+     */
+    public int getPendingCount() {
+        return this.maxPending - this.permits.availablePermits();
+    }
+
+    /**
+     * Most tasks allowed to be queued or running at once.
+     */
+    public int getMaxPending() {
+        return this.maxPending;
+    }
+
+    /**
+     * Whether the next {@link #execute(Runnable)} would be rejected.
+     */
+    public boolean isSaturated() {
+        return this.permits.availablePermits() == 0;
+    }
+
+    /**
+     * Stop the underlying executor, if it's an ExecutorService.
+     * Already-pending tasks still run.
+     */
+    public void shutdown() {
+        if (this.delegate instanceof ExecutorService) {
+            ((ExecutorService)this.delegate).shutdown();
+        }
+    }
+
+    private static final class DaemonThreadFactory implements ThreadFactory {
+        private static final AtomicInteger POOLS = new AtomicInteger();
+        private final int pool = POOLS.incrementAndGet();
+        private final AtomicInteger threads = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r,
+                "goinstant-signer-" + this.pool + "-" + this.threads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
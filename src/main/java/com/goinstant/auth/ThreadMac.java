@@ -0,0 +1,151 @@
+package com.goinstant.auth;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+
+/**
+ * A per-thread, ready-to-use HMAC-SHA256 for one key.
+ *
+ * Each thread's instance is cloned from an initialized prototype, so the
+ * provider lookup and key schedule happen once per key rather than once per
+ * token.  doFinal() leaves a Mac ready for reuse.  A ThreadMac can be
+ * destroyed, zeroing its key, when its Signer is thrown away.
+ */
+final class ThreadMac {
+    /**
+     * Algorithm name used with JCA.
+     */
+    static final String HMAC_SHA256 = "HmacSHA256";
+
+    /**
+     * What Macs are re-initialized with when they're destroyed.
+     */
+    private static final RawKey NO_KEY = new RawKey(new byte[32]);
+
+    private final RawKey key;
+
+    /**
+     * Null if the JCA provider couldn't set one up, in which case get()
+     * always throws.  Cloned under this's lock, so destroy() can scrub it.
+     */
+    private final Mac prototype;
+
+    private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>();
+
+    private volatile boolean destroyed;
+
+    ThreadMac(byte[] binaryKey) {
+        this.key = new RawKey(binaryKey.clone());
+
+        Mac mac;
+        try {
+            mac = create(this.key);
+        } catch (GeneralSecurityException e) {
+            mac = null;
+        }
+        this.prototype = mac;
+    }
+
+    private static Mac create(SecretKey key) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(HMAC_SHA256);
+        mac.init(key);
+        return mac;
+    }
+
+    /**
+     * Get this thread's HMAC, cloning the prototype the first time.
+     */
+    Mac get() throws GeneralSecurityException {
+        Mac mac = this.macs.get();
+        if (this.destroyed) {
+            if (mac != null) { // only this thread can touch its own copy
+                scrub(mac);
+                this.macs.remove();
+            }
+            throw new GeneralSecurityException("key has been destroyed");
+        }
+        if (mac == null) {
+            mac = copy();
+            this.macs.set(mac);
+        }
+        return mac;
+    }
+
+    private synchronized Mac copy() throws GeneralSecurityException {
+        if (this.destroyed) {
+            throw new GeneralSecurityException("key has been destroyed");
+        }
+        if (this.prototype == null) {
+            throw new GeneralSecurityException(HMAC_SHA256 + " is unavailable");
+        }
+        try {
+            return (Mac)this.prototype.clone();
+        } catch (CloneNotSupportedException e) {
+            return create(this.key); // provider can't clone; init from scratch
+        }
+    }
+
+    /**
+     * Zero the key and stop signing with it.
+     *
+     * Our copy of the key and the prototype Mac are wiped now.  Each thread's
+     * Mac is wiped the next time that thread uses this ThreadMac (it can't be
+     * safely touched from here), or is dropped with the ThreadMac.  Signs
+     * already in progress finish normally.
+     */
+    synchronized void destroy() {
+        if (this.destroyed) {
+            return;
+        }
+        this.destroyed = true;
+        if (this.prototype != null) {
+            scrub(this.prototype);
+        }
+        Arrays.fill(this.key.bytes, (byte)0);
+    }
+
+    boolean isDestroyed() {
+        return this.destroyed;
+    }
+
+    /**
+     * Overwrite the key schedule inside a Mac, as far as its provider lets
+     * us: re-initializing replaces the derived key pads.
+     */
+    private static void scrub(Mac mac) {
+        try {
+            mac.init(NO_KEY);
+        } catch (GeneralSecurityException e) {
+            mac.reset();
+        }
+    }
+
+    /**
+     * A SecretKey whose bytes we can zero (SecretKeySpec keeps a private
+     * copy that can't be).
+     */
+    private static final class RawKey implements SecretKey {
+        private static final long serialVersionUID = 1L;
+
+        final byte[] bytes;
+
+        RawKey(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        public String getAlgorithm() {
+            return HMAC_SHA256;
+        }
+
+        public String getFormat() {
+            return "RAW";
+        }
+
+        public byte[] getEncoded() {
+            return this.bytes.clone();
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.goinstant.auth;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Per-thread scratch space for building a token.
+ *
+ * Claims are written as JSON into {@link #json}, then base64url-encoded into
+ * the token array right after the header, so a sign() allocates nothing but
+ * the resulting String once the buffers have warmed up.
+ * <br>
+ * Buffers that grew very large (e.g. for a user with thousands of groups)
+ * are dropped on release rather than pinned to the thread forever.
+ */
+final class TokenBuffer {
+    private static final int INITIAL_JSON = 512;
+    private static final int INITIAL_TOKEN = 1024;
+    private static final int MAX_RETAINED = 64 * 1024;
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private static final byte[] BASE64URL = (
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_"
+    ).getBytes(US_ASCII);
+
+    private static final ThreadLocal<TokenBuffer> LOCAL = new ThreadLocal<TokenBuffer>() {
+        @Override
+        protected TokenBuffer initialValue() {
+            return new TokenBuffer();
+        }
+    };
+
+    /**
+     * The JSON payload being built.
+     */
+    final JsonWriter json = new JsonWriter(INITIAL_JSON);
+
+    /**
+     * HMAC-SHA256 output.
+     */
+    private final byte[] signature = new byte[32];
+
+    private byte[] token = new byte[INITIAL_TOKEN];
+    private int length;
+    private boolean inUse;
+
+    /**
+     * Borrow this thread's buffer.  If it's already in use (a User
+     * implementation that signs from inside a getter) a throw-away buffer is
+     * returned instead.
+     */
+    static TokenBuffer acquire() {
+        TokenBuffer buf = LOCAL.get();
+        if (buf.inUse) {
+            buf = new TokenBuffer();
+        }
+        buf.inUse = true;
+        buf.json.reset();
+        buf.length = 0;
+        return buf;
+    }
+
+    /**
+     * Give the buffer back.
+     */
+    void release() {
+        this.inUse = false;
+        if (this.json.capacity() > MAX_RETAINED || this.token.length > MAX_RETAINED) {
+            LOCAL.remove();
+        }
+    }
+
+    byte[] token() {
+        return this.token;
+    }
+
+    byte[] signature() {
+        return this.signature;
+    }
+
+    int length() {
+        return this.length;
+    }
+
+    private void ensure(int extra) {
+        int needed = this.length + extra;
+        if (needed > this.token.length) {
+            byte[] grown = new byte[Math.max(needed, this.token.length * 2)];
+            System.arraycopy(this.token, 0, grown, 0, this.length);
+            this.token = grown;
+        }
+    }
+
+    /**
+     * Make room for extra more bytes, so a token of known size is built
+     * without copying.
+     */
+    void reserve(int extra) {
+        ensure(extra);
+    }
+
+    void append(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, this.token, this.length, bytes.length);
+        this.length += bytes.length;
+    }
+
+    void append(int b) {
+        ensure(1);
+        this.token[this.length++] = (byte)b;
+    }
+
+    /**
+     * Append base64url (no padding) of the given bytes.
+     */
+    void appendBase64Url(byte[] src, int off, int count) {
+        ensure(encodedLength(count));
+        byte[] dst = this.token;
+        int d = this.length;
+        int end = off + count - count % 3;
+        int s = off;
+        while (s < end) {
+            int bits = (src[s++] & 0xFF) << 16 | (src[s++] & 0xFF) << 8 | (src[s++] & 0xFF);
+            dst[d++] = BASE64URL[(bits >>> 18) & 0x3F];
+            dst[d++] = BASE64URL[(bits >>> 12) & 0x3F];
+            dst[d++] = BASE64URL[(bits >>> 6) & 0x3F];
+            dst[d++] = BASE64URL[bits & 0x3F];
+        }
+        int rest = count % 3;
+        if (rest == 1) {
+            int bits = (src[s] & 0xFF) << 16;
+            dst[d++] = BASE64URL[(bits >>> 18) & 0x3F];
+            dst[d++] = BASE64URL[(bits >>> 12) & 0x3F];
+        } else if (rest == 2) {
+            int bits = (src[s] & 0xFF) << 16 | (src[s + 1] & 0xFF) << 8;
+            dst[d++] = BASE64URL[(bits >>> 18) & 0x3F];
+            dst[d++] = BASE64URL[(bits >>> 12) & 0x3F];
+            dst[d++] = BASE64URL[(bits >>> 6) & 0x3F];
+        }
+        this.length = d;
+    }
+
+    /**
+     * Length of unpadded base64url for count bytes.
+     */
+    static int encodedLength(int count) {
+        return (count / 3) * 4 + (count % 3 == 0 ? 0 : count % 3 + 1);
+    }
+
+    /**
+     * Copy the token into a ByteBuffer, all or nothing.
+     *
+     * @return the number of bytes written.
+     */
+    int writeTo(ByteBuffer out) {
+        if (out.remaining() < this.length) {
+            throw new BufferOverflowException();
+        }
+        out.put(this.token, 0, this.length);
+        return this.length;
+    }
+
+    /**
+     * Write the token to a stream.
+     *
+     * @return the number of bytes written.
+     */
+    int writeTo(OutputStream out) throws IOException {
+        out.write(this.token, 0, this.length);
+        return this.length;
+    }
+
+    /**
+     * Append the token as characters.
+     *
+     * StringBuilder and StringBuffer (both final) copy the characters they're
+     * given, so they get a view of the buffer.  Anything else might keep the
+     * CharSequence after this buffer has been reused for another token, so it
+     * gets a String; a Writer's append() would have made one anyway.
+     *
+     * @return the number of characters appended.
+     */
+    int appendTo(Appendable out) throws IOException {
+        if (out instanceof StringBuilder || out instanceof StringBuffer) {
+            out.append(new AsciiChars(this.token, 0, this.length));
+        } else {
+            out.append(toString());
+        }
+        return this.length;
+    }
+
+    /**
+     * US-ASCII bytes as a CharSequence, without copying them.
+     */
+    static final class AsciiChars implements CharSequence {
+        private final byte[] bytes;
+        private final int offset;
+        private final int length;
+
+        AsciiChars(byte[] bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public int length() {
+            return this.length;
+        }
+
+        public char charAt(int index) {
+            if (index < 0 || index >= this.length) {
+                throw new IndexOutOfBoundsException(String.valueOf(index));
+            }
+            return (char)this.bytes[this.offset + index];
+        }
+
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > this.length || start > end) {
+                throw new IndexOutOfBoundsException(start + ".." + end);
+            }
+            return new AsciiChars(this.bytes, this.offset + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(this.bytes, this.offset, this.length, US_ASCII);
+        }
+    }
+
+    /**
+     * The token built so far, as a String.
+     */
+    @Override
+    public String toString() {
+        return new String(this.token, 0, this.length, US_ASCII);
+    }
+}
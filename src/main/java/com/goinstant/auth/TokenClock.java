@@ -0,0 +1,57 @@
+package com.goinstant.auth;
+
+/**
+ * Where token timestamps (<code>iat</code>, <code>exp</code>) come from.
+ *
+ * Claims are in whole seconds, so the system clock is read by a single
+ * background thread a few times a second and signers just read the cached
+ * value.
+ */
+abstract class TokenClock {
+    /**
+     * Current time, in seconds since the epoch.
+     */
+    abstract long seconds();
+
+    /**
+     * The shared clock; its thread starts the first time it's read.
+     */
+    static TokenClock system() {
+        return Ticking.CLOCK;
+    }
+
+    /**
+     * Cached System.currentTimeMillis(), refreshed by a daemon thread.
+     */
+    private static final class Ticking extends TokenClock implements Runnable {
+        static final Ticking CLOCK = new Ticking();
+
+        /**
+         * Well under a second, so timestamps are never more than this late.
+         */
+        private static final long TICK_MILLIS = 200;
+
+        private volatile long seconds = System.currentTimeMillis() / 1000;
+
+        private Ticking() {
+            Thread thread = new Thread(this, "goinstant-token-clock");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        long seconds() {
+            return this.seconds;
+        }
+
+        public void run() {
+            while (true) {
+                try {
+                    Thread.sleep(TICK_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                this.seconds = System.currentTimeMillis() / 1000;
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.goinstant.auth;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Signs many users that differ only in their id, display name and a few
+ * custom claims.
+ *
+ * The claims JSON for the parts every user shares (domain, audience,
+ * groups, fixed custom claims) is validated and serialized once, when the
+ * template is built.  Each token then costs writing the variable values
+ * between the pre-built pieces, plus the base64 and HMAC.
+ * <pre>
+ *   PlainUser prototype = new PlainUser("-", "example.com", null, tenantGroups);
+ *   TokenTemplate template = new TokenTemplate(signer, prototype, "avatarUrl");
+ *   String token = template.sign(userId, displayName, avatarUrl);
+ * </pre>
+ * Tokens are identical to what {@link Signer#sign(User)} makes for the
+ * equivalent User.  A template is immutable and thread-safe.
+ */
+public class TokenTemplate {
+    /**
+     * Custom claims that can't vary: these registered claims are written
+     * differently (or not at all) depending on their value, which would
+     * change the claim order.
+     */
+    private final static Set<String> FIXED_ONLY_CLAIMS;
+    static {
+        Set<String> n = new HashSet<String>();
+        n.add("exp");
+        n.add("nbf");
+        n.add("iat");
+        n.add("jti");
+        n.add("typ");
+        FIXED_ONLY_CLAIMS = n;
+    };
+
+    private final Signer signer;
+    private final String[] variableClaims;
+
+    /**
+     * The Signer's token lifetime when this was built.
+     */
+    private final long lifetime;
+
+    /**
+     * Number of groups and custom claims in every token, for SignerMetrics
+     * and SignListeners.
+     */
+    private final int groupCount;
+    private final int customClaimCount;
+
+    /**
+     * Pre-built JSON, with slots for the id, display name, variable claims
+     * (by index) and, with a token lifetime, iat and exp.
+     */
+    private final ClaimsPieces pieces;
+
+    /**
+     * Build a template from the fixed parts of a User.
+     *
+     * The prototype's domain, groups and custom claims (other than
+     * variableClaims) are baked into every token; its id and display name
+     * are ignored.  If the Signer has a token lifetime, it's fixed now:
+     * changing it later doesn't affect this template.
+     *
+     * @param signer signs the tokens.
+     * @param prototype a user with the shared domain, groups and custom claims.
+     * @param variableClaims names of the custom claims that vary per user, in
+     *   the order their values are passed to {@link #sign(String, String, Object...)}.
+     *
+     * @throws IllegalArgumentException if the prototype has bad values or
+     *   reserved custom properties, or a variable claim is reserved or one of
+     *   exp, nbf, iat, jti or typ.
+     */
+    public TokenTemplate(Signer signer, User prototype, String... variableClaims) {
+        this.signer = signer;
+        this.variableClaims = variableClaims.clone();
+        this.lifetime = signer.lifetimeSeconds();
+        this.groupCount = prototype.getGroups().size();
+
+        // Placeholders with characters no real claim value is likely to
+        // contain; we check each one turns up exactly once.
+        String marker = "\u0000goinstant-template-" + System.identityHashCode(this) + "-";
+        Map<String,Object> custom = new HashMap<String,Object>(prototype.getCustomClaims());
+        Set<String> seen = new HashSet<String>();
+        for (int i = 0; i < this.variableClaims.length; i++) {
+            String name = this.variableClaims[i];
+            if (name == null || FIXED_ONLY_CLAIMS.contains(name)) {
+                throw new IllegalArgumentException("The '"+name+"' claim cannot vary in a TokenTemplate");
+            }
+            if (!seen.add(name)) {
+                throw new IllegalArgumentException("The '"+name+"' claim is listed twice");
+            }
+            custom.put(name, marker + i); // reserved names are rejected below
+        }
+
+        PlainUser user = new PlainUser(marker + "id", prototype.getDomain(),
+            marker + "dn", prototype.getGroups());
+        if (!custom.isEmpty()) {
+            user.setCustomClaims(custom);
+        }
+
+        JsonWriter json = new JsonWriter(512);
+        int[] timeSlots = new int[4];
+        if (this.lifetime > 0) {
+            ClaimsWriter.writeUserClaims(json, user,
+                ClaimsPieces.PLACEHOLDER_TIME, ClaimsPieces.PLACEHOLDER_TIME, timeSlots);
+        } else {
+            ClaimsWriter.writeUserClaims(json, user,
+                ClaimsWriter.NO_TIME, ClaimsWriter.NO_TIME, timeSlots);
+        }
+
+        ClaimsPieces.Builder pieces = new ClaimsPieces.Builder(json)
+            .string(marker + "id", ClaimsPieces.SLOT_ID)
+            .string(marker + "dn", ClaimsPieces.SLOT_DN);
+        for (int i = 0; i < this.variableClaims.length; i++) {
+            pieces.string(marker + i, i);
+        }
+        // iat and exp too, unless the prototype fixed them
+        this.pieces = pieces.times(timeSlots).build();
+        this.customClaimCount = custom.size();
+    }
+
+    /**
+     * Names of the custom claims that vary per user.
+     */
+    public List<String> getVariableClaims() {
+        return Collections.unmodifiableList(Arrays.asList(this.variableClaims));
+    }
+
+    /**
+     * Create a signed JWT token for one user.
+     *
+     * @param id the user's permanent identifier.
+     * @param displayName the user's visible name (null means use the id).
+     * @param values the variable custom claims' values, in the order they
+     *   were named when building the template.
+     *
+     * @throws IllegalArgumentException if id or displayName is empty, or the
+     *   wrong number of values is given.
+     *
+     * @return signed token if successful, null otherwise.
+     */
+    public String sign(String id, String displayName, Object... values) {
+        SignerMetrics metrics = this.signer.getMetrics();
+        SignListener listener = this.signer.getSignListener();
+        Object context = listener != null ? listener.beforeSign() : null;
+        long start = (metrics != null || context != null) ? System.nanoTime() : 0;
+
+        TokenBuffer buf = TokenBuffer.acquire();
+        try {
+            boolean ok;
+            try {
+                ok = build(id, displayName, values, buf);
+            } catch (RuntimeException e) {
+                Signer.observe(metrics, listener, context, start, id, -1, -1,
+                    variant(), buf, false, e);
+                throw e;
+            }
+            Signer.observe(metrics, listener, context, start, id, this.groupCount,
+                this.customClaimCount, variant(), buf, ok, null);
+            return ok ? buf.toString() : null;
+        } finally {
+            buf.release();
+        }
+    }
+
+    private String variant() {
+        return this.signer.getKeyID() != null
+            ? SignListener.HEADER_KEY_ID
+            : SignListener.HEADER_DEFAULT;
+    }
+
+    private boolean build(String id, String displayName, Object[] values, TokenBuffer buf) {
+        ClaimsWriter.checkIdAndDn(id, displayName);
+        if (values.length != this.variableClaims.length) {
+            throw new IllegalArgumentException("expected " + this.variableClaims.length
+                + " claim values, got " + values.length);
+        }
+        String dn = displayName != null ? displayName : id;
+
+        byte[] prefix = this.signer.defaultPrefix();
+        this.signer.limit(prefix, buf);
+        long now = this.lifetime > 0 ? this.signer.clock().seconds() : 0;
+        this.pieces.write(buf.json, id, dn, values, now, now + this.lifetime);
+        return this.signer.finish(prefix, buf);
+    }
+}
@@ -0,0 +1,27 @@
+package com.goinstant.auth;
+
+/**
+ * Thrown when a token would be bigger than the Signer's
+ * {@link Signer#setMaxTokenSize(int) maximum token size}.
+ *
+ * It's an IllegalArgumentException, like the Signer's other complaints about
+ * users; catch this one to handle oversized users (say, by dropping their
+ * groups) differently.
+ */
+public class TokenTooLargeException extends IllegalArgumentException {
+    private static final long serialVersionUID = 1L;
+
+    private final int maxTokenSize;
+
+    TokenTooLargeException(int maxTokenSize) {
+        super("Token would be larger than the maximum of " + maxTokenSize + " bytes");
+        this.maxTokenSize = maxTokenSize;
+    }
+
+    /**
+     * The limit that was exceeded, in bytes.
+     */
+    public int getMaxTokenSize() {
+        return this.maxTokenSize;
+    }
+}
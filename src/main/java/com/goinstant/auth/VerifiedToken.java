@@ -0,0 +1,130 @@
+package com.goinstant.auth;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import net.minidev.json.JSONObject;
+import net.minidev.json.JSONValue;
+
+import com.nimbusds.jose.util.Base64URL;
+
+/**
+ * A token whose signature {@link Verifier} has checked.
+ *
+ * The claims aren't decoded until one of them is asked for, so checking that
+ * a token is genuine costs just the HMAC.
+ */
+public final class VerifiedToken {
+    private final String token;
+    private final int headerEnd;
+    private final int payloadEnd;
+
+    private volatile Map<String,Object> claims;
+
+    VerifiedToken(String token, int headerEnd, int payloadEnd) {
+        this.token = token;
+        this.headerEnd = headerEnd;
+        this.payloadEnd = payloadEnd;
+    }
+
+    /**
+     * The token, exactly as verified.
+     */
+    public String getToken() {
+        return this.token;
+    }
+
+    /**
+     * Every claim in the token, decoded on first use.
+     *
+     * @return an unmodifiable map of claim name to JSON value.
+     *
+     * @throws IllegalStateException if the (correctly signed) payload isn't
+     *   a JSON object.
+     */
+    public Map<String,Object> getClaims() {
+        Map<String,Object> claims = this.claims;
+        if (claims == null) {
+            String json = new Base64URL(
+                this.token.substring(this.headerEnd + 1, this.payloadEnd)
+            ).decodeToString();
+            Object parsed = JSONValue.parse(json);
+            if (!(parsed instanceof JSONObject)) {
+                throw new IllegalStateException("token payload is not a JSON object");
+            }
+            claims = Collections.unmodifiableMap((JSONObject)parsed);
+            this.claims = claims;
+        }
+        return claims;
+    }
+
+    /**
+     * A single claim, or null if it's not present.
+     */
+    public Object getClaim(String name) {
+        return getClaims().get(name);
+    }
+
+    /**
+     * The user's id (the <code>sub</code> claim).
+     */
+    public String getSubject() {
+        return stringClaim("sub");
+    }
+
+    /**
+     * The user's domain (the <code>iss</code> claim).
+     */
+    public String getIssuer() {
+        return stringClaim("iss");
+    }
+
+    /**
+     * The user's display name (the <code>dn</code> claim).
+     */
+    public String getDisplayName() {
+        return stringClaim("dn");
+    }
+
+    /**
+     * The user's groups (the <code>g</code> claim), each a map with at least
+     * <code>id</code> and <code>dn</code>.  Empty if there are none.
+     */
+    @SuppressWarnings("unchecked")
+    public List<Map<String,Object>> getGroups() {
+        Object groups = getClaims().get("g");
+        if (!(groups instanceof List)) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList((List<Map<String,Object>>)groups);
+    }
+
+    /**
+     * When the token expires (the <code>exp</code> claim), in seconds since
+     * the epoch, or null if it never does.
+     */
+    public Long getExpirationTime() {
+        Object value = getClaims().get("exp");
+        return value instanceof Number ? Long.valueOf(((Number)value).longValue()) : null;
+    }
+
+    /**
+     * Whether the token's <code>exp</code> has passed.  Tokens without one
+     * never expire.
+     */
+    public boolean isExpired() {
+        Long exp = getExpirationTime();
+        return exp != null && TokenClock.system().seconds() >= exp.longValue();
+    }
+
+    private String stringClaim(String name) {
+        Object value = getClaims().get(name);
+        return value instanceof String ? (String)value : null;
+    }
+
+    @Override
+    public String toString() {
+        return this.token;
+    }
+}
@@ -0,0 +1,255 @@
+package com.goinstant.auth;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.crypto.Mac;
+
+import net.minidev.json.JSONObject;
+import net.minidev.json.JSONValue;
+
+import com.nimbusds.jose.util.Base64URL;
+
+/**
+ * Checks tokens made by a {@link Signer} with the same secret key.
+ *
+ * Only HS256 tokens are accepted.  The signature is checked over the raw
+ * token characters with a per-thread HMAC and compared in constant time; the
+ * claims are decoded only if you ask the {@link VerifiedToken} for them.
+ * <br>
+ * A small cache remembers recently verified tokens, so the same token
+ * presented again (as happens on every request of a session) skips the HMAC.
+ * A Verifier is thread-safe.
+ * <br>
+ * Only the signature is checked; use {@link VerifiedToken#isExpired()} for
+ * tokens from a Signer with a token lifetime.
+ */
+public class Verifier {
+    /**
+     * Number of recently verified tokens remembered by default.
+     */
+    public static final int DEFAULT_CACHE_SIZE = 1024;
+
+    /**
+     * Length of a base64url HMAC-SHA256.
+     */
+    private static final int SIGNATURE_LENGTH = TokenBuffer.encodedLength(32);
+
+    private final ThreadMac mac;
+
+    /**
+     * The header a Signer with the same key ID writes when there are no
+     * extra headers; recognized without decoding it.
+     */
+    private final String header;
+
+    /**
+     * Direct-mapped by token hash; null if caching is off.
+     */
+    private final AtomicReferenceArray<VerifiedToken> recent;
+
+    /**
+     * Creates a Verifier with a base64 or base64url encoded secret key.
+     *
+     * @param secretKey your GoInstant application secret key
+     *
+     * @throws java.lang.IllegalArgumentException if the base64 is invalid or too short
+     */
+    public Verifier(String secretKey) {
+        this(secretKey, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Creates a Verifier with a base64 or base64url encoded secret key.
+     *
+     * @param secretKey your GoInstant application secret key
+     * @param cacheSize roughly how many recently verified tokens to remember
+     *   (rounded up to a power of two); 0 turns the cache off.
+     *
+     * @throws java.lang.IllegalArgumentException if the base64 is invalid or too short
+     */
+    public Verifier(String secretKey, int cacheSize) {
+        this(secretKey, null, cacheSize);
+    }
+
+    /**
+     * Creates a Verifier for the tokens of a <code>new Signer(secretKey,
+     * keyID)</code>.
+     *
+     * Tokens with other headers (or no <code>kid</code>) still verify, just
+     * a little slower.
+     *
+     * @param secretKey your GoInstant application secret key
+     * @param keyID the Signer's key ID, or null.
+     * @param cacheSize roughly how many recently verified tokens to remember
+     *   (rounded up to a power of two); 0 turns the cache off.
+     *
+     * @throws java.lang.IllegalArgumentException if the base64 is invalid or too short
+     */
+    public Verifier(String secretKey, String keyID, int cacheSize) {
+        byte[] binaryKey = Signer.parseKey(secretKey);
+        if (binaryKey.length < 32) {
+            throw new IllegalArgumentException(
+                "secretKey is too short (must be >= 32 bytes after decoding)"
+            );
+        }
+        if (cacheSize < 0) {
+            throw new IllegalArgumentException("cacheSize must not be negative");
+        }
+
+        this.mac = new ThreadMac(binaryKey);
+        Arrays.fill(binaryKey, (byte)0);
+        this.header = headerSegment(keyID);
+        if (cacheSize == 0) {
+            this.recent = null;
+        } else {
+            int slots = cacheSize > (1 << 29)
+                ? 1 << 30
+                : Integer.highestOneBit(Math.max(1, cacheSize - 1)) << 1;
+            this.recent = new AtomicReferenceArray<VerifiedToken>(slots);
+        }
+    }
+
+    /**
+     * Check a token's signature.
+     *
+     * @param token a compact JWS, as returned by {@link Signer#sign(User)}.
+     *
+     * @return the verified token, or null if it's malformed, not HS256, or
+     *   its signature doesn't match.
+     */
+    public VerifiedToken verify(String token) {
+        if (token == null) {
+            return null;
+        }
+
+        int slot = -1;
+        if (this.recent != null) {
+            int h = token.hashCode();
+            slot = (h ^ (h >>> 16)) & (this.recent.length() - 1);
+            VerifiedToken cached = this.recent.get(slot);
+            if (cached != null && sameToken(cached.getToken(), token)) {
+                return cached;
+            }
+        }
+
+        int headerEnd = token.indexOf('.');
+        int payloadEnd = token.indexOf('.', headerEnd + 1);
+        if (headerEnd <= 0 || payloadEnd < 0
+            || token.length() - payloadEnd - 1 != SIGNATURE_LENGTH
+            || !isHS256(token, headerEnd))
+        {
+            return null;
+        }
+
+        if (!checkSignature(token, payloadEnd)) {
+            return null;
+        }
+
+        VerifiedToken verified = new VerifiedToken(token, headerEnd, payloadEnd);
+        if (slot >= 0) {
+            this.recent.set(slot, verified);
+        }
+        return verified;
+    }
+
+    /**
+     * Whether a token's signature is good.
+     *
+     * @see #verify(String)
+     */
+    public boolean isValid(String token) {
+        return verify(token) != null;
+    }
+
+    /**
+     * Forget every recently verified token.
+     */
+    public void clearCache() {
+        if (this.recent != null) {
+            for (int i = 0; i < this.recent.length(); i++) {
+                this.recent.set(i, null);
+            }
+        }
+    }
+
+    /**
+     * Whether a token is the cached one, without bailing out at the first
+     * difference: the cached token is valid, and the one being checked may
+     * be an attacker's guess at it, so how long this takes mustn't say how
+     * much of the guess was right.
+     */
+    private static boolean sameToken(String cached, String token) {
+        if (cached.length() != token.length()) {
+            return false;
+        }
+        int diff = 0;
+        for (int i = 0; i < cached.length(); i++) {
+            diff |= cached.charAt(i) ^ token.charAt(i);
+        }
+        return diff == 0;
+    }
+
+    /**
+     * The base64url header (without the '.') Signer writes for this key ID.
+     */
+    static String headerSegment(String keyID) {
+        byte[] prefix = Signer.prefixFor(keyID);
+        char[] header = new char[prefix.length - 1];
+        for (int i = 0; i < header.length; i++) {
+            header[i] = (char)prefix[i];
+        }
+        return new String(header);
+    }
+
+    /**
+     * The header must say HS256.
+     */
+    private boolean isHS256(String token, int headerEnd) {
+        if (headerEnd == this.header.length() && token.startsWith(this.header)) {
+            return true;
+        }
+        try {
+            Object header = JSONValue.parse(
+                new Base64URL(token.substring(0, headerEnd)).decodeToString());
+            return header instanceof JSONObject
+                && "HS256".equals(((JSONObject)header).get("alg"));
+        } catch (RuntimeException e) { // not base64 or not JSON
+            return false;
+        }
+    }
+
+    private boolean checkSignature(String token, int payloadEnd) {
+        TokenBuffer buf = TokenBuffer.acquire();
+        try {
+            for (int i = 0; i < payloadEnd; i++) {
+                char c = token.charAt(i);
+                if (c > 0x7F) {
+                    return false; // a real token is all base64url
+                }
+                buf.append(c);
+            }
+
+            Mac mac = this.mac.get();
+            mac.update(buf.token(), 0, buf.length());
+            byte[] signature = buf.signature();
+            mac.doFinal(signature, 0);
+
+            // compare the encoded forms, without bailing out early
+            int start = buf.length();
+            buf.appendBase64Url(signature, 0, signature.length);
+            byte[] expected = buf.token();
+            int diff = 0;
+            for (int i = 0; i < SIGNATURE_LENGTH; i++) {
+                diff |= expected[start + i] ^ token.charAt(payloadEnd + 1 + i);
+            }
+            return diff == 0;
+
+        } catch (GeneralSecurityException e) { // some crypto problem
+            return false;
+        } finally {
+            buf.release();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.goinstant.auth;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Unit tests for Signer.signAsync() and SigningExecutor.
+ */
+public class AsyncSignerTest {
+
+    static final String sharedKey = SignerTest.sharedKey;
+
+    private static PlainUser makeUser() {
+        return new PlainUser("bar", "example.com", "Bob");
+    }
+
+    @Test
+    public void testSameToken() throws Exception {
+        Signer signer = new Signer(sharedKey);
+        PlainUser user = makeUser();
+        assertEquals(signer.sign(user), signer.signAsync(user).get(5, TimeUnit.SECONDS));
+
+        Map<String,Object> headers = new HashMap<String,Object>();
+        headers.put("kid", "key-1");
+        assertEquals(signer.sign(user, headers),
+            signer.signAsync(user, headers).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testValidationError() throws Exception {
+        Signer signer = new Signer(sharedKey);
+        Future<String> future = signer.signAsync(new PlainUser("", "example.com"));
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+    }
+
+    @Test
+    public void testCallback() throws Exception {
+        Signer signer = new Signer(sharedKey);
+        final CountDownLatch done = new CountDownLatch(2);
+        final AtomicReference<String> token = new AtomicReference<String>();
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+        signer.signAsync(makeUser(), null, new SignCallback() {
+            public void onSuccess(String t) {
+                token.set(t);
+                done.countDown();
+            }
+            public void onFailure(Throwable e) {
+                done.countDown();
+            }
+        });
+        signer.signAsync(new PlainUser("bar", ""), null, new SignCallback() {
+            public void onSuccess(String t) {
+                done.countDown();
+            }
+            public void onFailure(Throwable e) {
+                error.set(e);
+                done.countDown();
+            }
+        });
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(signer.sign(makeUser()), token.get());
+        assertTrue(error.get() instanceof IllegalArgumentException);
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        SigningExecutor executor = SigningExecutor.threadPool(1, 2);
+        try {
+            Signer signer = new Signer(sharedKey);
+            signer.setAsyncExecutor(executor);
+            assertSame(executor, signer.getAsyncExecutor());
+
+            // occupy the only thread, then fill the backlog
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            Future<String> queued = signer.signAsync(makeUser());
+            assertTrue(executor.isSaturated());
+            assertEquals(2, executor.getPendingCount());
+
+            try {
+                signer.signAsync(makeUser());
+                fail("expected RejectedExecutionException");
+            } catch (RejectedExecutionException e) {
+                // expected
+            }
+
+            release.countDown();
+            assertEquals(signer.sign(makeUser()), queued.get(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testDelegateRejection() {
+        SigningExecutor executor = new SigningExecutor(new Executor() {
+            public void execute(Runnable r) {
+                throw new RejectedExecutionException("no");
+            }
+        }, 1);
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                executor.execute(new Runnable() {
+                    public void run() {
+                    }
+                });
+                fail("expected RejectedExecutionException");
+            } catch (RejectedExecutionException e) {
+                assertEquals("no", e.getMessage()); // the permit came back
+            }
+        }
+        assertEquals(0, executor.getPendingCount());
+    }
+
+    @Test
+    public void testVirtualThreads() throws Exception {
+        if (!SigningExecutor.isVirtualThreadsSupported()) {
+            try {
+                SigningExecutor.virtualThreads(16);
+                fail("expected UnsupportedOperationException");
+            } catch (UnsupportedOperationException e) {
+                // expected on older JDKs
+            }
+            return;
+        }
+
+        SigningExecutor executor = SigningExecutor.virtualThreads(16);
+        try {
+            Signer signer = new Signer(sharedKey);
+            signer.setAsyncExecutor(executor);
+            assertEquals(signer.sign(makeUser()),
+                signer.signAsync(makeUser()).get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testBadBound() {
+        SigningExecutor.threadPool(1, 0);
+    }
+}
@@ -0,0 +1,133 @@
+package com.goinstant.auth;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Unit tests for Signer.signAll().
+ */
+public class BatchSignerTest {
+
+    static final String sharedKey = SignerTest.sharedKey;
+
+    /**
+     * 1000 users; every 100th has no id.
+     */
+    private static List<User> makeUsers() {
+        List<User> users = new ArrayList<User>();
+        for (int i = 0; i < 1000; i++) {
+            String id = (i % 100 == 7) ? "" : "user" + i;
+            users.add(new PlainUser(id, "example.com", "User " + i));
+        }
+        return users;
+    }
+
+    private static void assertResults(Signer signer, List<User> users, List<SignedToken> results) {
+        assertEquals(users.size(), results.size());
+        for (int i = 0; i < users.size(); i++) {
+            SignedToken result = results.get(i);
+            assertSame(users.get(i), result.getUser());
+            if (i % 100 == 7) {
+                assertFalse(result.isSuccess());
+                assertNull(result.getToken());
+                assertTrue(result.getError() instanceof IllegalArgumentException);
+            } else {
+                assertTrue(result.isSuccess());
+                assertNull(result.getError());
+                assertEquals(signer.sign(users.get(i)), result.getToken());
+            }
+        }
+    }
+
+    @Test
+    public void testDefaultPool() {
+        Signer signer = new Signer(sharedKey);
+        List<User> users = makeUsers();
+        assertResults(signer, users, signer.signAll(users));
+    }
+
+    @Test
+    public void testForkJoinPool() {
+        Signer signer = new Signer(sharedKey);
+        List<User> users = makeUsers();
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            assertResults(signer, users, signer.signAll(users, pool));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testExecutorService() {
+        Signer signer = new Signer(sharedKey);
+        List<User> users = makeUsers();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            assertResults(signer, users, signer.signAll(users, executor));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * The calling thread does all the work if the executor won't.
+     */
+    @Test
+    public void testRejectingExecutor() {
+        Signer signer = new Signer(sharedKey);
+        List<User> users = makeUsers();
+        Executor rejecting = new Executor() {
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        };
+        assertResults(signer, users, signer.signAll(users, rejecting));
+    }
+
+    @Test
+    public void testExtraHeaders() {
+        Signer signer = new Signer(sharedKey);
+        Map<String,Object> headers = new HashMap<String,Object>();
+        headers.put("kid", "key-1");
+        User user = new PlainUser("bar", "example.com");
+
+        List<SignedToken> results = signer.signAll(
+            Collections.singletonList(user), headers, BatchSigner.defaultPool());
+        assertEquals(signer.sign(user, headers), results.get(0).getToken());
+    }
+
+    @Test
+    public void testEmpty() {
+        Signer signer = new Signer(sharedKey);
+        assertTrue(signer.signAll(new ArrayList<User>()).isEmpty());
+    }
+
+    @Test
+    public void testTrySign() {
+        Signer signer = new Signer(sharedKey);
+        PlainUser good = new PlainUser("bar", "example.com", "bob");
+        SignedToken result = signer.trySign(good);
+        assertTrue(result.isSuccess());
+        assertSame(good, result.getUser());
+        assertEquals(signer.sign(good), result.getToken());
+
+        PlainUser bad = new PlainUser("bar", "example.com", "bob");
+        bad.setCustomClaim("sub", "nope");
+        result = signer.trySign(bad);
+        assertFalse(result.isSuccess());
+        assertNull(result.getToken());
+        assertTrue(result.getError() instanceof IllegalArgumentException);
+    }
+}
@@ -0,0 +1,153 @@
+package com.goinstant.auth;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Unit tests for CachingSigner.
+ */
+public class CachingSignerTest {
+
+    static final String sharedKey = SignerTest.sharedKey;
+    static final String otherKey = "AAAAFdnezle2yrI2_Ph3cHz144bISk-cvuAbeAAA999";
+
+    private static PlainUser makeUser(String id) {
+        TreeSet<Group> groups = new TreeSet<Group>();
+        groups.add(new PlainGroup("42", "Meaning Group"));
+        return new PlainUser(id, "example.com", "bob", groups);
+    }
+
+    @Test
+    public void testHit() {
+        Signer signer = new Signer(sharedKey);
+        CachingSigner cache = new CachingSigner(signer, 10);
+
+        String token = cache.sign(makeUser("bar"));
+        assertEquals(signer.sign(makeUser("bar")), token);
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // an equal, but different, user object
+        assertSame(token, cache.sign(makeUser("bar")));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testDifferentUsers() {
+        CachingSigner cache = new CachingSigner(new Signer(sharedKey), 10);
+        String bar = cache.sign(makeUser("bar"));
+        String baz = cache.sign(makeUser("baz"));
+        assertFalse(bar.equals(baz));
+        assertEquals(2, cache.getMissCount());
+
+        PlainUser renamed = new PlainUser("bar", "example.com", "robert");
+        assertFalse(bar.equals(cache.sign(renamed)));
+        assertEquals(3, cache.getMissCount());
+    }
+
+    @Test
+    public void testMutatedClaims() {
+        Signer signer = new Signer(sharedKey);
+        CachingSigner cache = new CachingSigner(signer, 10);
+
+        PlainUser user = makeUser("bar");
+        List<Object> roles = new ArrayList<Object>();
+        roles.add("reader");
+        Map<String,Object> claims = new HashMap<String,Object>();
+        claims.put("roles", roles);
+        user.setCustomClaims(claims);
+        String before = cache.sign(user);
+
+        roles.add("writer");
+        String after = cache.sign(user);
+        assertFalse(before.equals(after));
+        assertEquals(signer.sign(user), after);
+        assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    public void testExtraHeaders() {
+        CachingSigner cache = new CachingSigner(new Signer(sharedKey), 10);
+        Map<String,Object> headers = new HashMap<String,Object>();
+        headers.put("kid", "key-1");
+
+        String plain = cache.sign(makeUser("bar"));
+        String withKid = cache.sign(makeUser("bar"), headers);
+        assertFalse(plain.equals(withKid));
+        assertSame(withKid, cache.sign(makeUser("bar"), headers));
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testUncacheable() {
+        Signer signer = new Signer(sharedKey);
+        CachingSigner cache = new CachingSigner(signer, 10);
+
+        PlainUser user = makeUser("bar");
+        Map<String,Object> claims = new HashMap<String,Object>();
+        claims.put("since", new Date(0));
+        user.setCustomClaims(claims);
+
+        assertEquals(signer.sign(user), cache.sign(user));
+        cache.sign(user);
+        assertEquals(0, cache.getHitCount());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testEviction() {
+        CachingSigner cache = new CachingSigner(new Signer(sharedKey), 2);
+        cache.sign(makeUser("a"));
+        cache.sign(makeUser("b"));
+        cache.sign(makeUser("c"));
+        assertTrue(cache.size() <= 2);
+
+        CachingSigner lru = new CachingSigner(new Signer(sharedKey), 1);
+        lru.sign(makeUser("a"));
+        lru.sign(makeUser("b"));
+        lru.sign(makeUser("a"));
+        assertEquals(0, lru.getHitCount());
+        assertEquals(1, lru.size());
+    }
+
+    @Test
+    public void testTTL() throws Exception {
+        CachingSigner cache = new CachingSigner(new Signer(sharedKey), 10, 20, TimeUnit.MILLISECONDS);
+        cache.sign(makeUser("bar"));
+        cache.sign(makeUser("bar"));
+        assertEquals(1, cache.getHitCount());
+
+        Thread.sleep(50);
+        cache.sign(makeUser("bar"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void testSetSigner() {
+        CachingSigner cache = new CachingSigner(new Signer(sharedKey), 10);
+        String before = cache.sign(makeUser("bar"));
+
+        Signer other = new Signer(otherKey);
+        cache.setSigner(other);
+        assertEquals(0, cache.size());
+        String after = cache.sign(makeUser("bar"));
+        assertFalse(before.equals(after));
+        assertEquals(other.sign(makeUser("bar")), after);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testInvalidUser() {
+        CachingSigner cache = new CachingSigner(new Signer(sharedKey), 10);
+        cache.sign(new PlainUser(null, "example.com"));
+    }
+}
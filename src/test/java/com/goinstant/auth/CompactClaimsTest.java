@@ -0,0 +1,241 @@
+package com.goinstant.auth;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Unit tests for CompactClaims and how PlainUser/PlainGroup store claims.
+ */
+public class CompactClaimsTest {
+
+    static final String sharedKey = SignerTest.sharedKey;
+
+    private static Map<String,Object> someClaims(int count) {
+        Map<String,Object> claims = new HashMap<String,Object>();
+        for (int i = 0; i < count; i++) {
+            claims.put("claim" + i, i % 2 == 0 ? (Object)("v" + i) : Integer.valueOf(i));
+        }
+        return claims;
+    }
+
+    private static List<String> keys(Map<String,?> map) {
+        return new ArrayList<String>(map.keySet());
+    }
+
+    @Test
+    public void testMapContract() {
+        CompactClaims claims = new CompactClaims();
+        assertTrue(claims.isEmpty());
+        assertNull(claims.put("a", "1"));
+        assertNull(claims.put("b", null));
+        assertNull(claims.put(null, "nothing"));
+        assertEquals("1", claims.put("a", "one"));
+
+        assertEquals(3, claims.size());
+        assertEquals("one", claims.get("a"));
+        assertTrue(claims.containsKey("b"));
+        assertNull(claims.get("b"));
+        assertEquals("nothing", claims.get(null));
+        assertFalse(claims.containsKey("c"));
+        assertTrue(claims.containsValue("one"));
+
+        Map<String,Object> same = new HashMap<String,Object>();
+        same.put("a", "one");
+        same.put("b", null);
+        same.put(null, "nothing");
+        assertEquals(same, claims);
+        assertEquals(claims, same);
+        assertEquals(same.hashCode(), claims.hashCode());
+
+        assertEquals("nothing", claims.remove(null));
+        assertNull(claims.remove("missing"));
+        assertEquals(2, claims.size());
+        claims.clear();
+        assertTrue(claims.isEmpty());
+        assertNull(claims.get("a"));
+    }
+
+    @Test
+    public void testInsertionOrder() {
+        CompactClaims claims = new CompactClaims();
+        for (int i = 0; i < 20; i++) {
+            claims.put("k" + i, Integer.valueOf(i));
+        }
+        claims.remove("k3");
+        claims.put("k0", "replaced"); // stays first
+        claims.put("k3", "back");     // goes last
+
+        List<String> expected = new ArrayList<String>();
+        expected.add("k0");
+        for (int i = 1; i < 20; i++) {
+            if (i != 3) {
+                expected.add("k" + i);
+            }
+        }
+        expected.add("k3");
+        assertEquals(expected, keys(claims));
+
+        Map<String,Object> source = someClaims(9);
+        assertEquals(keys(source), keys(new CompactClaims(source)));
+    }
+
+    @Test
+    public void testCopy() {
+        Map<String,Object> source = someClaims(200);
+        CompactClaims copy = new CompactClaims(source);
+        assertEquals(source, copy);
+        assertEquals(keys(source), keys(copy));
+        copy.put("claim1", "replaced");
+        assertEquals(200, copy.size());
+
+        // a map whose size() is behind its entries, as if it grew mid-copy
+        final Map<String,Object> grown = someClaims(3);
+        Map<String,Object> stale = new AbstractMap<String,Object>() {
+            public Set<Map.Entry<String,Object>> entrySet() {
+                return grown.entrySet();
+            }
+
+            @Override
+            public int size() {
+                return 1;
+            }
+        };
+        assertEquals(grown, new CompactClaims(stale));
+        assertEquals(grown, new CompactClaims(new CompactClaims(grown)));
+    }
+
+    @Test
+    public void testCopyOf() {
+        Map<String,Object> small = someClaims(CompactClaims.MAX_COMPACT);
+        Map<String,Object> copy = CompactClaims.copyOf(small);
+        assertTrue(copy instanceof CompactClaims);
+        assertEquals(keys(small), keys(copy));
+
+        Map<String,Object> large = someClaims(CompactClaims.MAX_COMPACT + 1);
+        copy = CompactClaims.copyOf(large);
+        assertTrue(copy instanceof LinkedHashMap);
+        assertEquals(large, copy);
+        assertEquals(keys(large), keys(copy));
+    }
+
+    @Test
+    public void testIteratorWrites() {
+        CompactClaims claims = new CompactClaims(someClaims(6));
+        Iterator<Map.Entry<String,Object>> it = claims.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String,Object> entry = it.next();
+            if (entry.getValue() instanceof Integer) {
+                it.remove();
+            } else {
+                entry.setValue("x");
+            }
+        }
+        assertEquals(3, claims.size());
+        for (Object value : claims.values()) {
+            assertEquals("x", value);
+        }
+
+        claims.keySet().remove("claim0");
+        assertFalse(claims.containsKey("claim0"));
+        claims.values().clear();
+        assertTrue(claims.isEmpty());
+    }
+
+    @Test(expected=ConcurrentModificationException.class)
+    public void testConcurrentModification() {
+        CompactClaims claims = new CompactClaims(someClaims(3));
+        for (String key : claims.keySet()) {
+            claims.put(key + "-new", "v");
+        }
+    }
+
+    @Test
+    public void testPlainThingKeepsCallersMap() throws Exception {
+        Map<String,Object> claims = someClaims(5);
+        PlainUser user = new PlainUser("bar", "example.com", "bob");
+        user.setCustomClaims(claims);
+        claims.put("later", "seen");
+
+        assertSame(claims, user.getCustomClaims());
+        assertEquals("seen", user.getCustomClaims().get("later"));
+        String token = new Signer(sharedKey).sign(user);
+        assertEquals("seen", new Verifier(sharedKey).verify(token).getClaim("later"));
+
+        user.setCustomClaims(new HashMap<String,Object>());
+        assertTrue(user.getCustomClaims().isEmpty());
+        user.setCustomClaim("email", "bob@example.com");
+        assertTrue(user.getCustomClaims() instanceof CompactClaims);
+        assertEquals("bob@example.com", user.getCustomClaims().get("email"));
+
+        user.setCustomClaims(claims);
+        user.setCustomClaim("email", "bob@example.com");
+        assertSame(claims, user.getCustomClaims());
+        assertEquals("bob@example.com", claims.get("email"));
+
+        CompactClaims compact = new CompactClaims(claims);
+        user.setCustomClaims(compact);
+        assertSame(compact, user.getCustomClaims());
+    }
+
+    @Test
+    public void testSameTokens() throws Exception {
+        Signer signer = new Signer(sharedKey);
+        for (int count = 1; count < 40; count += 7) {
+            Set<Group> groups = new TreeSet<Group>();
+            PlainGroup group = new PlainGroup("1234", "Group");
+            group.setCustomClaims(new CompactClaims(someClaims(count)));
+            groups.add(group);
+
+            PlainUser user = new PlainUser("bar", "example.com", "bob", groups);
+            user.setCustomClaims(new CompactClaims(someClaims(count)));
+
+            // the same claims in a HashMap
+            PlainUser hashMapUser = new PlainUser("bar", "example.com", "bob", groups);
+            hashMapUser.setCustomClaims(someClaims(count));
+
+            String expected = TokenCompatibilityTest.legacySign(sharedKey, hashMapUser, null);
+            assertEquals(expected, signer.sign(hashMapUser));
+            assertEquals(expected, signer.sign(user));
+            assertEquals(expected, signer.sign(user.freeze()));
+        }
+    }
+
+    /**
+     * A CompactClaims nested as a claim value is written like any other Map.
+     */
+    @Test
+    public void testNestedSameTokens() throws Exception {
+        Signer signer = new Signer(sharedKey);
+        Map<String,Object> nested = new LinkedHashMap<String,Object>();
+        nested.put("b", "x");
+        nested.put("a", Integer.valueOf(1));
+        nested.put("c", Arrays.asList("y", Boolean.TRUE));
+
+        PlainUser user = new PlainUser("bar", "example.com");
+        Map<String,Object> claims = new HashMap<String,Object>();
+        claims.put("nested", nested);
+        user.setCustomClaims(claims);
+        String expected = signer.sign(user);
+
+        claims.put("nested", new CompactClaims(nested));
+        user.setCustomClaims(claims);
+        assertEquals(expected, signer.sign(user));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testNegativeCapacity() {
+        new CompactClaims(-1);
+    }
+}
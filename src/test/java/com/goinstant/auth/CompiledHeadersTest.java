@@ -0,0 +1,113 @@
+package com.goinstant.auth;
+
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Unit tests for compiled and cached extra headers.
+ */
+public class CompiledHeadersTest {
+
+    static final String sharedKey = SignerTest.sharedKey;
+
+    private static PlainUser makeUser() {
+        return new PlainUser("bar", "example.com", "Bob");
+    }
+
+    private static Map<String,Object> makeHeaders() {
+        Map<String,Object> headers = new HashMap<String,Object>();
+        headers.put("kid", "key-1");
+        headers.put("cty", "JWT");
+        return headers;
+    }
+
+    @Test
+    public void testCompiled() throws Exception {
+        Signer signer = new Signer(sharedKey);
+        Map<String,Object> headers = makeHeaders();
+        CompiledHeaders compiled = signer.compileHeaders(headers);
+
+        String expected = TokenCompatibilityTest.legacySign(sharedKey, makeUser(), headers);
+        assertEquals(expected, signer.signWith(makeUser(), compiled));
+        assertEquals(expected, signer.sign(makeUser(), headers));
+        assertTrue(expected.startsWith(compiled.toString() + "."));
+
+        // no extra headers compiles to the signer's own header
+        assertEquals(signer.sign(makeUser()),
+            signer.signWith(makeUser(), signer.compileHeaders(null)));
+    }
+
+    @Test
+    public void testKeyID() throws Exception {
+        Signer signer = new Signer(sharedKey, "key-1");
+        Map<String,Object> cty = new HashMap<String,Object>();
+        cty.put("cty", "JWT");
+        assertEquals(TokenCompatibilityTest.legacySign(sharedKey, makeUser(), makeHeaders()),
+            signer.signWith(makeUser(), signer.compileHeaders(cty)));
+    }
+
+    @Test
+    public void testCache() throws Exception {
+        Signer signer = new Signer(sharedKey);
+        Map<String,Object> headers = makeHeaders();
+        String first = signer.sign(makeUser(), headers);
+        assertEquals(first, signer.sign(makeUser(), makeHeaders()));
+        assertEquals(1, signer.cachedHeaderCount());
+
+        // the cache kept a copy, so changing the map changes the token
+        headers.put("kid", "key-2");
+        String second = signer.sign(makeUser(), headers);
+        assertNotEquals(first, second);
+        assertEquals(TokenCompatibilityTest.legacySign(sharedKey, makeUser(), headers), second);
+        assertEquals(2, signer.cachedHeaderCount());
+    }
+
+    @Test
+    public void testCacheIsBounded() {
+        Signer signer = new Signer(sharedKey);
+        for (int i = 0; i < 1000; i++) {
+            Map<String,Object> headers = new HashMap<String,Object>();
+            headers.put("kid", "key-" + i);
+            assertNotNull(signer.sign(makeUser(), headers));
+        }
+        assertTrue(signer.cachedHeaderCount() <= 64);
+    }
+
+    @Test
+    public void testUncacheableValues() throws Exception {
+        Signer signer = new Signer(sharedKey);
+        Map<String,Object> headers = new HashMap<String,Object>();
+        headers.put("jku", new URL("https://example.com/keys"));
+        assertEquals(TokenCompatibilityTest.legacySign(sharedKey, makeUser(), headers),
+            signer.sign(makeUser(), headers));
+        assertEquals(0, signer.cachedHeaderCount());
+    }
+
+    /**
+     * Uncacheable values are spotted before the map is hashed.
+     */
+    @Test
+    public void testUncacheableValuesNotHashed() {
+        Signer signer = new Signer(sharedKey);
+        Map<String,Object> headers = new HashMap<String,Object>();
+        headers.put("x-odd", new Object() {
+            @Override
+            public int hashCode() {
+                throw new AssertionError("hashed");
+            }
+        });
+        assertNotNull(signer.sign(makeUser(), headers));
+        assertEquals(0, signer.cachedHeaderCount());
+    }
+
+    @Test(expected=ClassCastException.class)
+    public void testWrongType() {
+        Map<String,Object> headers = new HashMap<String,Object>();
+        headers.put("kid", Integer.valueOf(1));
+        new Signer(sharedKey).compileHeaders(headers);
+    }
+}
@@ -0,0 +1,197 @@
+package com.goinstant.auth;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Unit tests for token lifetimes and expiry-aware caching.
+ */
+public class ExpiryTest {
+
+    static final String sharedKey = SignerTest.sharedKey;
+
+    static final long NOW = 1400000000L;
+
+    /**
+     * A clock that only moves when told to.
+     */
+    static final class FixedClock extends TokenClock {
+        volatile long seconds = NOW;
+
+        long seconds() {
+            return this.seconds;
+        }
+    }
+
+    /**
+     * Runs background work right away, so tests can see it.
+     */
+    static final Executor DIRECT = new Executor() {
+        public void execute(Runnable task) {
+            task.run();
+        }
+    };
+
+    private static Signer makeSigner(FixedClock clock) {
+        Signer signer = new Signer(sharedKey);
+        signer.setClock(clock);
+        signer.setTokenLifetime(1, TimeUnit.HOURS);
+        signer.setAsyncExecutor(DIRECT);
+        return signer;
+    }
+
+    private static PlainUser makeUser(boolean withGroups) {
+        TreeSet<Group> groups = new TreeSet<Group>();
+        if (withGroups) {
+            groups.add(new PlainGroup("42", "Meaning Group"));
+        }
+        return new PlainUser("bar", "example.com", "Bob", groups);
+    }
+
+    /**
+     * The same user, with iat and exp set the old way.
+     */
+    private static PlainUser withTimes(PlainUser user, Map<String,Object> claims, long iat, long exp) {
+        PlainUser copy = new PlainUser(user.getID(), user.getDomain(), user.getDisplayName(),
+            user.getGroups());
+        Map<String,Object> all = new HashMap<String,Object>(claims);
+        all.put("iat", new Date(iat * 1000));
+        all.put("exp", new Date(exp * 1000));
+        copy.setCustomClaims(all);
+        return copy;
+    }
+
+    @Test
+    public void testClaims() throws Exception {
+        Signer signer = makeSigner(new FixedClock());
+        assertEquals(1, signer.getTokenLifetime(TimeUnit.HOURS));
+
+        for (boolean withGroups : new boolean[] { false, true }) {
+            PlainUser user = makeUser(withGroups);
+            Map<String,Object> none = new HashMap<String,Object>();
+            assertEquals(TokenCompatibilityTest.legacySign(sharedKey,
+                    withTimes(user, none, NOW, NOW + 3600), null),
+                signer.sign(user));
+
+            Map<String,Object> claims = new HashMap<String,Object>();
+            claims.put("color", "red");
+            user.setCustomClaims(claims);
+            assertEquals(TokenCompatibilityTest.legacySign(sharedKey,
+                    withTimes(user, claims, NOW, NOW + 3600), null),
+                signer.sign(user));
+        }
+    }
+
+    @Test
+    public void testUserTimesWin() throws Exception {
+        Signer signer = makeSigner(new FixedClock());
+        PlainUser user = makeUser(true);
+        Map<String,Object> claims = new HashMap<String,Object>();
+        claims.put("exp", new Date(NOW * 1000 + 60000));
+        user.setCustomClaims(claims);
+
+        Map<String,Object> both = new HashMap<String,Object>(claims);
+        both.put("iat", new Date(NOW * 1000));
+        PlainUser expected = makeUser(true);
+        expected.setCustomClaims(both);
+        assertEquals(TokenCompatibilityTest.legacySign(sharedKey, expected, null),
+            signer.sign(user));
+    }
+
+    @Test
+    public void testRoundedUp() {
+        Signer signer = new Signer(sharedKey);
+        assertEquals(0, signer.getTokenLifetime(TimeUnit.SECONDS));
+        signer.setTokenLifetime(1500, TimeUnit.MILLISECONDS);
+        assertEquals(2, signer.getTokenLifetime(TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testVerifiedExpiry() {
+        FixedClock clock = new FixedClock();
+        Signer signer = makeSigner(clock);
+        VerifiedToken verified = new Verifier(sharedKey).verify(signer.sign(makeUser(false)));
+        assertEquals(Long.valueOf(NOW + 3600), verified.getExpirationTime());
+        assertTrue(verified.isExpired()); // NOW is in the past
+
+        signer.setClock(null);
+        verified = new Verifier(sharedKey).verify(signer.sign(makeUser(false)));
+        assertFalse(verified.isExpired());
+
+        verified = new Verifier(sharedKey).verify(new Signer(sharedKey).sign(makeUser(false)));
+        assertNull(verified.getExpirationTime());
+        assertFalse(verified.isExpired());
+    }
+
+    @Test
+    public void testTemplate() {
+        FixedClock clock = new FixedClock();
+        Signer signer = makeSigner(clock);
+        TokenTemplate template = new TokenTemplate(signer, makeUser(true));
+        assertEquals(signer.sign(makeUser(true)), template.sign("bar", "Bob"));
+        clock.seconds += 10;
+        assertEquals(signer.sign(makeUser(true)), template.sign("bar", "Bob"));
+    }
+
+    @Test
+    public void testReuseWhileFresh() {
+        FixedClock clock = new FixedClock();
+        Signer signer = makeSigner(clock);
+        CachingSigner caching = new CachingSigner(signer, 100);
+
+        String first = caching.sign(makeUser(true));
+        clock.seconds += 1800; // exactly half left
+        assertSame(first, caching.sign(makeUser(true)));
+        clock.seconds += 1;
+        String second = caching.sign(makeUser(true));
+        assertNotEquals(first, second);
+        assertEquals(1, caching.getHitCount());
+        assertEquals(2, caching.getMissCount());
+
+        caching.setMinRemainingLifetime(0, TimeUnit.SECONDS);
+        clock.seconds += 3600;
+        assertSame(second, caching.sign(makeUser(true)));
+        clock.seconds += 1;
+        assertNotEquals(second, caching.sign(makeUser(true)));
+    }
+
+    @Test
+    public void testLifetimeChange() {
+        Signer signer = makeSigner(new FixedClock());
+        CachingSigner caching = new CachingSigner(signer, 100);
+        String expiring = caching.sign(makeUser(false));
+        signer.setTokenLifetime(0, TimeUnit.SECONDS);
+        String forever = caching.sign(makeUser(false));
+        assertNotEquals(expiring, forever);
+        assertSame(forever, caching.sign(makeUser(false)));
+    }
+
+    @Test
+    public void testRefreshAhead() {
+        FixedClock clock = new FixedClock();
+        Signer signer = makeSigner(clock);
+        CachingSigner caching = new CachingSigner(signer, 100);
+        caching.setRefreshAhead(10, TimeUnit.MINUTES);
+
+        String first = caching.sign(makeUser(true));
+        clock.seconds += 600; // 50 minutes left, > 30 + 10
+        assertSame(first, caching.sign(makeUser(true)));
+        assertEquals(0, caching.getRefreshCount());
+
+        clock.seconds += 1200; // 30 minutes left: served, and refreshed behind it
+        assertSame(first, caching.sign(makeUser(true)));
+        assertEquals(1, caching.getRefreshCount());
+
+        String refreshed = caching.sign(makeUser(true));
+        assertNotEquals(first, refreshed);
+        assertEquals(signer.sign(makeUser(true)), refreshed);
+        assertEquals(1, caching.getMissCount()); // never had to sign inline again
+    }
+}
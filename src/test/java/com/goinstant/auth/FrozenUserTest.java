@@ -0,0 +1,197 @@
+package com.goinstant.auth;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Unit tests for FrozenUser and freeze().
+ */
+public class FrozenUserTest {
+
+    static final String sharedKey = SignerTest.sharedKey;
+
+    private static PlainUser makeUser() {
+        TreeSet<Group> groups = new TreeSet<Group>();
+        groups.add(new PlainGroup("42", "Meaning Group"));
+        PlainGroup custom = new PlainGroup("custom");
+        Map<String,Object> groupClaims = new HashMap<String,Object>();
+        groupClaims.put("color", "red");
+        custom.setCustomClaims(groupClaims);
+        groups.add(custom);
+
+        PlainUser user = new PlainUser("bar", "example.com", "Bob", groups);
+        Map<String,Object> claims = new HashMap<String,Object>();
+        claims.put("email", "bob@example.com");
+        claims.put("level", Integer.valueOf(9));
+        user.setCustomClaims(claims);
+        return user;
+    }
+
+    @Test
+    public void testSameTokens() {
+        Signer signer = new Signer(sharedKey);
+        PlainUser plain = makeUser();
+        FrozenUser frozen = plain.freeze();
+        assertEquals(signer.sign(plain), signer.sign(frozen));
+
+        PlainUser bare = new PlainUser("bar", "example.com");
+        assertEquals(signer.sign(bare), signer.sign(bare.freeze()));
+    }
+
+    @Test
+    public void testRandomUsers() {
+        Signer signer = new Signer(sharedKey);
+        Random random = new Random(4321);
+        for (int i = 0; i < 200; i++) {
+            Map<String,Object> claims = new HashMap<String,Object>();
+            int claimCount = random.nextInt(30);
+            for (int j = 0; j < claimCount; j++) {
+                String key = Integer.toString(random.nextInt(5000), 36);
+                if (key.equals("g") || key.equals("dn")) {
+                    continue;
+                }
+                claims.put(key, "v" + random.nextLong());
+            }
+            Set<Group> groups = new HashSet<Group>();
+            for (int j = random.nextInt(10); j > 0; j--) {
+                groups.add(new PlainGroup("g" + random.nextInt(1000)));
+            }
+            PlainUser user = new PlainUser("user" + i, "example.com", null, groups);
+            if (!claims.isEmpty()) {
+                user.setCustomClaims(claims);
+            }
+            assertEquals(signer.sign(user), signer.sign(user.freeze()));
+        }
+    }
+
+    @Test
+    public void testTimed() {
+        ExpiryTest.FixedClock clock = new ExpiryTest.FixedClock();
+        Signer signer = new Signer(sharedKey);
+        signer.setClock(clock);
+        signer.setTokenLifetime(10, TimeUnit.MINUTES);
+
+        PlainUser plain = makeUser();
+        FrozenUser frozen = plain.freeze();
+        assertEquals(signer.sign(plain), signer.sign(frozen));
+        clock.seconds += 5;
+        assertEquals(signer.sign(plain), signer.sign(frozen));
+
+        // the user's own exp wins
+        Map<String,Object> claims = new HashMap<String,Object>(plain.getCustomClaims());
+        claims.put("exp", new Date(ExpiryTest.NOW * 1000));
+        plain.setCustomClaims(claims);
+        assertEquals(signer.sign(plain), signer.sign(plain.freeze()));
+
+        // and it's still fine without a lifetime
+        signer.setTokenLifetime(0, TimeUnit.SECONDS);
+        assertEquals(signer.sign(makeUser()), signer.sign(frozen));
+    }
+
+    /**
+     * Claims that contain the digits the timed pieces used to be found by
+     * sign just as they do unfrozen.
+     */
+    @Test
+    public void testTimedClaimsLikeTimes() {
+        ExpiryTest.FixedClock clock = new ExpiryTest.FixedClock();
+        Signer signer = new Signer(sharedKey);
+        signer.setClock(clock);
+        signer.setTokenLifetime(10, TimeUnit.MINUTES);
+
+        PlainUser plain = makeUser();
+        Map<String,Object> claims = new HashMap<String,Object>(plain.getCustomClaims());
+        claims.put("phone", "+1 7365208431");
+        claims.put("account", Long.valueOf(7365208432L));
+        claims.put("zero", Integer.valueOf(0));
+        plain.setCustomClaims(claims);
+
+        FrozenUser frozen = plain.freeze();
+        assertEquals(signer.sign(plain), signer.sign(frozen));
+        clock.seconds += 5;
+        assertEquals(signer.sign(plain), signer.sign(frozen));
+    }
+
+    @Test
+    public void testCopied() {
+        PlainUser plain = makeUser();
+        FrozenUser frozen = plain.freeze();
+        Signer signer = new Signer(sharedKey);
+        String before = signer.sign(frozen);
+
+        plain.getCustomClaims().put("email", "eve@example.com");
+        plain.getGroups().clear();
+        assertEquals(before, signer.sign(frozen));
+        assertEquals("bob@example.com", frozen.getCustomClaims().get("email"));
+        assertEquals(2, frozen.getGroups().size());
+        for (Group group : frozen.getGroups()) {
+            assertTrue(group instanceof FrozenGroup);
+        }
+    }
+
+    @Test(expected=UnsupportedOperationException.class)
+    public void testUnmodifiableClaims() {
+        makeUser().freeze().getCustomClaims().put("x", "y");
+    }
+
+    @Test(expected=UnsupportedOperationException.class)
+    public void testUnmodifiableGroups() {
+        makeUser().freeze().getGroups().clear();
+    }
+
+    @Test
+    public void testValidatedUpFront() {
+        Map<String,Object> reserved = new HashMap<String,Object>();
+        reserved.put("sub", "nope");
+        PlainUser user = new PlainUser("bar", "example.com");
+        user.setCustomClaims(reserved);
+
+        User[] bad = {
+            new PlainUser("", "example.com"),
+            new PlainUser("bar", ""),
+            new PlainUser("bar", "example.com", ""),
+            user,
+        };
+        for (User u : bad) {
+            try {
+                new FrozenUser(u);
+                fail("expected IllegalArgumentException");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testFrozenGroup() {
+        PlainGroup plain = new PlainGroup("42", "Meaning Group");
+        FrozenGroup frozen = plain.freeze();
+        assertEquals(plain, frozen);
+        assertEquals("Meaning Group", frozen.getDisplayName());
+    }
+
+    @Test
+    public void testCaching() {
+        CachingSigner caching = new CachingSigner(new Signer(sharedKey), 100);
+        FrozenUser frozen = makeUser().freeze();
+        String first = caching.sign(frozen);
+        assertSame(first, caching.sign(frozen));
+        assertSame(first, caching.sign(new FrozenUser(frozen)));
+
+        Map<String,Object> headers = new HashMap<String,Object>();
+        headers.put("kid", "key-1");
+        String withKid = caching.sign(frozen, headers);
+        assertNotEquals(first, withKid);
+        assertSame(withKid, caching.sign(frozen, headers));
+        assertEquals(2, caching.getHitCount() - 1);
+    }
+}
@@ -0,0 +1,131 @@
+package com.goinstant.auth;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Unit tests for GroupRegistry and FrozenGroup.
+ */
+public class GroupRegistryTest {
+
+    static final String sharedKey = SignerTest.sharedKey;
+
+    private static Set<Group> plainGroups() {
+        TreeSet<Group> groups = new TreeSet<Group>();
+        groups.add(new PlainGroup("42", "Meaning Group"));
+        groups.add(new PlainGroup("1234"));
+        PlainGroup custom = new PlainGroup("custom", "Custom Group");
+        Map<String,Object> claims = new HashMap<String,Object>();
+        claims.put("aaa", "before dn");
+        claims.put("zzz", Integer.valueOf(1));
+        custom.setCustomClaims(claims);
+        groups.add(custom);
+        return groups;
+    }
+
+    @Test
+    public void testSameTokens() throws Exception {
+        GroupRegistry registry = new GroupRegistry();
+        Signer signer = new Signer(sharedKey);
+
+        PlainUser plain = new PlainUser("bar", "example.com", "bob", plainGroups());
+        PlainUser frozen = new PlainUser("bar", "example.com", "bob",
+            registry.intern(plainGroups()));
+
+        String expected = TokenCompatibilityTest.legacySign(sharedKey, plain, null);
+        assertEquals(expected, signer.sign(plain));
+        assertEquals(expected, signer.sign(frozen));
+    }
+
+    @Test
+    public void testInterning() {
+        GroupRegistry registry = new GroupRegistry();
+        FrozenGroup a = registry.intern(new PlainGroup("42", "Meaning Group"));
+        FrozenGroup b = registry.intern(new PlainGroup("42", "Meaning Group"));
+        FrozenGroup c = registry.intern(new PlainGroup("42", "Renamed Group"));
+        assertSame(a, b);
+        assertNotSame(a, c);
+        assertEquals(2, registry.size());
+
+        // equality stays on the ID, like PlainGroup
+        assertEquals(a, c);
+        assertEquals(a, new PlainGroup("42"));
+        assertEquals(0, a.compareTo(new PlainGroup("42")));
+
+        registry.clear();
+        assertEquals(0, registry.size());
+        assertNotSame(a, registry.intern(new PlainGroup("42", "Meaning Group")));
+    }
+
+    @Test
+    public void testInternSet() {
+        GroupRegistry registry = new GroupRegistry();
+        Set<Group> first = registry.intern(plainGroups());
+        Set<Group> second = registry.intern(plainGroups());
+        assertEquals(3, first.size());
+        assertEquals(3, registry.size());
+        for (Group group : first) {
+            assertTrue(group instanceof FrozenGroup);
+        }
+        assertEquals(first, second);
+        assertSame(PlainUser.NO_GROUPS, registry.intern((Set<Group>)null));
+    }
+
+    /**
+     * PlainGroups with the same id can share a HashSet; interning keeps
+     * every one, so the token doesn't lose any.
+     */
+    @Test
+    public void testInternSetKeepsSameIds() throws Exception {
+        GroupRegistry registry = new GroupRegistry();
+        Set<Group> groups = new HashSet<Group>();
+        groups.add(new PlainGroup("42", "Meaning Group"));
+        groups.add(new PlainGroup("42", "Renamed Group"));
+        groups.add(new PlainGroup("1234"));
+        assertEquals(3, groups.size());
+
+        Set<Group> interned = registry.intern(groups);
+        assertEquals(3, interned.size());
+
+        Signer signer = new Signer(sharedKey);
+        PlainUser plain = new PlainUser("bar", "example.com", "bob", groups);
+        PlainUser frozen = new PlainUser("bar", "example.com", "bob", interned);
+        assertEquals(signer.sign(plain), signer.sign(frozen));
+    }
+
+    @Test
+    public void testFrozenCopiesClaims() throws Exception {
+        Map<String,Object> claims = new HashMap<String,Object>();
+        claims.put("color", "red");
+        FrozenGroup group = new FrozenGroup("42", null, claims);
+        claims.put("color", "blue");
+
+        assertEquals("red", group.getCustomClaims().get("color"));
+        assertNull(group.getDisplayName());
+    }
+
+    @Test(expected=UnsupportedOperationException.class)
+    public void testFrozenIsUnmodifiable() {
+        Map<String,Object> claims = new HashMap<String,Object>();
+        claims.put("color", "red");
+        new FrozenGroup("42", null, claims).getCustomClaims().put("size", "xl");
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testValidatedUpFront() {
+        new GroupRegistry().intern(new PlainGroup(""));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testReservedClaim() {
+        Map<String,Object> claims = new HashMap<String,Object>();
+        claims.put("id", "nope");
+        new FrozenGroup("42", "Meaning Group", claims);
+    }
+}
@@ -0,0 +1,138 @@
+package com.goinstant.auth;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Unit tests for LazyToken.
+ */
+public class LazyTokenTest {
+
+    static final String sharedKey = SignerTest.sharedKey;
+
+    private static PlainUser makeUser() {
+        Set<Group> groups = new TreeSet<Group>();
+        groups.add(new PlainGroup("1234", "Group 1234"));
+        PlainGroup admins = new PlainGroup("42", "Admins");
+        admins.setCustomClaim("role", "admin");
+        groups.add(admins);
+        PlainUser user = new PlainUser("bar", "example.com", "bob", groups);
+        user.setCustomClaim("email", "bob@example.com");
+        return user;
+    }
+
+    @Test
+    public void testNotSignedUntilUsed() throws Exception {
+        SignerMetrics metrics = new SignerMetrics();
+        Signer signer = new Signer(sharedKey);
+        signer.setMetrics(metrics);
+        PlainUser user = makeUser();
+
+        LazyToken token = signer.signLazily(user);
+        assertFalse(token.isSigned());
+        assertEquals(0, metrics.snapshot().getSignCount());
+
+        String signed = token.toString();
+        assertTrue(token.isSigned());
+        assertEquals(TokenCompatibilityTest.legacySign(sharedKey, user, null), signed);
+        assertEquals(1, metrics.snapshot().getSignCount());
+
+        // remembered
+        assertSame(signed, token.toString());
+        assertSame(signed, token.get());
+        assertEquals(signed.length(), token.length());
+        assertEquals(signed.charAt(3), token.charAt(3));
+        assertEquals(signed.substring(2, 9), token.subSequence(2, 9).toString());
+        StringBuilder out = new StringBuilder("token=");
+        token.appendTo(out);
+        assertEquals("token=" + signed, out.toString());
+        assertEquals(1, metrics.snapshot().getSignCount());
+    }
+
+    @Test
+    public void testCharAtSigns() {
+        Signer signer = new Signer(sharedKey);
+        PlainUser user = makeUser();
+        LazyToken token = signer.signLazily(user);
+        assertEquals('e', token.charAt(0));
+        assertTrue(token.isSigned());
+        assertEquals(signer.sign(user), token.toString());
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        Signer signer = new Signer(sharedKey);
+        PlainUser user = makeUser();
+        String expected = TokenCompatibilityTest.legacySign(sharedKey, user, null);
+
+        LazyToken token = signer.signLazily(user);
+        user.setCustomClaim("email", "robert@example.com");
+        for (Group group : user.getGroups()) {
+            ((PlainGroup)group).setCustomClaim("role", "guest");
+        }
+        user.getGroups().clear();
+
+        assertEquals(expected, token.toString());
+    }
+
+    @Test
+    public void testFrozenUser() {
+        Signer signer = new Signer(sharedKey);
+        FrozenUser user = makeUser().freeze();
+        assertEquals(signer.sign(user), signer.signLazily(user).toString());
+    }
+
+    @Test
+    public void testValidationDeferred() {
+        Signer signer = new Signer(sharedKey);
+        PlainUser user = makeUser();
+        user.setCustomClaim("sub", "sneaky");
+
+        LazyToken token = signer.signLazily(user); // doesn't throw
+        for (int i = 0; i < 2; i++) {
+            try {
+                token.toString();
+                fail("expected IllegalArgumentException");
+            } catch (IllegalArgumentException e) {
+                // every time
+            }
+        }
+        assertFalse(token.isSigned());
+    }
+
+    @Test
+    public void testConcurrentUse() throws Exception {
+        SignerMetrics metrics = new SignerMetrics();
+        Signer signer = new Signer(sharedKey);
+        signer.setMetrics(metrics);
+        final LazyToken token = signer.signLazily(makeUser());
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<Future<String>>();
+            for (int i = 0; i < 32; i++) {
+                results.add(pool.submit(new Callable<String>() {
+                    public String call() {
+                        return token.toString();
+                    }
+                }));
+            }
+            String first = results.get(0).get();
+            for (Future<String> result : results) {
+                assertSame(first, result.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(1, metrics.snapshot().getSignCount());
+    }
+}
@@ -0,0 +1,134 @@
+package com.goinstant.auth;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Unit tests for RawJson claim values.
+ */
+public class RawJsonTest {
+
+    static final String sharedKey = SignerTest.sharedKey;
+
+    static final String PROFILE =
+        "{\"bio\":\"likes \\\"quotes\\\" and caf\u00e9s\",\"langs\":[\"en\",\"fr\"],\"age\":42.5e0}";
+
+    private static PlainUser makeUser() {
+        PlainGroup group = new PlainGroup("1234", "Group");
+        group.setCustomClaim("perms", new RawJson("[\"read\", \"write\"]"));
+        Set<Group> groups = new TreeSet<Group>();
+        groups.add(group);
+
+        PlainUser user = new PlainUser("bar", "example.com", "bob", groups);
+        user.setCustomClaim("profile", new RawJson(PROFILE));
+        List<Object> mixed = new ArrayList<Object>();
+        mixed.add("plain");
+        mixed.add(new RawJson(" null "));
+        user.setCustomClaim("mixed", mixed);
+        return user;
+    }
+
+    @Test
+    public void testSameTokens() throws Exception {
+        PlainUser user = makeUser();
+        String expected = TokenCompatibilityTest.legacySign(sharedKey, user, null);
+        assertEquals(expected, new Signer(sharedKey).sign(user));
+        assertEquals(expected, new Signer(sharedKey).sign(user.freeze()));
+    }
+
+    @Test
+    public void testSplicedVerbatim() {
+        Signer signer = new Signer(sharedKey);
+        VerifiedToken token = new Verifier(sharedKey).verify(signer.sign(makeUser()));
+        assertNotNull(token);
+
+        @SuppressWarnings("unchecked")
+        Map<String,Object> profile = (Map<String,Object>)token.getClaim("profile");
+        assertEquals("likes \"quotes\" and caf\u00e9s", profile.get("bio"));
+        assertEquals(2, ((List<?>)profile.get("langs")).size());
+
+        List<?> mixed = (List<?>)token.getClaim("mixed");
+        assertEquals("plain", mixed.get(0));
+        assertNull(mixed.get(1));
+
+        List<?> groups = (List<?>)token.getClaim("g");
+        Map<?,?> group = (Map<?,?>)groups.get(0);
+        assertEquals(2, ((List<?>)group.get("perms")).size());
+    }
+
+    @Test
+    public void testValid() {
+        String[] valid = {
+            "0", "-0.5", "1e10", "2E-3", "true", "false", "null", "\"\"",
+            "\"\\u00e9\\n\\/\"", "\"\\uABcd\"", "[]", "{}", " [ 1 , { \"a\" : [ ] } ] ",
+            "\r\n\t{\"a\":null}\n"
+        };
+        for (String json : valid) {
+            assertEquals(json, new RawJson(json).toJSONString());
+        }
+    }
+
+    @Test
+    public void testInvalid() {
+        String[] invalid = {
+            "", " ", "01", "1.", ".5", "-", "1e", "+1", "NaN", "tru", "nul",
+            "'a'", "\"unterminated", "\"bad \\x escape\"", "\"\\u12\"",
+            "\"tab\there\"", "[1,]", "[1 2]", "{\"a\" 1}", "{a:1}", "{\"a\":1,}",
+            "{\"a\":1}}", "{\"a\":1},\"sub\":\"admin\"", "1,\"sub\":\"admin\"",
+            "[1] x", "\"\\u\uff10\uff10\uff10\uff10\"", "\"\\u00\u0660\u0660\""
+        };
+        for (String json : invalid) {
+            try {
+                new RawJson(json);
+                fail("accepted " + json);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testDepthLimit() {
+        StringBuilder deep = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            deep.append('[');
+        }
+        try {
+            new RawJson(deep.toString());
+            fail("accepted deep nesting");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("deeply"));
+        }
+    }
+
+    @Test
+    public void testUnvalidated() throws Exception {
+        RawJson trusted = new RawJson("{\"fast\":true}", false);
+        assertEquals("{\"fast\":true}", trusted.toString());
+        assertEquals(new RawJson("{\"fast\":true}"), trusted);
+        assertEquals(new RawJson("{\"fast\":true}").hashCode(), trusted.hashCode());
+        assertFalse(trusted.equals(new RawJson("{\"fast\": true}")));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testNull() {
+        new RawJson(null, false);
+    }
+
+    @Test
+    public void testCacheable() {
+        CachingSigner cache = new CachingSigner(new Signer(sharedKey), 10);
+        String first = cache.sign(makeUser());
+        assertSame(first, cache.sign(makeUser()));
+
+        PlainUser changed = makeUser();
+        changed.setCustomClaim("profile", new RawJson("{}"));
+        assertFalse(first.equals(cache.sign(changed)));
+    }
+}
@@ -0,0 +1,118 @@
+package com.goinstant.auth;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Unit tests for SignListener.
+ */
+public class SignListenerTest {
+
+    static final String sharedKey = SignerTest.sharedKey;
+
+    /**
+     * Records every afterSign() as a string; skips every other sign when
+     * picky.
+     */
+    static class Recorder implements SignListener {
+        final List<String> events = new ArrayList<String>();
+        boolean picky;
+        int before;
+
+        public synchronized Object beforeSign() {
+            this.before++;
+            return (this.picky && this.before % 2 == 0) ? null : Integer.valueOf(this.before);
+        }
+
+        public synchronized void afterSign(Object context, String userID, int groups,
+            int customClaims, String headerVariant, int payloadBytes, boolean signed,
+            RuntimeException error)
+        {
+            assertTrue(signed ? payloadBytes > 0 : payloadBytes == -1);
+            this.events.add(context + " " + userID + " " + groups + " " + customClaims + " "
+                + headerVariant + " " + signed
+                + (error != null ? " " + error.getClass().getSimpleName() : ""));
+        }
+    }
+
+    private static PlainUser makeUser(String id) {
+        Set<Group> groups = new TreeSet<Group>();
+        groups.add(new PlainGroup("1234"));
+        groups.add(new PlainGroup("42"));
+        PlainUser user = new PlainUser(id, "example.com", "bob", groups);
+        user.setCustomClaim("email", "bob@example.com");
+        return user;
+    }
+
+    @Test
+    public void testEvents() {
+        Recorder listener = new Recorder();
+        Signer signer = new Signer(sharedKey);
+        signer.setSignListener(listener);
+        assertSame(listener, signer.getSignListener());
+
+        signer.sign(makeUser("a"));
+        Map<String,Object> headers = new HashMap<String,Object>();
+        headers.put("cty", "JWT");
+        signer.sign(makeUser("b"), headers);
+        new Signer(sharedKey, "key-1").sign(makeUser("ignored"));
+
+        Signer keyed = new Signer(sharedKey, "key-1");
+        keyed.setSignListener(listener);
+        keyed.signWith(makeUser("c"), keyed.compileHeaders(headers));
+        keyed.sign(makeUser("d"));
+
+        PlainUser reserved = makeUser("e");
+        reserved.setCustomClaim("sub", "nope");
+        try {
+            signer.sign(reserved);
+            fail("reserved claim accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        List<String> expected = new ArrayList<String>();
+        expected.add("1 a 2 1 default true");
+        expected.add("2 b 2 1 extra true");
+        expected.add("3 c 2 1 extra true");
+        expected.add("4 d 2 1 kid true");
+        expected.add("5 e -1 -1 default false IllegalArgumentException");
+        assertEquals(expected, listener.events);
+
+        signer.setSignListener(null);
+        signer.sign(makeUser("f"));
+        assertEquals(5, listener.before);
+    }
+
+    @Test
+    public void testSkipped() {
+        Recorder listener = new Recorder();
+        listener.picky = true;
+        Signer signer = new Signer(sharedKey);
+        signer.setSignListener(listener);
+        for (int i = 0; i < 4; i++) {
+            assertNotNull(signer.sign(makeUser("u" + i)));
+        }
+        assertEquals(4, listener.before);
+        assertEquals(2, listener.events.size());
+        assertTrue(listener.events.get(1).startsWith("3 u2 "));
+    }
+
+    @Test
+    public void testTemplate() {
+        Recorder listener = new Recorder();
+        Signer signer = new Signer(sharedKey);
+        signer.setSignListener(listener);
+
+        TokenTemplate template = new TokenTemplate(signer, makeUser("proto"), "color");
+        template.sign("42", null, "red");
+        assertEquals("1 42 2 2 default true", listener.events.get(0));
+    }
+}
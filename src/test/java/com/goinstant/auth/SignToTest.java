@@ -0,0 +1,121 @@
+package com.goinstant.auth;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Unit tests for Signer.signTo().
+ */
+public class SignToTest {
+
+    static final String sharedKey = SignerTest.sharedKey;
+
+    private static PlainUser makeUser() {
+        TreeSet<Group> groups = new TreeSet<Group>();
+        groups.add(new PlainGroup("42", "Meaning Group"));
+        return new PlainUser("bar", "example.com", "Bob", groups);
+    }
+
+    private static Map<String,Object> makeHeaders() {
+        Map<String,Object> headers = new HashMap<String,Object>();
+        headers.put("kid", "key-1");
+        return headers;
+    }
+
+    @Test
+    public void testByteBuffer() throws Exception {
+        Signer signer = new Signer(sharedKey);
+        String expected = signer.sign(makeUser());
+
+        for (ByteBuffer out : new ByteBuffer[] { ByteBuffer.allocate(2048), ByteBuffer.allocateDirect(2048) }) {
+            out.put((byte)'>');
+            int written = signer.signTo(makeUser(), out);
+            assertEquals(expected.length(), written);
+            assertEquals(1 + written, out.position());
+
+            out.flip();
+            byte[] bytes = new byte[out.remaining()];
+            out.get(bytes);
+            assertEquals(">" + expected, new String(bytes, "US-ASCII"));
+        }
+    }
+
+    @Test
+    public void testByteBufferTooSmall() {
+        Signer signer = new Signer(sharedKey);
+        ByteBuffer out = ByteBuffer.allocate(10);
+        try {
+            signer.signTo(makeUser(), out);
+            fail("expected BufferOverflowException");
+        } catch (BufferOverflowException e) {
+            assertEquals(0, out.position()); // nothing written
+        }
+    }
+
+    @Test
+    public void testOutputStream() throws Exception {
+        Signer signer = new Signer(sharedKey);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int written = signer.signTo(makeUser(), makeHeaders(), out);
+        assertEquals(signer.sign(makeUser(), makeHeaders()), out.toString("US-ASCII"));
+        assertEquals(out.size(), written);
+    }
+
+    @Test
+    public void testAppendable() throws Exception {
+        Signer signer = new Signer(sharedKey);
+        StringBuilder builder = new StringBuilder("Bearer ");
+        int written = signer.signTo(makeUser(), builder);
+        assertEquals("Bearer " + signer.sign(makeUser()), builder.toString());
+        assertEquals(builder.length() - 7, written);
+
+        StringWriter writer = new StringWriter();
+        signer.signTo(makeUser(), makeHeaders(), writer);
+        assertEquals(signer.sign(makeUser(), makeHeaders()), writer.toString());
+    }
+
+    /**
+     * An Appendable that keeps what it's given mustn't see the buffer change
+     * under it when the next token is signed.
+     */
+    @Test
+    public void testRetainingAppendable() throws Exception {
+        final List<CharSequence> kept = new ArrayList<CharSequence>();
+        Appendable keeper = new Appendable() {
+            public Appendable append(CharSequence csq) {
+                kept.add(csq);
+                return this;
+            }
+
+            public Appendable append(CharSequence csq, int start, int end) {
+                return append(csq.subSequence(start, end));
+            }
+
+            public Appendable append(char c) {
+                return append(String.valueOf(c));
+            }
+        };
+        Signer signer = new Signer(sharedKey);
+        String expected = signer.sign(makeUser());
+        signer.signTo(makeUser(), keeper);
+        signer.signTo(new PlainUser("someone-else", "example.com", "Eve"), keeper);
+
+        assertEquals(2, kept.size());
+        assertEquals(expected, kept.get(0).toString());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testValidation() throws Exception {
+        new Signer(sharedKey).signTo(new PlainUser("", "example.com"), new StringBuilder());
+    }
+}
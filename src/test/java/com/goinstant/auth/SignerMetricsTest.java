@@ -0,0 +1,204 @@
+package com.goinstant.auth;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Unit tests for SignerMetrics.
+ */
+public class SignerMetricsTest {
+
+    static final String sharedKey = SignerTest.sharedKey;
+
+    private static PlainUser makeUser(String id, int groupCount) {
+        Set<Group> groups = new TreeSet<Group>();
+        for (int i = 0; i < groupCount; i++) {
+            groups.add(new PlainGroup("g" + i));
+        }
+        return new PlainUser(id, "example.com", "User " + id, groups);
+    }
+
+    @Test
+    public void testCounts() {
+        Signer signer = new Signer(sharedKey);
+        SignerMetrics metrics = new SignerMetrics();
+        assertNull(signer.getMetrics());
+        signer.setMetrics(metrics);
+        assertSame(metrics, signer.getMetrics());
+
+        String zero = signer.sign(makeUser("a", 0));
+        signer.sign(makeUser("b", 3));
+        signer.sign(makeUser("c", 12));
+        signer.signAll(java.util.Arrays.asList(makeUser("d", 0), makeUser("e", 0)));
+
+        PlainUser reserved = makeUser("f", 0);
+        reserved.setCustomClaim("sub", "nope");
+        try {
+            signer.sign(reserved);
+            fail("reserved claim accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        signer.signAll(java.util.Collections.singletonList(new PlainUser("", "example.com")));
+
+        SignerMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(5, snapshot.getSignCount());
+        assertEquals(2, snapshot.getRejectedCount());
+        assertEquals(0, snapshot.getCryptoFailureCount());
+        assertEquals(0, snapshot.getErrorCount());
+
+        assertEquals(5, snapshot.getLatency().getCount());
+        assertEquals(3, snapshot.getLatency(0).getCount());
+        assertEquals(1, snapshot.getLatency(5).getCount());
+        assertEquals(1, snapshot.getLatencyByGroups().get("10-99").getCount());
+        assertEquals(0, snapshot.getLatencyByGroups().get("1000+").getCount());
+
+        assertEquals(zero.length(), snapshot.getTokenSize(0).getMax());
+        assertTrue(snapshot.getTokenSize(12).getMax() > zero.length());
+        assertTrue(snapshot.getLatency().getMax() > 0);
+
+        metrics.reset();
+        assertEquals(0, metrics.snapshot().getSignCount());
+        assertEquals(0, metrics.snapshot().getLatency().getCount());
+
+        signer.setMetrics(null);
+        signer.sign(makeUser("a", 0));
+        assertEquals(0, metrics.snapshot().getSignCount());
+    }
+
+    @Test
+    public void testTemplate() {
+        Signer signer = new Signer(sharedKey);
+        SignerMetrics metrics = new SignerMetrics();
+        signer.setMetrics(metrics);
+
+        TokenTemplate template = new TokenTemplate(signer, makeUser("proto", 4));
+        String token = template.sign("42", null);
+        try {
+            template.sign("", null);
+            fail("empty id accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        SignerMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(1, snapshot.getSignCount());
+        assertEquals(1, snapshot.getRejectedCount());
+        assertEquals(1, snapshot.getTokenSize(4).getCount());
+        assertEquals(token.length(), snapshot.getTokenSize(4).getMax());
+    }
+
+    @Test
+    public void testBuckets() {
+        long[] values = { 0, 1, 7, 8, 9, 15, 16, 17, 100, 1000, 123456789L, 1L << 40, Long.MAX_VALUE };
+        int last = -1;
+        for (long value : values) {
+            int bucket = SignerMetrics.Histogram.bucket(value);
+            assertTrue(bucket >= last);
+            assertTrue(bucket < SignerMetrics.Histogram.BUCKETS);
+            last = bucket;
+            if (value < (1L << 41)) {
+                long highest = SignerMetrics.Histogram.highestValue(bucket);
+                assertTrue(value + " <= " + highest, value <= highest);
+                assertTrue(value + " within 12.5%", highest - value <= value / 8);
+                assertEquals(bucket, SignerMetrics.Histogram.bucket(highest));
+            }
+        }
+        for (int bucket = 1; bucket < SignerMetrics.Histogram.BUCKETS; bucket++) {
+            assertEquals(bucket, SignerMetrics.Histogram.bucket(
+                SignerMetrics.Histogram.highestValue(bucket - 1) + 1));
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        SignerMetrics metrics = new SignerMetrics();
+        for (int i = 1; i <= 1000; i++) {
+            metrics.recordSigned(0, i * 1000L, 200);
+        }
+        SignerMetrics.Histogram latency = metrics.snapshot().getLatency();
+        assertEquals(1000, latency.getCount());
+        assertEquals(500500.0, latency.getMean(), 0.001);
+        assertEquals(1000000, latency.getMax());
+        assertEquals(1000000, latency.getValueAtPercentile(100));
+
+        long p50 = latency.getValueAtPercentile(50);
+        assertTrue(p50 >= 500000 && p50 <= 500000 * 9 / 8);
+        long p99 = latency.getValueAtPercentile(99);
+        assertTrue(p99 >= 990000 && p99 <= 1000000);
+        assertEquals(200, metrics.snapshot().getTokenSize().getValueAtPercentile(50));
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        final Signer signer = new Signer(sharedKey);
+        SignerMetrics metrics = new SignerMetrics();
+        signer.setMetrics(metrics);
+
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final int groups = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 500; i++) {
+                        signer.sign(makeUser("u" + i, groups));
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        SignerMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(4000, snapshot.getSignCount());
+        assertEquals(500, snapshot.getLatency(0).getCount());
+        assertEquals(3500, snapshot.getLatency(1).getCount());
+    }
+
+    @Test
+    public void testMBean() throws Exception {
+        Signer signer = new Signer(sharedKey);
+        SignerMetrics metrics = new SignerMetrics();
+        signer.setMetrics(metrics);
+        signer.sign(makeUser("a", 2));
+
+        ObjectName name = metrics.registerMBean("test");
+        try {
+            assertEquals("com.goinstant.auth", name.getDomain());
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertEquals(Long.valueOf(1), server.getAttribute(name, "SignCount"));
+            assertTrue((Long)server.getAttribute(name, "LatencyP99Nanos") > 0);
+
+            TabularData byGroups = (TabularData)server.getAttribute(name, "SignCountByGroups");
+            assertEquals(5, byGroups.size());
+            assertEquals(Long.valueOf(1),
+                byGroups.get(new Object[] { "1-9" }).get("value"));
+
+            server.invoke(name, "reset", null, null);
+            assertEquals(0, metrics.snapshot().getSignCount());
+
+            try {
+                metrics.registerMBean("again");
+                fail("registered twice");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        } finally {
+            metrics.unregisterMBean();
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+}
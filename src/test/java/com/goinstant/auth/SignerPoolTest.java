@@ -0,0 +1,188 @@
+package com.goinstant.auth;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Unit tests for SignerPool.
+ */
+public class SignerPoolTest {
+
+    static final String sharedKey = SignerTest.sharedKey;
+    static final String otherKey = CachingSignerTest.otherKey;
+
+    private static PlainUser makeUser() {
+        return new PlainUser("bar", "example.com", "bob");
+    }
+
+    /**
+     * Distinct valid keys: the shared key with its first character varied.
+     */
+    private static String key(int n) {
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+        return alphabet.charAt(n % alphabet.length()) + sharedKey.substring(1);
+    }
+
+    @Test
+    public void testReuse() {
+        SignerPool pool = new SignerPool(10);
+        Signer first = pool.get("app1", sharedKey);
+        assertSame(first, pool.get("app1", sharedKey));
+        assertNotSame(first, pool.get("app2", sharedKey));
+
+        assertEquals(new Signer(sharedKey).sign(makeUser()),
+            pool.sign("app1", sharedKey, makeUser()));
+        assertEquals(2, pool.size());
+        assertEquals(2, pool.getHitCount());
+        assertEquals(2, pool.getMissCount());
+
+        SignerPool.TenantStats stats = pool.getStats("app1");
+        assertEquals("app1", stats.getAppID());
+        assertEquals(2, stats.getHitCount());
+        assertEquals(1, stats.getMissCount());
+        assertNull(pool.getStats("nope"));
+    }
+
+    @Test
+    public void testSecretChanged() {
+        SignerPool pool = new SignerPool(10);
+        Signer old = pool.get("app1", sharedKey);
+        pool.get("app1", sharedKey);
+        Signer rotated = pool.get("app1", otherKey);
+
+        assertNotSame(old, rotated);
+        assertNull(old.sign(makeUser()));
+        assertEquals(new Signer(otherKey).sign(makeUser()), rotated.sign(makeUser()));
+        assertEquals(1, pool.size());
+
+        SignerPool.TenantStats stats = pool.getStats("app1");
+        assertEquals(1, stats.getHitCount());
+        assertEquals(2, stats.getMissCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() {
+        SignerPool pool = new SignerPool(2);
+        Signer a = pool.get("a", key(0));
+        Signer b = pool.get("b", key(1));
+        pool.get("a", key(0)); // b is now the oldest
+        pool.get("c", key(2));
+
+        assertEquals(2, pool.size());
+        assertEquals(1, pool.getEvictionCount());
+        assertNull(pool.getStats("b"));
+        assertNull(b.sign(makeUser()));
+        assertNotNull(a.sign(makeUser()));
+        assertSame(a, pool.get("a", key(0)));
+
+        // looking at stats doesn't count as use
+        pool.getStats("c");
+        pool.get("a", key(0));
+        pool.get("d", key(3));
+        assertNull(pool.getStats("c"));
+    }
+
+    @Test
+    public void testKeyZeroed() throws Exception {
+        SignerPool pool = new SignerPool(1);
+        Signer signer = pool.get("a", sharedKey);
+        Field macField = Signer.class.getDeclaredField("mac");
+        macField.setAccessible(true);
+        Object mac = macField.get(signer);
+        Field keyField = ThreadMac.class.getDeclaredField("key");
+        keyField.setAccessible(true);
+        Object key = keyField.get(mac);
+        Field bytesField = key.getClass().getDeclaredField("bytes");
+        bytesField.setAccessible(true);
+        byte[] bytes = (byte[])bytesField.get(key);
+
+        assertFalse(isZero(bytes));
+        pool.remove("a");
+        assertTrue(isZero(bytes));
+        assertFalse(pool.remove("a"));
+        assertNull(signer.sign(makeUser()));
+    }
+
+    private static boolean isZero(byte[] bytes) {
+        for (byte b : bytes) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Test
+    public void testClear() {
+        SignerPool pool = new SignerPool(100);
+        Signer a = pool.get("a", sharedKey);
+        pool.get("b", sharedKey);
+        pool.clear();
+        assertEquals(0, pool.size());
+        assertNull(a.sign(makeUser()));
+        assertNotSame(a, pool.get("a", sharedKey));
+        assertEquals(3, pool.getMissCount());
+    }
+
+    @Test
+    public void testInvalid() {
+        SignerPool pool = new SignerPool(10);
+        try {
+            pool.get("a", "c2hvcnQ=");
+            fail("short key accepted");
+        } catch (IllegalArgumentException e) {
+            assertEquals(0, pool.size());
+        }
+        try {
+            pool.get(null, sharedKey);
+            fail("null appID accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            new SignerPool(0);
+            fail("empty pool allowed");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testConcurrentChurn() throws Exception {
+        final SignerPool pool = new SignerPool(8);
+        final int apps = 40;
+        final Verifier[] verifiers = new Verifier[apps];
+        for (int i = 0; i < apps; i++) {
+            verifiers[i] = new Verifier(key(i));
+        }
+        final AtomicInteger bad = new AtomicInteger();
+
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 400; i++) {
+                        int app = (i * 7 + seed * 13) % apps;
+                        String token = pool.sign("app" + app, key(app), makeUser());
+                        if (token == null || verifiers[app].verify(token) == null) {
+                            bad.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, bad.get());
+        assertTrue(pool.size() <= 8);
+        // sign() looks up again when its Signer was evicted mid-sign
+        assertTrue(pool.getHitCount() + pool.getMissCount() >= 3200);
+    }
+}
@@ -0,0 +1,168 @@
+package com.goinstant.auth;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Unit tests for SignerRegistry and key IDs.
+ */
+public class SignerRegistryTest {
+
+    static final String sharedKey = SignerTest.sharedKey;
+    static final String otherKey = CachingSignerTest.otherKey;
+
+    private static PlainUser makeUser() {
+        return new PlainUser("bar", "example.com", "Bob");
+    }
+
+    @Test
+    public void testKeyIDHeader() throws Exception {
+        Map<String,Object> kid = new HashMap<String,Object>();
+        kid.put("kid", "key-1");
+        Signer signer = new Signer(sharedKey, "key-1");
+        assertEquals("key-1", signer.getKeyID());
+        assertEquals(TokenCompatibilityTest.legacySign(sharedKey, makeUser(), kid),
+            signer.sign(makeUser()));
+
+        // merged with extra headers, which win
+        Map<String,Object> extra = new HashMap<String,Object>();
+        extra.put("cty", "text/plain");
+        Map<String,Object> both = new HashMap<String,Object>(extra);
+        both.put("kid", "key-1");
+        assertEquals(TokenCompatibilityTest.legacySign(sharedKey, makeUser(), both),
+            signer.sign(makeUser(), extra));
+        both.put("kid", "key-2");
+        assertEquals(TokenCompatibilityTest.legacySign(sharedKey, makeUser(), both),
+            signer.sign(makeUser(), both));
+
+        assertNull(new Signer(sharedKey).getKeyID());
+    }
+
+    @Test
+    public void testRotation() {
+        SignerRegistry registry = new SignerRegistry();
+        assertNull(registry.getActiveKeyID());
+
+        registry.rotate("one", sharedKey);
+        String first = registry.sign(makeUser());
+        assertEquals("one", registry.getActiveKeyID());
+
+        registry.rotate("two", otherKey);
+        String second = registry.sign(makeUser());
+        assertEquals("two", registry.getActiveKeyID());
+        assertNotEquals(first, second);
+        assertEquals(2, registry.getKeyIDs().size());
+
+        // both still verify, each against its own key
+        assertEquals("bar", registry.verify(first).getSubject());
+        assertNotNull(registry.verify(second));
+        assertNull(new Verifier(otherKey).verify(first));
+
+        assertTrue(registry.remove("one"));
+        assertFalse(registry.remove("one"));
+        assertNull(registry.verify(first));
+        assertNotNull(registry.verify(second));
+    }
+
+    @Test
+    public void testUnknownAndUnnamedKeys() {
+        SignerRegistry registry = new SignerRegistry();
+        registry.rotate("one", sharedKey);
+
+        assertNull(registry.verify(new Signer(sharedKey, "nope").sign(makeUser())));
+        assertNull(registry.verify("junk"));
+        assertNull(registry.verify(null));
+
+        // no kid: tried against the active key
+        assertNotNull(registry.verify(new Signer(sharedKey).sign(makeUser())));
+        assertNull(registry.verify(new Signer(otherKey).sign(makeUser())));
+
+        // kid in a header that isn't the pre-built one
+        Map<String,Object> extra = new HashMap<String,Object>();
+        extra.put("cty", "text/plain");
+        assertNotNull(registry.verify(registry.sign(makeUser(), extra)));
+    }
+
+    @Test
+    public void testGracePeriod() throws Exception {
+        SignerRegistry registry = new SignerRegistry(0, TimeUnit.NANOSECONDS);
+        registry.rotate("one", sharedKey);
+        String first = registry.sign(makeUser());
+        assertNotNull(registry.verify(first));
+
+        registry.rotate("two", otherKey);
+        Thread.sleep(2);
+        assertNull(registry.verify(first));
+        assertFalse(registry.getKeyIDs().contains("one"));
+
+        // re-activating a key ends its grace period
+        SignerRegistry longer = new SignerRegistry(1, TimeUnit.HOURS);
+        longer.rotate("one", sharedKey);
+        longer.rotate("two", otherKey);
+        assertNotNull(longer.verify(first));
+        longer.activate("one");
+        assertEquals("one", longer.getActiveKeyID());
+    }
+
+    @Test
+    public void testRotateWhileSigning() throws Exception {
+        final SignerRegistry registry = new SignerRegistry();
+        registry.rotate("k0", sharedKey);
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicInteger bad = new AtomicInteger();
+
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    while (!stop.get()) {
+                        String token = registry.sign(makeUser());
+                        if (token == null || registry.verify(token) == null) {
+                            bad.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (int i = 1; i <= 50; i++) {
+            registry.rotate("k" + i, (i % 2 == 0) ? sharedKey : otherKey);
+        }
+        stop.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, bad.get());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testDuplicateKeyID() {
+        SignerRegistry registry = new SignerRegistry();
+        registry.add("one", sharedKey);
+        registry.add("one", otherKey);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testActivateUnknown() {
+        new SignerRegistry().activate("nope");
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testRemoveActive() {
+        SignerRegistry registry = new SignerRegistry();
+        registry.rotate("one", sharedKey);
+        registry.remove("one");
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testNoActiveKey() {
+        new SignerRegistry().sign(makeUser());
+    }
+}
@@ -5,6 +5,7 @@ import java.util.Map;
 import java.util.List;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.lang.System;
 import java.text.ParseException;
 
@@ -168,4 +169,60 @@ public class SignerTest{
         PlainUser user = new PlainUser("bar", "", "bob");
         signer.sign(user);
     }
+
+    /**
+     * Signers are shared between threads; each thread gets its own HMAC.
+     */
+    @Test
+    public void testConcurrentSigning() throws Exception {
+        final Signer signer = new Signer(sharedKey);
+        final String[] expected = new String[50];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = signer.sign(new PlainUser("user" + i, "example.com"));
+        }
+
+        final AtomicInteger mismatches = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int n = 0; n < 200; n++) {
+                        int i = n % expected.length;
+                        String token = signer.sign(new PlainUser("user" + i, "example.com"));
+                        if (!expected[i].equals(token)) {
+                            mismatches.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, mismatches.get());
+    }
+
+    /**
+     * Warming up signs nothing anyone sees, and says whether signing works.
+     */
+    @Test
+    public void testWarmUp() throws Exception {
+        Signer signer = new Signer(sharedKey);
+        SignerMetrics metrics = new SignerMetrics();
+        signer.setMetrics(metrics);
+        signer.setMaxTokenSize(300); // smaller than the warm-up user's token
+        signer.setTokenLifetime(1, java.util.concurrent.TimeUnit.HOURS);
+        assertTrue(signer.warmUp());
+        assertEquals(0, metrics.snapshot().getSignCount());
+
+        String token = signer.sign(new PlainUser("bar", "example.com"));
+        JWSObject jws = JWSObject.parse(token);
+        assertTrue(jws.verify(new MACVerifier(Signer.parseKey(sharedKey))));
+        assertEquals(1, metrics.snapshot().getSignCount());
+
+        signer.destroy();
+        assertFalse(signer.warmUp());
+    }
 }
@@ -0,0 +1,266 @@
+package com.goinstant.auth;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import com.nimbusds.jose.JOSEObjectType;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.MACSigner;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+
+import net.minidev.json.JSONArray;
+import net.minidev.json.JSONObject;
+
+/**
+ * Checks that Signer's tokens are byte-for-byte what the original
+ * JWTClaimsSet + SignedJWT implementation produced.
+ *
+ * {@link #legacySign} is that implementation, kept here as the oracle.
+ */
+public class TokenCompatibilityTest {
+
+    static final String sharedKey = SignerTest.sharedKey;
+
+    enum Color { RED, GREEN }
+
+    /**
+     * The pre-streaming Signer.sign(), using Nimbus for everything.
+     */
+    static String legacySign(String secretKey, User user, Map<String,Object> extraHeaders)
+        throws Exception
+    {
+        JWSHeader header = new JWSHeader(JWSAlgorithm.HS256);
+        header.setType(new JOSEObjectType("JWT"));
+        if (extraHeaders != null) {
+            for (Map.Entry<String,Object> entry : extraHeaders.entrySet()) {
+                if (entry.getKey().equals("kid")) {
+                    header.setKeyID((String)entry.getValue());
+                } else if (entry.getKey().equals("cty")) {
+                    header.setContentType((String)entry.getValue());
+                } else if (entry.getKey().equals("jku")) {
+                    header.setJWKURL((URL)entry.getValue());
+                } else {
+                    header.setCustomParameter(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+        JWTClaimsSet claims = new JWTClaimsSet();
+        String id = user.getID();
+        String displayName = user.getDisplayName();
+        claims.setAudience(Arrays.asList("goinstant.net"));
+        claims.setSubject(id);
+        claims.setIssuer(user.getDomain());
+        claims.setCustomClaim("dn", displayName != null ? displayName : id);
+        for (Map.Entry<String,Object> entry : user.getCustomClaims().entrySet()) {
+            claims.setClaim(entry.getKey(), entry.getValue());
+        }
+        Set<Group> groups = user.getGroups();
+        if (groups.size() > 0) {
+            ArrayList<Object> g = new ArrayList<Object>(groups.size());
+            for (Group group : groups) {
+                Map<String,Object> groupMap = new TreeMap<String,Object>();
+                groupMap.put("id", group.getID());
+                groupMap.put("dn", group.getDisplayName());
+                groupMap.putAll(group.getCustomClaims());
+                g.add(groupMap);
+            }
+            claims.setCustomClaim("g", g);
+        }
+
+        SignedJWT jwt = new SignedJWT(header, claims);
+        jwt.sign(new MACSigner(Signer.parseKey(secretKey)));
+        return jwt.serialize();
+    }
+
+    private static void assertCompatible(User user) throws Exception {
+        assertCompatible(user, null);
+    }
+
+    private static void assertCompatible(User user, Map<String,Object> headers) throws Exception {
+        Signer signer = new Signer(sharedKey);
+        assertEquals(legacySign(sharedKey, user, headers), signer.sign(user, headers));
+    }
+
+    @Test
+    public void testPlainUsers() throws Exception {
+        assertCompatible(new PlainUser("bar", "example.com", "bob"));
+        assertCompatible(new PlainUser("bar", "example.com"));
+        assertCompatible(new PlainUser("bar", "example.com", null));
+    }
+
+    @Test
+    public void testGroups() throws Exception {
+        Set<Group> groups = new LinkedHashSet<Group>();
+        groups.add(new PlainGroup("42", "Meaning Group"));
+        groups.add(new PlainGroup("1234"));
+        PlainGroup custom = new PlainGroup("custom", "Custom Group");
+        Map<String,Object> claims = new HashMap<String,Object>();
+        claims.put("aaa", "before dn");
+        claims.put("ef", Integer.valueOf(7));
+        claims.put("zzz", "after id");
+        custom.setCustomClaims(claims);
+        groups.add(custom);
+
+        assertCompatible(new PlainUser("bar", "example.com", "bob", groups));
+    }
+
+    @Test
+    public void testEscaping() throws Exception {
+        StringBuilder all = new StringBuilder();
+        for (char c = 0; c < 0x2200; c++) {
+            all.append(c);
+        }
+        all.append("\ud83d\ude00 \ud83d \ude00 end"); // paired and unpaired surrogates
+        all.append("\uffff\ufeff");
+
+        PlainUser user = new PlainUser("id/\"\\" + all, "ex\u2028ample.com", all.toString());
+        Map<String,Object> claims = new HashMap<String,Object>();
+        claims.put("k\u00e9y\t/", all.toString());
+        user.setCustomClaims(claims);
+        assertCompatible(user);
+    }
+
+    @Test
+    public void testValueTypes() throws Exception {
+        Map<String,Object> claims = new LinkedHashMap<String,Object>();
+        claims.put("string", "hello");
+        claims.put("int", Integer.valueOf(-42));
+        claims.put("long", Long.valueOf(Long.MIN_VALUE));
+        claims.put("maxlong", Long.valueOf(Long.MAX_VALUE));
+        claims.put("short", Short.valueOf((short)3));
+        claims.put("double", Double.valueOf(1.5e300));
+        claims.put("inf", Double.valueOf(Double.POSITIVE_INFINITY));
+        claims.put("nan", Double.valueOf(Double.NaN));
+        claims.put("float", Float.valueOf(0.1f));
+        claims.put("finf", Float.valueOf(Float.NEGATIVE_INFINITY));
+        claims.put("bool", Boolean.TRUE);
+        claims.put("null", null);
+        claims.put("date", new Date(1234567890123L));
+        claims.put("enum", Color.GREEN);
+        claims.put("ints", new int[] { 1, 2, 3 });
+        claims.put("objects", new Object[] { "a", null, Integer.valueOf(1) });
+        claims.put("list", Arrays.asList("a", null, Boolean.FALSE));
+        claims.put("set", new TreeSet<String>(Arrays.asList("x", "y")));
+        Map<String,Object> nested = new LinkedHashMap<String,Object>();
+        nested.put("inner", Arrays.asList(new HashMap<String,Object>()));
+        nested.put("n", null);
+        claims.put("map", nested);
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("a", "/b");
+        claims.put("jsonObject", jsonObject);
+        JSONArray jsonArray = new JSONArray();
+        jsonArray.add("c");
+        claims.put("jsonArray", jsonArray);
+
+        PlainUser user = new PlainUser("bar", "example.com", "bob");
+        user.setCustomClaims(claims);
+        assertCompatible(user);
+    }
+
+    @Test
+    public void testRegisteredClaims() throws Exception {
+        Map<String,Object> claims = new HashMap<String,Object>();
+        claims.put("exp", new Date(1400000000999L));
+        claims.put("nbf", new Date(1300000000000L));
+        claims.put("iat", null);
+        claims.put("jti", "token-id");
+        claims.put("typ", "thing");
+        PlainUser user = new PlainUser("bar", "example.com", "bob");
+        user.setCustomClaims(claims);
+        assertCompatible(user);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testRegisteredClaimWrongType() {
+        Map<String,Object> claims = new HashMap<String,Object>();
+        claims.put("exp", Long.valueOf(TimeUnit.DAYS.toSeconds(1)));
+        PlainUser user = new PlainUser("bar", "example.com", "bob");
+        user.setCustomClaims(claims);
+        new Signer(sharedKey).sign(user);
+    }
+
+    @Test
+    public void testExtraHeaders() throws Exception {
+        Map<String,Object> headers = new HashMap<String,Object>();
+        headers.put("kid", "key-1");
+        headers.put("cty", "JWT");
+        headers.put("custom", "value");
+        assertCompatible(new PlainUser("bar", "example.com", "bob"), headers);
+    }
+
+    /**
+     * Many different key sets, so HashMap bucket collisions and resizes get
+     * exercised.
+     */
+    @Test
+    public void testRandomUsers() throws Exception {
+        Random random = new Random(1234);
+        for (int i = 0; i < 300; i++) {
+            Map<String,Object> claims = new HashMap<String,Object>();
+            int claimCount = random.nextInt(40);
+            for (int j = 0; j < claimCount; j++) {
+                String key = Integer.toString(random.nextInt(5000), 36);
+                if (key.equals("g") || key.equals("dn")) {
+                    continue;
+                }
+                claims.put(key, random.nextBoolean()
+                    ? (Object)Integer.valueOf(random.nextInt())
+                    : (Object)("v" + random.nextLong()));
+            }
+
+            Set<Group> groups = new HashSet<Group>();
+            int groupCount = random.nextInt(20);
+            for (int j = 0; j < groupCount; j++) {
+                PlainGroup group = new PlainGroup("g" + random.nextInt(1000), "Group " + j);
+                if (random.nextInt(4) == 0) {
+                    Map<String,Object> groupClaims = new HashMap<String,Object>();
+                    groupClaims.put(Integer.toString(random.nextInt(100), 36), "x");
+                    groupClaims.put("e" + j, Integer.valueOf(j));
+                    group.setCustomClaims(groupClaims);
+                }
+                groups.add(group);
+            }
+
+            PlainUser user = new PlainUser("user" + i, "example.com", "User " + i, groups);
+            if (!claims.isEmpty()) {
+                user.setCustomClaims(claims);
+            }
+            assertCompatible(user);
+        }
+    }
+
+    /**
+     * A User that signs another token from inside a getter.
+     */
+    @Test
+    public void testReentrantSign() throws Exception {
+        final Signer signer = new Signer(sharedKey);
+        final PlainUser inner = new PlainUser("inner", "example.com");
+        PlainUser outer = new PlainUser("outer", "example.com") {
+            @Override
+            public String getDisplayName() {
+                return signer.sign(inner);
+            }
+        };
+
+        assertEquals(legacySign(sharedKey, outer, null), signer.sign(outer));
+    }
+}
@@ -0,0 +1,196 @@
+package com.goinstant.auth;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Unit tests for Signer.setMaxTokenSize() and large users.
+ */
+public class TokenSizeTest {
+
+    static final String sharedKey = SignerTest.sharedKey;
+
+    /**
+     * A PlainGroup that counts how often it's looked at.
+     */
+    static class CountingGroup extends PlainGroup {
+        int reads;
+
+        CountingGroup(String id) {
+            super(id);
+        }
+
+        @Override
+        public String getID() {
+            this.reads++;
+            return super.getID();
+        }
+    }
+
+    private static PlainUser makeUser(String id, int groupCount) {
+        Set<Group> groups = new LinkedHashSet<Group>();
+        for (int i = 0; i < groupCount; i++) {
+            groups.add(new PlainGroup("group" + i, "Group " + i));
+        }
+        return new PlainUser(id, "example.com", "bob", groups);
+    }
+
+    @Test
+    public void testUnlimitedByDefault() throws Exception {
+        Signer signer = new Signer(sharedKey);
+        assertEquals(0, signer.getMaxTokenSize());
+
+        PlainUser user = makeUser("bar", 10000);
+        String token = signer.sign(user);
+        assertNotNull(token);
+        assertEquals(TokenCompatibilityTest.legacySign(sharedKey, user, null), token);
+    }
+
+    @Test
+    public void testExactFit() {
+        // ids of every length mod 3, so every base64 remainder is covered
+        for (int n = 1; n <= 6; n++) {
+            PlainUser user = makeUser("user-" + "xxxxxx".substring(0, n), 3);
+            Signer signer = new Signer(sharedKey);
+            String token = signer.sign(user);
+
+            signer.setMaxTokenSize(token.length());
+            assertEquals(token, signer.sign(user));
+
+            signer.setMaxTokenSize(token.length() - 1);
+            try {
+                signer.sign(user);
+                fail("signed a token over the limit");
+            } catch (TokenTooLargeException e) {
+                assertEquals(token.length() - 1, e.getMaxTokenSize());
+                assertTrue(e.getMessage().contains(String.valueOf(token.length() - 1)));
+            }
+        }
+    }
+
+    @Test
+    public void testManyGroupsFailFast() {
+        Set<Group> groups = new LinkedHashSet<Group>();
+        CountingGroup[] counted = new CountingGroup[10000];
+        for (int i = 0; i < counted.length; i++) {
+            groups.add(counted[i] = new CountingGroup("g" + i));
+        }
+        PlainUser user = new PlainUser("bar", "example.com", "bob", groups);
+
+        Signer signer = new Signer(sharedKey);
+        signer.setMaxTokenSize(8 * 1024);
+        try {
+            signer.sign(user);
+            fail("signed a token over the limit");
+        } catch (TokenTooLargeException e) {
+            assertEquals(8 * 1024, e.getMaxTokenSize());
+        }
+        for (CountingGroup group : counted) {
+            assertEquals(0, group.reads);
+        }
+    }
+
+    @Test
+    public void testStopsPartWay() {
+        Set<Group> groups = new LinkedHashSet<Group>();
+        CountingGroup[] counted = new CountingGroup[1000];
+        for (int i = 0; i < counted.length; i++) {
+            groups.add(counted[i] = new CountingGroup("group" + i));
+            counted[i].setCustomClaim("description", "a long description of group " + i);
+        }
+        PlainUser user = new PlainUser("bar", "example.com", "bob", groups);
+
+        Signer signer = new Signer(sharedKey);
+        signer.setMaxTokenSize(32 * 1024);
+        try {
+            signer.sign(user);
+            fail("signed a token over the limit");
+        } catch (TokenTooLargeException e) {
+            // expected
+        }
+        assertTrue(counted[0].reads > 0);
+        assertEquals(0, counted[counted.length - 1].reads);
+    }
+
+    @Test
+    public void testFrozenUser() {
+        FrozenUser user = new FrozenUser(makeUser("bar", 1000));
+        Signer signer = new Signer(sharedKey);
+        String token = signer.sign(user);
+
+        signer.setMaxTokenSize(token.length());
+        assertEquals(token, signer.sign(user));
+
+        signer.setMaxTokenSize(token.length() / 2);
+        try {
+            signer.sign(user);
+            fail("signed a token over the limit");
+        } catch (TokenTooLargeException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testTemplate() {
+        Signer signer = new Signer(sharedKey);
+        TokenTemplate template = new TokenTemplate(signer, makeUser("proto", 5), "bio");
+        String token = template.sign("bar", "bob", "short");
+
+        signer.setMaxTokenSize(token.length());
+        assertEquals(token, template.sign("bar", "bob", "short"));
+        try {
+            template.sign("bar", "bob", "a somewhat longer bio");
+            fail("signed a token over the limit");
+        } catch (TokenTooLargeException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCountedAsRejected() {
+        SignerMetrics metrics = new SignerMetrics();
+        Signer signer = new Signer(sharedKey);
+        signer.setMetrics(metrics);
+        signer.setMaxTokenSize(200);
+        try {
+            signer.sign(makeUser("bar", 100));
+            fail("signed a token over the limit");
+        } catch (TokenTooLargeException e) {
+            // expected
+        }
+        assertEquals(1, metrics.snapshot().getRejectedCount());
+        assertEquals(0, metrics.snapshot().getSignCount());
+    }
+
+    @Test
+    public void testSignerStillWorks() throws Exception {
+        Signer signer = new Signer(sharedKey);
+        signer.setMaxTokenSize(300);
+        try {
+            signer.sign(makeUser("bar", 100));
+            fail("signed a token over the limit");
+        } catch (TokenTooLargeException e) {
+            // expected
+        }
+        PlainUser small = makeUser("bar", 0);
+        assertEquals(TokenCompatibilityTest.legacySign(sharedKey, small, null), signer.sign(small));
+    }
+
+    @Test
+    public void testMaxPayload() {
+        for (int bytes = 0; bytes < 100; bytes++) {
+            int chars = TokenBuffer.encodedLength(bytes);
+            assertEquals(bytes, Signer.maxPayload(chars));
+            assertTrue(TokenBuffer.encodedLength(Signer.maxPayload(chars + 1)) <= chars + 1);
+        }
+        assertEquals(-1, Signer.maxPayload(-5));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testNegativeMax() {
+        new Signer(sharedKey).setMaxTokenSize(-1);
+    }
+}
@@ -0,0 +1,148 @@
+package com.goinstant.auth;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Unit tests for TokenTemplate.
+ */
+public class TokenTemplateTest {
+
+    static final String sharedKey = SignerTest.sharedKey;
+
+    private static TreeSet<Group> makeGroups() {
+        TreeSet<Group> groups = new TreeSet<Group>();
+        groups.add(new PlainGroup("42", "Meaning Group"));
+        groups.add(new PlainGroup("1234"));
+        return groups;
+    }
+
+    @Test
+    public void testPlain() {
+        Signer signer = new Signer(sharedKey);
+        TokenTemplate template = new TokenTemplate(signer,
+            new PlainUser("ignored", "example.com"));
+
+        assertEquals(signer.sign(new PlainUser("bar", "example.com", "Bob")),
+            template.sign("bar", "Bob"));
+        assertEquals(signer.sign(new PlainUser("bar", "example.com")),
+            template.sign("bar", null));
+        assertEquals(signer.sign(new PlainUser("\"q\" <\u00e9>", "example.com", " ")),
+            template.sign("\"q\" <\u00e9>", " "));
+    }
+
+    @Test
+    public void testGroupsAndClaims() {
+        Signer signer = new Signer(sharedKey, "key-1");
+        PlainUser prototype = new PlainUser("ignored", "example.com", null, makeGroups());
+        Map<String,Object> fixed = new HashMap<String,Object>();
+        fixed.put("tenant", "acme");
+        fixed.put("exp", new Date(1400000000000L));
+        fixed.put("avatar", "overridden");
+        prototype.setCustomClaims(fixed);
+
+        TokenTemplate template = new TokenTemplate(signer, prototype, "avatar", "level");
+        assertEquals(Arrays.asList("avatar", "level"), template.getVariableClaims());
+
+        for (int i = 0; i < 20; i++) {
+            PlainUser user = new PlainUser("user" + i, "example.com", "User " + i, makeGroups());
+            Map<String,Object> claims = new HashMap<String,Object>(fixed);
+            claims.put("avatar", "http://example.com/" + i + ".png");
+            claims.put("level", Integer.valueOf(i));
+            user.setCustomClaims(claims);
+
+            assertEquals(signer.sign(user), template.sign("user" + i, "User " + i,
+                "http://example.com/" + i + ".png", Integer.valueOf(i)));
+        }
+    }
+
+    @Test
+    public void testNullClaimValue() {
+        Signer signer = new Signer(sharedKey);
+        TokenTemplate template = new TokenTemplate(signer,
+            new PlainUser("ignored", "example.com"), "avatar");
+
+        PlainUser user = new PlainUser("bar", "example.com");
+        Map<String,Object> claims = new HashMap<String,Object>();
+        claims.put("avatar", null);
+        user.setCustomClaims(claims);
+        assertEquals(signer.sign(user), template.sign("bar", null, (Object)null));
+    }
+
+    /**
+     * iat and exp are cut out where they were written, whatever numbers the
+     * claims happen to contain.
+     */
+    @Test
+    public void testTimedClaimsLikeTimes() {
+        ExpiryTest.FixedClock clock = new ExpiryTest.FixedClock();
+        Signer signer = new Signer(sharedKey);
+        signer.setClock(clock);
+        signer.setTokenLifetime(10, TimeUnit.MINUTES);
+
+        PlainUser prototype = new PlainUser("ignored", "example.com");
+        Map<String,Object> fixed = new HashMap<String,Object>();
+        fixed.put("phone", "7365208431");
+        fixed.put("account", Long.valueOf(7365208432L));
+        fixed.put("zero", Integer.valueOf(0));
+        prototype.setCustomClaims(fixed);
+        TokenTemplate template = new TokenTemplate(signer, prototype, "level");
+
+        for (int i = 0; i < 3; i++) {
+            PlainUser user = new PlainUser("bar", "example.com", "Bob");
+            Map<String,Object> claims = new HashMap<String,Object>(fixed);
+            claims.put("level", Long.valueOf(7365208431L));
+            user.setCustomClaims(claims);
+            assertEquals(signer.sign(user), template.sign("bar", "Bob", Long.valueOf(7365208431L)));
+            clock.seconds += 5;
+        }
+    }
+
+    @Test
+    public void testTokensVerify() {
+        TokenTemplate template = new TokenTemplate(new Signer(sharedKey),
+            new PlainUser("ignored", "example.com", null, makeGroups()));
+        VerifiedToken verified = new Verifier(sharedKey).verify(template.sign("bar", "Bob"));
+        assertEquals("bar", verified.getSubject());
+        assertEquals(2, verified.getGroups().size());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testBadId() {
+        new TokenTemplate(new Signer(sharedKey), new PlainUser("x", "example.com"))
+            .sign("", "Bob");
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testWrongValueCount() {
+        new TokenTemplate(new Signer(sharedKey), new PlainUser("x", "example.com"), "avatar")
+            .sign("bar", "Bob");
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testBadPrototype() {
+        new TokenTemplate(new Signer(sharedKey), new PlainUser("x", ""));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testReservedVariable() {
+        new TokenTemplate(new Signer(sharedKey), new PlainUser("x", "example.com"), "sub");
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testRegisteredVariable() {
+        new TokenTemplate(new Signer(sharedKey), new PlainUser("x", "example.com"), "exp");
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testDuplicateVariable() {
+        new TokenTemplate(new Signer(sharedKey), new PlainUser("x", "example.com"), "a", "a");
+    }
+}
@@ -0,0 +1,139 @@
+package com.goinstant.auth;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import com.nimbusds.jose.util.Base64URL;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Unit tests for Verifier and VerifiedToken.
+ */
+public class VerifierTest {
+
+    static final String sharedKey = SignerTest.sharedKey;
+    static final String otherKey = CachingSignerTest.otherKey;
+
+    private static PlainUser makeUser() {
+        TreeSet<Group> groups = new TreeSet<Group>();
+        groups.add(new PlainGroup("42", "Meaning Group"));
+        return new PlainUser("bar", "example.com", "Bob", groups);
+    }
+
+    @Test
+    public void testVerify() throws Exception {
+        String token = new Signer(sharedKey).sign(makeUser());
+        VerifiedToken verified = new Verifier(sharedKey).verify(token);
+
+        assertNotNull(verified);
+        assertEquals(token, verified.getToken());
+        assertEquals("bar", verified.getSubject());
+        assertEquals("example.com", verified.getIssuer());
+        assertEquals("Bob", verified.getDisplayName());
+        assertEquals(Arrays.asList("goinstant.net"), verified.getClaim("aud"));
+
+        List<Map<String,Object>> groups = verified.getGroups();
+        assertEquals(1, groups.size());
+        assertEquals("42", groups.get(0).get("id"));
+        assertEquals("Meaning Group", groups.get(0).get("dn"));
+    }
+
+    @Test
+    public void testLegacyTokens() throws Exception {
+        Map<String,Object> headers = new HashMap<String,Object>();
+        headers.put("kid", "key-1");
+        String token = TokenCompatibilityTest.legacySign(sharedKey, makeUser(), headers);
+        assertEquals("bar", new Verifier(sharedKey).verify(token).getSubject());
+    }
+
+    @Test
+    public void testNoGroups() throws Exception {
+        String token = new Signer(sharedKey).sign(new PlainUser("bar", "example.com"));
+        assertTrue(new Verifier(sharedKey).verify(token).getGroups().isEmpty());
+    }
+
+    @Test
+    public void testWrongKey() {
+        String token = new Signer(otherKey).sign(makeUser());
+        assertNull(new Verifier(sharedKey).verify(token));
+        assertFalse(new Verifier(sharedKey, 0).isValid(token));
+    }
+
+    @Test
+    public void testTampered() {
+        Verifier verifier = new Verifier(sharedKey);
+        String token = new Signer(sharedKey).sign(makeUser());
+        String[] parts = token.split("\\.");
+
+        String evilPayload = new Base64URL(parts[1]).decodeToString().replace("\"bar\"", "\"eve\"");
+        assertNull(verifier.verify(parts[0] + "." + Base64URL.encode(evilPayload) + "." + parts[2]));
+
+        char last = parts[2].charAt(parts[2].length() - 1);
+        String badSig = parts[2].substring(0, parts[2].length() - 1) + (last == 'A' ? 'B' : 'A');
+        assertNull(verifier.verify(parts[0] + "." + parts[1] + "." + badSig));
+
+        // still fine untouched
+        assertTrue(verifier.isValid(token));
+    }
+
+    @Test
+    public void testAlgorithmMustBeHS256() {
+        String token = new Signer(sharedKey).sign(makeUser());
+        String rest = token.substring(token.indexOf('.'));
+        String none = Base64URL.encode("{\"alg\":\"none\",\"typ\":\"JWT\"}").toString();
+        assertNull(new Verifier(sharedKey).verify(none + rest));
+    }
+
+    @Test
+    public void testMalformed() {
+        Verifier verifier = new Verifier(sharedKey);
+        assertNull(verifier.verify(null));
+        assertNull(verifier.verify(""));
+        assertNull(verifier.verify("abc"));
+        assertNull(verifier.verify("a.b"));
+        assertNull(verifier.verify(".b.c"));
+        assertNull(verifier.verify("%%%.b.0123456789012345678901234567890123456789012"));
+
+        String token = new Signer(sharedKey).sign(makeUser());
+        assertNull(verifier.verify(token + "."));
+        assertNull(verifier.verify(token + "x"));
+        assertNull(verifier.verify(token.replaceFirst("\\.", ".\u00e9")));
+    }
+
+    @Test
+    public void testCache() {
+        String token = new Signer(sharedKey).sign(makeUser());
+
+        Verifier cached = new Verifier(sharedKey);
+        VerifiedToken first = cached.verify(token);
+        assertSame(first, cached.verify(new String(token))); // equal, not identical
+        cached.clearCache();
+        assertNotSame(first, cached.verify(token));
+
+        Verifier uncached = new Verifier(sharedKey, 0);
+        assertNotSame(uncached.verify(token), uncached.verify(token));
+
+        // a near miss, in what is likely the same slot, isn't a cache hit
+        Verifier tiny = new Verifier(sharedKey, 1);
+        assertNotNull(tiny.verify(token));
+        char last = token.charAt(token.length() - 1);
+        String forged = token.substring(0, token.length() - 1) + (last == 'A' ? 'B' : 'A');
+        assertNull(tiny.verify(forged));
+        assertNotNull(tiny.verify(token));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testShortKey() {
+        new Verifier("abcd");
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testNegativeCache() {
+        new Verifier(sharedKey, -1);
+    }
+}